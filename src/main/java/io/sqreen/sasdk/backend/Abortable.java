@@ -0,0 +1,16 @@
+package io.sqreen.sasdk.backend;
+
+/**
+ * A stream that can be given up on, e.g. an encoder whose body failed to be
+ * serialized or sent. Aborting frees the resources the stream holds, like
+ * {@link java.io.OutputStream#close()}, but without writing the remaining
+ * data.
+ */
+interface Abortable {
+
+    /**
+     * Frees the resources of the stream; it can't be written to afterwards.
+     * Does nothing if the stream was already finished or aborted.
+     */
+    void abort();
+}
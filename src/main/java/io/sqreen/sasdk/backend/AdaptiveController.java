@@ -0,0 +1,134 @@
+package io.sqreen.sasdk.backend;
+
+/**
+ * Tunes the number of concurrent batch submissions and the number of objects
+ * that triggers a batch, from the outcome and the round-trip time of each
+ * submission, in the manner of TCP congestion control (AIMD).
+ *
+ * <ul>
+ *     <li>A failed submission halves the concurrency limit and shrinks the
+ *     trigger size by a quarter.</li>
+ *     <li>A smoothed round-trip time above twice the baseline (a slowly
+ *     rising minimum) means requests are queueing up in the backend: the
+ *     concurrency limit is decreased by 10%, at most once per round. If
+ *     objects are piling up in the queue, the trigger size grows by an
+ *     eighth, so that each request carries more.</li>
+ *     <li>Otherwise, if objects are piling up in the queue, the concurrency
+ *     limit grows by about one per round; once it's at its maximum, the
+ *     trigger size grows instead.</li>
+ * </ul>
+ *
+ * The concurrency limit is kept between 1 and <code>maxConcurrency</code>,
+ * and the trigger size between the configured bounds. The trigger size is
+ * also the maximum size of the batches, so that the round-trip times of
+ * different batches are comparable; the baseline is measured again whenever
+ * the trigger size changes.
+ */
+final class AdaptiveController {
+    private static final double RTT_TOLERANCE = 2.0;
+    private static final double FAILURE_DECREASE = 0.5;
+    private static final double LATENCY_DECREASE = 0.9;
+    private static final double TRIGGER_FAILURE_DECREASE = 0.75;
+    private static final double RTT_SMOOTHING = 0.2;
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final int maxConcurrency;
+    private final int minTriggerSize;
+    private final int maxTriggerSize;
+
+    // guarded by this
+    private double limit;
+    private double smoothedRtt;
+    private double baselineRtt;
+    private int samplesSinceDecrease;
+
+    private volatile int concurrencyLimit;
+    private volatile int triggerSize;
+
+    AdaptiveController(int maxConcurrency, int initialTriggerSize,
+                       int minTriggerSize, int maxTriggerSize) {
+        this.maxConcurrency = maxConcurrency;
+        this.minTriggerSize = minTriggerSize;
+        this.maxTriggerSize = maxTriggerSize;
+        this.limit = maxConcurrency;
+        this.concurrencyLimit = maxConcurrency;
+        this.triggerSize = Math.max(minTriggerSize, Math.min(maxTriggerSize, initialTriggerSize));
+    }
+
+    int concurrencyLimit() {
+        return this.concurrencyLimit;
+    }
+
+    int triggerSize() {
+        return this.triggerSize;
+    }
+
+    /**
+     * @param rttInNanos the duration of the submission
+     * @param backlog whether enough objects for another batch were queued
+     *                when the submission finished
+     */
+    synchronized void onSuccess(long rttInNanos, boolean backlog) {
+        double rtt = rttInNanos;
+        this.samplesSinceDecrease++;
+        if (this.baselineRtt == 0) {
+            this.baselineRtt = rtt;
+            this.smoothedRtt = rtt;
+        } else {
+            this.smoothedRtt += (rtt - this.smoothedRtt) * RTT_SMOOTHING;
+            if (rtt < this.baselineRtt) {
+                this.baselineRtt = rtt;
+            } else {
+                // let the baseline follow lasting changes of the network
+                this.baselineRtt += (rtt - this.baselineRtt) * BASELINE_DRIFT;
+            }
+        }
+
+        if (this.smoothedRtt > RTT_TOLERANCE * this.baselineRtt) {
+            // the requests in flight when the congestion started all report
+            // it; react only once per round
+            if (this.samplesSinceDecrease > this.limit) {
+                decreaseLimit(LATENCY_DECREASE);
+                if (backlog) {
+                    // more requests won't help; larger ones might
+                    growTriggerSize();
+                }
+            }
+        } else if (backlog) {
+            if (this.limit < this.maxConcurrency) {
+                setLimit(this.limit + 1 / this.limit);
+            } else {
+                growTriggerSize();
+            }
+        }
+    }
+
+    synchronized void onFailure() {
+        decreaseLimit(FAILURE_DECREASE);
+        setTriggerSize((int) (this.triggerSize * TRIGGER_FAILURE_DECREASE));
+    }
+
+    private void decreaseLimit(double factor) {
+        setLimit(this.limit * factor);
+        this.samplesSinceDecrease = 0;
+    }
+
+    private void growTriggerSize() {
+        int t = this.triggerSize;
+        setTriggerSize(t + Math.max(1, t / 8));
+    }
+
+    private void setTriggerSize(int triggerSize) {
+        triggerSize = Math.max(this.minTriggerSize, Math.min(this.maxTriggerSize, triggerSize));
+        if (triggerSize != this.triggerSize) {
+            this.triggerSize = triggerSize;
+            // batches of a different size take a different time
+            this.baselineRtt = 0;
+        }
+    }
+
+    private void setLimit(double limit) {
+        this.limit = Math.max(1, Math.min(this.maxConcurrency, limit));
+        this.concurrencyLimit = (int) this.limit;
+    }
+}
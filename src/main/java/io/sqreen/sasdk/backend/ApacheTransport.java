@@ -0,0 +1,149 @@
+package io.sqreen.sasdk.backend;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sends the requests with an Apache HttpClient 4.
+ */
+class ApacheTransport implements Transport {
+    private final CloseableHttpClient httpClient;
+    private final boolean httpClientOwned;
+
+    /**
+     * @param httpClientOwned whether the client is closed with the transport
+     */
+    ApacheTransport(CloseableHttpClient httpClient, boolean httpClientOwned) {
+        checkArgument(httpClient != null);
+        this.httpClient = httpClient;
+        this.httpClientOwned = httpClientOwned;
+    }
+
+    CloseableHttpClient getHttpClient() {
+        return this.httpClient;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        final CloseableHttpResponse response;
+        try {
+            response = this.httpClient.execute(toHttpRequest(request));
+        } catch (IllegalStateException ise) {
+            if ("Connection pool shut down".equals(ise.getMessage())) {
+                throw new IOException("Request failed due to http client thread pool shutdown", ise);
+            } else {
+                throw ise;
+            }
+        }
+
+        return new Response() {
+            @Override
+            public int getStatus() {
+                return response.getStatusLine().getStatusCode();
+            }
+
+            @Override
+            public InputStream getContent() throws IOException {
+                HttpEntity entity = response.getEntity();
+                return entity != null ? entity.getContent() : new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public void close() throws IOException {
+                response.close();
+            }
+        };
+    }
+
+    static HttpRequestBase toHttpRequest(Request request) {
+        HttpRequestBase httpRequest;
+        switch (request.getMethod()) {
+            case GET:
+                httpRequest = new HttpGet(request.getUrl());
+                break;
+            case POST:
+                HttpPost httpPost = new HttpPost(request.getUrl());
+                if (request.getBody() != null) {
+                    httpPost.setEntity(toEntity(request.getBody()));
+                }
+                httpRequest = httpPost;
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported HTTP method " + request.getMethod());
+        }
+
+        for (Map.Entry<String, String> h : request.getHeaders().entries()) {
+            httpRequest.addHeader(h.getKey(), h.getValue());
+        }
+        return httpRequest;
+    }
+
+    private static HttpEntity toEntity(Body body) {
+        // the bodies of BackendHttpImpl are entities already
+        if (body instanceof HttpEntity) {
+            return (HttpEntity) body;
+        }
+        return new BodyEntity(body);
+    }
+
+    /**
+     * Closes the http client, if owned.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.httpClientOwned) {
+            this.httpClient.close();
+        }
+    }
+
+    private static class BodyEntity extends AbstractHttpEntity {
+        private final Body body;
+
+        BodyEntity(Body body) {
+            this.body = body;
+            setChunked(body.getContentLength() < 0);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return this.body.getContentLength();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            writeTo(baos);
+            return new ByteArrayInputStream(baos.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            checkArgument(outStream != null);
+            this.body.writeTo(outStream);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
@@ -1,42 +1,56 @@
 package io.sqreen.sasdk.backend;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.cfg.ContextAttributes;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.io.ByteSource;
 import io.sqreen.sasdk.backend.exception.AuthenticationException;
 import io.sqreen.sasdk.backend.exception.BadHttpStatusException;
 import io.sqreen.sasdk.backend.exception.InvalidPayloadException;
-import org.apache.http.client.methods.*;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPOutputStream;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
 class BackendHttpImpl implements Closeable {
     public static final String JACKSON_ATTRIBUTE = "backend http service";
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    private static final long MAX_POOLED_BUFFER_BYTES = 4 * 1024 * 1024;
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final ObjectReader objectReader;
     private final ObjectWriter objectWriter;
+    // objectWriter, leaving the connection's stream open; built once, so that
+    // the JSON of constant objects, cached per configuration, is reused
+    private final ObjectWriter streamingObjectWriter;
 
-    private final CloseableHttpClient httpClient;
+    private final Transport transport;
     private final Class<?> errorResponseClass;
-    private final boolean httpClientOwned;
+    private final boolean streamingRequests;
+    // of the bodies produced by objectWriter
+    private final String contentType;
+    // the codec for requests asking for compression; null if compression is disabled
+    private final ContentCodec codec;
+    private final int compressionMinSize;
+    private final CompressionStats compressionStats;
+    // for the bodies of the requests not streamed
+    private final BufferPool bufferPool = new BufferPool(MAX_POOLED_BUFFER_BYTES);
+    // null if batches are serialized by the sending thread
+    private final ParallelSerializer parallelSerializer;
 
     // not-null
     private IngestionErrorListener errorListener;
@@ -47,8 +61,13 @@ class BackendHttpImpl implements Closeable {
     }
 
     private BackendHttpImpl(Builder b) {
-        this.httpClient = b.httpClient;
-        this.httpClientOwned = b.httpClientOwned;
+        this.transport = b.transport;
+        this.streamingRequests = b.streamingRequests;
+        this.contentType = b.contentType;
+        this.codec = b.codec;
+        this.compressionMinSize = b.compressionMinSize;
+        this.compressionStats = b.compressionStats != null ? b.compressionStats : new CompressionStats();
+        this.parallelSerializer = b.parallelSerializer;
         if (b.errorResponseClass != IgnoredResponse.class) {
             this.objectReader = b.objectReader.with(
                     ContextAttributes.getEmpty().withSharedAttribute(JACKSON_ATTRIBUTE, this));
@@ -63,26 +82,35 @@ class BackendHttpImpl implements Closeable {
 
         // we can add JACKSON_ATTRIBUTE if we ever need it to report errors during serialization
         this.objectWriter = b.objectWriter;
+        this.streamingObjectWriter = b.objectWriter.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
-    public static Builder builder(CloseableHttpClient httpClient, boolean httpClientOwned) {
-        return new Builder(httpClient, httpClientOwned);
+    /**
+     * @param transport the transport of the requests, owned by the created instance
+     */
+    public static Builder builder(Transport transport) {
+        return new Builder(transport);
     }
 
     public static class Builder {
-        private final CloseableHttpClient httpClient;
-        private final boolean httpClientOwned;
+        private final Transport transport;
         private ObjectReader objectReader;
         private ObjectWriter objectWriter;
         private IngestionErrorListener errorListener;
         private Class<?> errorResponseClass;
+        private boolean streamingRequests;
+        private String contentType;
+        private ContentCodec codec;
+        private int compressionMinSize;
+        private CompressionStats compressionStats;
+        private ParallelSerializer parallelSerializer;
 
-        private Builder(CloseableHttpClient httpClient, boolean ownedClient) {
-            checkArgument(httpClient != null);
-            this.httpClient = httpClient;
-            this.httpClientOwned = ownedClient;
+        private Builder(Transport transport) {
+            checkArgument(transport != null);
+            this.transport = transport;
 
             this.errorResponseClass = IgnoredResponse.class;
+            this.contentType = JSON_CONTENT_TYPE;
         }
 
         Builder objectWriter(ObjectWriter objectWriter) {
@@ -91,6 +119,16 @@ class BackendHttpImpl implements Closeable {
             return this;
         }
 
+        /**
+         * The <code>Content-Type</code> of the bodies produced by the object
+         * writer, <code>application/json</code> by default.
+         */
+        Builder contentType(String contentType) {
+            checkArgument(contentType != null);
+            this.contentType = contentType;
+            return this;
+        }
+
         Builder objectReader(ObjectReader objectReader) {
             checkArgument(objectReader != null);
             this.objectReader = objectReader;
@@ -102,6 +140,47 @@ class BackendHttpImpl implements Closeable {
             return this;
         }
 
+        /**
+         * Whether request bodies are serialized while being sent, with chunked
+         * transfer encoding, instead of being buffered before.
+         */
+        Builder streamingRequests(boolean streamingRequests) {
+            this.streamingRequests = streamingRequests;
+            return this;
+        }
+
+        /**
+         * Enables the compression of the request bodies of at least the
+         * given size, for the requests that ask for it.
+         * @param codec the codec used by default by these requests
+         * @param minSizeInBytes bodies smaller than this are sent unencoded
+         */
+        Builder codec(ContentCodec codec, int minSizeInBytes) {
+            checkArgument(codec != null);
+            checkArgument(minSizeInBytes >= 0);
+            this.codec = codec;
+            this.compressionMinSize = minSizeInBytes;
+            return this;
+        }
+
+        /**
+         * Where the sizes of the compressed request bodies are recorded; by
+         * default, in an object of the created instance.
+         */
+        Builder compressionStats(CompressionStats compressionStats) {
+            this.compressionStats = compressionStats;
+            return this;
+        }
+
+        /**
+         * Serializes large batches in parallel, if the requests are not
+         * streamed. The serializer is then owned by the created instance.
+         */
+        Builder parallelSerializer(ParallelSerializer parallelSerializer) {
+            this.parallelSerializer = parallelSerializer;
+            return this;
+        }
+
         public Builder errorListener(IngestionErrorListener errorListener) {
             this.errorListener = errorListener;
             return this;
@@ -116,6 +195,14 @@ class BackendHttpImpl implements Closeable {
         this.errorListener = errorListener;
     }
 
+    boolean isCompressionEnabled() {
+        return this.codec != null;
+    }
+
+    CompressionStats getCompressionStats() {
+        return this.compressionStats;
+    }
+
     public RequestBuilder newRequest(HttpMethod method, String host, String path) {
         return new RequestBuilder(method, host, path);
     }
@@ -126,7 +213,8 @@ class BackendHttpImpl implements Closeable {
         private final String path;
         private Multimap<String, String> headers;
         private Object payload;
-        private boolean compression;
+        // null for no encoding
+        private ContentCodec codec;
         private String host;
 
         private RequestBuilder(HttpMethod method, String host, String path) {
@@ -156,8 +244,21 @@ class BackendHttpImpl implements Closeable {
             return this;
         }
 
+        /**
+         * Whether the body is compressed with the codec configured in the
+         * {@link BackendHttpImpl.Builder}, if any.
+         */
         public RequestBuilder compression(boolean compression) {
-            this.compression = compression;
+            this.codec = compression ? BackendHttpImpl.this.codec : null;
+            return this;
+        }
+
+        /**
+         * Encodes the body with the given codec, or with none if null. Bodies
+         * smaller than the configured minimum size are not encoded.
+         */
+        public RequestBuilder codec(ContentCodec codec) {
+            this.codec = codec;
             return this;
         }
 
@@ -178,30 +279,15 @@ class BackendHttpImpl implements Closeable {
             return response;
         }
 
-        public HttpUriRequest build() throws IOException {
-            HttpUriRequest request;
-            String url = this.host + this.path;
-            switch (this.method) {
-                case GET:
-                    request = new HttpGet(url);
-                    break;
-                case POST:
-                    HttpPost httpPost = new HttpPost(url);
-                    httpPost.setHeader("Content-Type", "application/json");
-                    if (this.compression) {
-                        httpPost.setHeader("Content-Encoding", "gzip");
-                    }
-                    writeRequestBody(this.payload, this.compression, httpPost);
-                    request = httpPost;
-                    break;
-                default:
-                    throw new IllegalArgumentException("unsupported HTTP method " + this.method);
-            }
-
-            for (Map.Entry<String, String> h : this.headers.entries()) {
-                request.addHeader(h.getKey(), h.getValue());
+        public Transport.Request build() throws IOException {
+            ListMultimap<String, String> requestHeaders = ArrayListMultimap.create();
+            Transport.Body body = null;
+            if (this.method == HttpMethod.POST) {
+                requestHeaders.put("Content-Type", BackendHttpImpl.this.contentType);
+                body = createRequestBody(this.path, this.payload, this.codec, requestHeaders);
             }
-            return request;
+            requestHeaders.putAll(this.headers);
+            return new Transport.Request(this.method, this.host + this.path, requestHeaders, body);
         }
     }
 
@@ -210,14 +296,23 @@ class BackendHttpImpl implements Closeable {
         logger.debug("Backend {} request to {} {} with payload {}",
                 r.method, r.host, r.path, r.payload);
 
-        HttpUriRequest request = r.build();
+        Transport.Request request = r.build();
+        try {
+            return doRequest(request, returnType);
+        } finally {
+            if (request.getBody() instanceof PooledByteArrayEntity) {
+                ((PooledByteArrayEntity) request.getBody()).release();
+            }
+        }
+    }
 
-        try (CloseableHttpResponse response = httpClient.execute(request)){
+    private <T> T doRequest(Transport.Request request, Class<T> returnType) throws IOException {
+        try (Transport.Response response = this.transport.execute(request)) {
 
-            int status = response.getStatusLine().getStatusCode();
+            int status = response.getStatus();
             logger.debug("Backend response {}", status);
 
-            try (final InputStream content = response.getEntity().getContent()) {
+            try (final InputStream content = response.getContent()) {
 
                 if (status != 200 && status != 202) {
                     ByteSource source = new ByteSource() {
@@ -254,35 +349,69 @@ class BackendHttpImpl implements Closeable {
                 }
                 return objectReader.forType(returnType).readValue(content);
             }
+        }
+    }
 
-        } catch (IllegalStateException ise) {
-            if ("Connection pool shut down".equals(ise.getMessage())) {
-                throw new IOException("Request failed due to http client thread pool shutdown", ise);
-            } else {
-                throw ise;
+    /**
+     * Creates the body of the request from the serialized payload, encoded
+     * with the codec, if any, unless the payload is too small.
+     * @param headers where the <code>Content-Encoding</code> header is added
+     */
+    private Transport.Body createRequestBody(String path, Object payload, ContentCodec codec,
+                                             ListMultimap<String, String> headers) throws IOException {
+        if (this.streamingRequests) {
+            // serialized (and encoded) straight into the connection;
+            // the size is not known in advance, so it's estimated
+            if (codec != null && SignalSizeEstimator.estimate(payload) < this.compressionMinSize) {
+                codec = null;
+            }
+            if (codec != null) {
+                headers.put("Content-Encoding", codec.getContentEncoding());
             }
+            return new JsonStreamingEntity(this.streamingObjectWriter, payload,
+                    codec, this.compressionStats, path);
         }
 
+        // write json to memory (unencoded), in pooled buffers that are
+        // returned once the request is completed
+        PooledByteArrayOutputStream body = new PooledByteArrayOutputStream(this.bufferPool);
+        boolean success = false;
+        try {
+            if (this.parallelSerializer != null && this.parallelSerializer.accepts(payload)) {
+                this.parallelSerializer.writeArray(this.objectWriter, (List<?>) payload, this.bufferPool, body);
+            } else {
+                this.objectWriter.writeValue(body, payload);
+            }
 
-    }
-
-    private void writeRequestBody(Object payload, boolean compression, HttpEntityEnclosingRequestBase httpRequest) throws IOException {
-        // write json to memory (uncompressed)
-        ByteArrayOutputStream rawJson = new ByteArrayOutputStream();
-
-        this.objectWriter.writeValue(rawJson, payload);
-        byte[] binPayload = rawJson.toByteArray();
+            if (codec != null && body.size() >= this.compressionMinSize) {
+                PooledByteArrayOutputStream encoded = new PooledByteArrayOutputStream(this.bufferPool);
+                try {
+                    OutputStream encoder = codec.encode(encoded);
+                    try {
+                        body.writeTo(encoder);
+                        encoder.close();
+                    } catch (IOException | RuntimeException e) {
+                        ContentCodecs.abort(encoder);
+                        throw e;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    encoded.release();
+                    throw e;
+                }
+                this.compressionStats.record(path, body.size(), encoded.size());
+                body.release();
+                body = encoded;
+                headers.put("Content-Encoding", codec.getContentEncoding());
+            }
 
-        // compression : repack payload in-memory
-        if (compression) {
-            ByteArrayOutputStream compressedOutput = new ByteArrayOutputStream();
-            GZIPOutputStream gzipStream = new GZIPOutputStream(compressedOutput);
-            ByteSource.wrap(binPayload).copyTo(gzipStream);
-            gzipStream.close();
-            binPayload = compressedOutput.toByteArray();
+            PooledByteArrayEntity entity = new PooledByteArrayEntity(body);
+            success = true;
+            return entity;
+        } finally {
+            if (!success) {
+                body.release();
+            }
         }
-
-        httpRequest.setEntity(new ByteArrayEntity(binPayload));
     }
 
     private Object parseErrorResponse(String responseBody) {
@@ -300,11 +429,19 @@ class BackendHttpImpl implements Closeable {
         return errorResponse;
     }
 
+    /**
+     * Closes the transport. With an owned http client, this shuts down its
+     * connection pool, closing the persistent connections, and stops its
+     * idle connection evictor thread, if any. The serialization threads, if
+     * any, are stopped.
+     */
     @Override
     public void close() throws IOException {
-        if (this.httpClientOwned) {
-            this.httpClient.close();
+        if (this.parallelSerializer != null) {
+            this.parallelSerializer.close();
         }
+        logger.debug("Closing the transport and its connections");
+        this.transport.close();
     }
 
     public enum IgnoredResponse {
@@ -1,15 +1,32 @@
 package io.sqreen.sasdk.backend;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.common.collect.Lists;
+import io.sqreen.sasdk.backend.exception.BadHttpStatusException;
+import io.sqreen.sasdk.backend.exception.InvalidPayloadException;
+import io.sqreen.sasdk.signals_dto.SerializedSignal;
 import io.sqreen.sasdk.signals_dto.Signal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A class that accepts signals and traces for subsequent batch submission.
@@ -23,28 +40,98 @@ public class BatchCollector implements Closeable {
     private final int triggerSize;
     private final IngestionHttpClient.WithAuthentication client;
     private final int maxQueueSize;
+    // 0 if there's no budget in bytes
+    private final long maxQueueSizeInBytes;
+    private final long maxRequestSizeInBytes;
+    // 0 if poison isolation is disabled
+    private final int maxIsolationRequests;
+    private final QuarantineListener quarantineListener;
+    private final AtomicLong quarantinedCount = new AtomicLong();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
     private final AtomicInteger activeBatches = new AtomicInteger(0);
-    private final ScheduledExecutorService pool;
+    private final AdmissionPolicy admissionPolicy;
+    private final long admissionTimeoutInNanos;
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+    private final Lock roomLock = new ReentrantLock();
+    private final Condition roomAvailable = this.roomLock.newCondition();
+    // runs only the timed flushes, so that these are never stuck behind a slow request
+    private final ScheduledExecutorService timer;
+    // runs the http requests; at most maxConcurrentRequests at a time
+    private final ExecutorService senders;
+    private final boolean sendersOwned;
     private volatile boolean closed;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BatchCollector.class);
     private static final AtomicInteger THREAD_SERIAL = new AtomicInteger();
+    private static final ObjectReader SPILL_READER = new ObjectMapper().reader();
+    private static final long MIN_TICK_IN_MS = 1;
+    private static final long MAX_TICK_IN_MS = 1000;
+    private static final int PAYLOAD_TOO_LARGE = 413;
+    // requests added per batch, by splitting those rejected as too large,
+    // when poison isolation doesn't set the limit
+    static final int DEFAULT_MAX_SPLIT_REQUESTS = 16;
 
-    private final ScheduledReportRunnable reportRunnable = new ScheduledReportRunnable();
-    private final BlockingDeque<Signal> queue = new LinkedBlockingDeque<Signal>();
+    // null if failed batches are not spilled to disk
+    private final DiskSpillStore spillStore;
+    private final ObjectWriter spillWriter;
+    private final AtomicBoolean replaying = new AtomicBoolean();
 
-    // guarded by this; never null
-    // rescheduled: 1) on construction 2) when there's a submission 3) when the timer expires
-    private ScheduledFuture<?> nextTimedSubmission;
+    private final RetryPolicy retryPolicy;
+    private final RetryBudget retryBudget;
+    private final Set<PendingRetry> pendingRetries =
+            Collections.newSetFromMap(new ConcurrentHashMap<PendingRetry, Boolean>());
+    private final AtomicLong retriedCount = new AtomicLong();
+
+    // null if the concurrency and the trigger size are fixed
+    private final AdaptiveController adaptiveController;
+
+    private final SignalQueue queue;
+
+    // System.nanoTime() after which the ticker flushes the queue
+    // pushed back: 1) on construction 2) when there's a submission 3) when the ticker flushes
+    private volatile long flushDeadline;
+    private final long maxDelayInNanos;
+    private final ScheduledFuture<?> ticker;
 
     private BatchCollector(BatchCollectorBuilder builder) {
         this.triggerSize = builder.triggerSize;
         this.maxQueueSize = builder.maxQueueSize;
+        this.maxQueueSizeInBytes = builder.maxQueueSizeInBytes;
+        this.maxRequestSizeInBytes = builder.maxRequestSizeInBytes;
+        this.maxIsolationRequests = builder.maxIsolationRequests;
+        this.quarantineListener = builder.quarantineListener;
+        this.admissionPolicy = builder.admissionPolicy;
+        this.admissionTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(builder.admissionTimeoutInMs);
         this.maxConcurrentRequests = builder.maxConcurrentRequests;
         this.maxDelayInMs = builder.maxDelayInMs;
         this.client = builder.client;
-        this.pool = builder.service;
-        this.nextTimedSubmission = scheduleReport();
+        this.timer = builder.timer;
+        this.senders = builder.senders;
+        this.sendersOwned = builder.sendersOwned;
+        this.queue = builder.queueType.create(this.maxQueueSize, this.triggerSize);
+        this.spillStore = builder.spillStore;
+        this.spillWriter = builder.spillWriter;
+        this.retryPolicy = builder.retryPolicy;
+        this.retryBudget = new RetryBudget(builder.retryBudgetRatio, builder.retryBudgetMinRetries);
+        this.adaptiveController = builder.adaptiveControl ?
+                new AdaptiveController(Math.max(1, this.maxConcurrentRequests), this.triggerSize,
+                        builder.minTriggerSize, builder.maxTriggerSize) :
+                null;
+        this.maxDelayInNanos = TimeUnit.MILLISECONDS.toNanos(this.maxDelayInMs);
+        this.flushDeadline = System.nanoTime() + this.maxDelayInNanos;
+        long tick = tickIntervalInMs(this.maxDelayInMs);
+        this.ticker = this.timer.scheduleAtFixedRate(
+                new ScheduledReportRunnable(), tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The timed flushes happen at most one tick late; a tenth of the delay,
+     * between 1 ms and 1 s, keeps this small at a negligible cost.
+     */
+    static long tickIntervalInMs(long maxDelayInMs) {
+        return Math.max(MIN_TICK_IN_MS, Math.min(MAX_TICK_IN_MS, maxDelayInMs / 10));
     }
 
     /**
@@ -62,32 +149,122 @@ public class BatchCollector implements Closeable {
      * a separate thread, the object should not be changed further.
      * The serialized form of the object should follow the schema for signals
      * or traces.
+     *
+     * What happens when the queue is full depends on the
+     * {@link BatchCollectorBuilder#withAdmissionPolicy(AdmissionPolicy) admission policy}.
+     * If the thread is interrupted while waiting for room in the queue, the
+     * object is rejected and the interrupt status is restored.
+     *
      * @param signalOrTrace the signal or trace
      * @return whether the object was accepted
      * @throws IllegalStateException if {@link #close()} has been called.
      */
     public boolean add(Signal signalOrTrace) {
+        checkNotClosed();
+
+        long weight = weightOf(signalOrTrace);
+        if (offer(signalOrTrace, weight)) {
+            return true;
+        }
+
+        boolean accepted;
+        switch (this.admissionPolicy) {
+            case DROP_OLDEST:
+                evictOldest(weight);
+                accepted = offer(signalOrTrace, weight);
+                break;
+            case BLOCK:
+            case TIMED_WAIT:
+                long timeout = this.admissionPolicy == AdmissionPolicy.BLOCK ?
+                        -1 : this.admissionTimeoutInNanos;
+                try {
+                    accepted = awaitAdmission(signalOrTrace, weight, timeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    accepted = false;
+                }
+                break;
+            default:
+                accepted = false;
+        }
+
+        if (!accepted) {
+            LOGGER.debug("Dropping object {}", signalOrTrace);
+            countDropped(signalOrTrace, weight);
+        }
+        return accepted;
+    }
+
+    /**
+     * Adds a signal or trace for batching, waiting if necessary up to the
+     * given time for room to become available in the queue. The admission
+     * policy is not consulted.
+     *
+     * @param signalOrTrace the signal or trace
+     * @param timeout how long to wait before giving up
+     * @param unit the unit of <code>timeout</code>
+     * @return whether the object was accepted
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if {@link #close()} has been called.
+     * @see #add(Signal)
+     */
+    public boolean add(Signal signalOrTrace, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        checkNotClosed();
+
+        long weight = weightOf(signalOrTrace);
+        if (offer(signalOrTrace, weight) ||
+                awaitAdmission(signalOrTrace, weight, Math.max(0, unit.toNanos(timeout)))) {
+            return true;
+        }
+
+        LOGGER.debug("Dropping object {}", signalOrTrace);
+        countDropped(signalOrTrace, weight);
+        return false;
+    }
+
+    private void checkNotClosed() {
         if (this.closed) {
             throw new IllegalStateException("close() has already been called");
         }
+    }
 
+    private long weightOf(Signal signalOrTrace) {
+        if (this.maxQueueSizeInBytes > 0) {
+            return SignalSizeEstimator.estimate(signalOrTrace);
+        }
+        return 0;
+    }
+
+    /**
+     * Queues the object if there is room for it, after trying to make room by
+     * submitting a batch if needed.
+     * @return whether the object was queued
+     */
+    private boolean offer(Signal signalOrTrace, long weight) {
         int size = this.queue.size();
-        if (size >= this.maxQueueSize) {
-            if (this.activeBatches.get() < this.maxConcurrentRequests) {
+        if (size >= this.maxQueueSize || !reserveBytes(weight)) {
+            if (this.activeBatches.get() < concurrencyLimit()) {
                 LOGGER.debug("Submitting batch to try and clear the queue");
                 submitBatch();
             }
             size = this.queue.size();
             if (size >= this.maxQueueSize) {
-                LOGGER.debug(
-                        "Dropping object {} because max queue size has been reached",
-                        signalOrTrace);
+                LOGGER.debug("Max queue size has been reached");
+                return false;
+            }
+            if (!reserveBytes(weight)) {
+                LOGGER.debug("Max queue size in bytes has been reached");
                 return false;
             }
         }
 
-        this.queue.add(signalOrTrace);
-        if (size + 1 >= this.triggerSize) {
+        if (!this.queue.offer(signalOrTrace, weight)) {
+            LOGGER.debug("The queue is full");
+            releaseBytes(weight);
+            return false;
+        }
+        if (size + 1 >= triggerSize()) {
             // at this point the queue may have been drained
             // since we checked, but this is not a problematic race
             submitBatch();
@@ -95,6 +272,98 @@ public class BatchCollector implements Closeable {
         return true;
     }
 
+    private boolean hasRoomFor(long weight) {
+        if (this.queue.size() >= this.maxQueueSize) {
+            return false;
+        }
+        if (this.maxQueueSizeInBytes <= 0) {
+            return true;
+        }
+        long cur = this.queuedBytes.get();
+        return cur == 0 || cur + weight <= this.maxQueueSizeInBytes;
+    }
+
+    /**
+     * Drops the oldest queued objects until there's room for an object of
+     * the given weight.
+     */
+    private void evictOldest(long weight) {
+        List<Signal> evicted = Lists.newArrayListWithCapacity(1);
+        // bounded, in case other threads keep taking the room we make
+        for (int i = 0; i < this.maxQueueSize && !hasRoomFor(weight); i++) {
+            evicted.clear();
+            // the weight reserved when it was queued
+            long oldestWeight = this.queue.drainTo(evicted, 1);
+            if (evicted.isEmpty()) {
+                return;
+            }
+            Signal oldest = evicted.get(0);
+            releaseBytes(oldestWeight);
+            LOGGER.debug("Dropping oldest object {} to make room", oldest);
+            countDropped(oldest, oldestWeight);
+        }
+    }
+
+    /**
+     * Waits until the object can be queued. The threads that drain the queue
+     * signal the waiting threads. While there are waiting threads, each batch
+     * request that finishes submits a new batch, so the queue keeps being
+     * drained even while the maximum number of concurrent requests is reached.
+     *
+     * @param timeoutInNanos the maximum time to wait, or a negative value to
+     *                       wait indefinitely
+     * @return whether the object was queued
+     */
+    private boolean awaitAdmission(Signal signalOrTrace, long weight, long timeoutInNanos)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutInNanos;
+        this.waitingProducers.incrementAndGet();
+        try {
+            while (true) {
+                if (this.closed) {
+                    return false;
+                }
+                if (offer(signalOrTrace, weight)) {
+                    return true;
+                }
+
+                this.roomLock.lock();
+                try {
+                    // checked with the lock held so that the signal from a drain
+                    // that happens after this check is not missed
+                    if (hasRoomFor(weight) || this.closed) {
+                        continue;
+                    }
+                    if (timeoutInNanos < 0) {
+                        this.roomAvailable.await();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        this.roomAvailable.awaitNanos(remaining);
+                    }
+                } finally {
+                    this.roomLock.unlock();
+                }
+            }
+        } finally {
+            this.waitingProducers.decrementAndGet();
+        }
+    }
+
+    private void signalRoomAvailable() {
+        if (this.waitingProducers.get() == 0) {
+            return;
+        }
+        this.roomLock.lock();
+        try {
+            this.roomAvailable.signalAll();
+        } finally {
+            this.roomLock.unlock();
+        }
+    }
+
     /**
      * Forces a report call on the current thread.
      * @throws IOException if the request to the ingestion backend fails
@@ -102,11 +371,195 @@ public class BatchCollector implements Closeable {
     public void forceReport() throws IOException {
         rescheduleNextTimedSubmission();
         List<Signal> signals = Lists.newArrayList();
-        int num = this.queue.drainTo(signals);
+        int num = drainQueue(signals, Integer.MAX_VALUE);
         if (num == 0) {
             return;
         }
-        this.client.reportBatch(signals);
+        report(signals);
+    }
+
+    /**
+     * Sends the batch, in several requests if it exceeds the maximum request
+     * size. Requests rejected with <code>413 Payload Too Large</code> are
+     * split in two and sent again; single objects rejected that way are
+     * dropped. With poison isolation, requests rejected as invalid are split
+     * the same way, and the objects still rejected are quarantined. Both
+     * share the limit of extra requests per batch, past which the rejected
+     * requests are dropped or quarantined whole.
+     *
+     * If a request fails otherwise, the objects handled so far are removed
+     * from the batch, which must be mutable, so that only the others are
+     * retried.
+     */
+    private void report(List<Signal> batch) throws IOException {
+        Deque<List<Signal>> requests = new ArrayDeque<List<Signal>>(
+                this.maxRequestSizeInBytes > 0 ?
+                        packRequests(batch, this.maxRequestSizeInBytes) :
+                        Collections.singletonList(batch));
+        // sent, dropped or quarantined
+        int done = 0;
+        int extraRequests = 0;
+        int maxExtraRequests = this.maxIsolationRequests > 0 ?
+                this.maxIsolationRequests : DEFAULT_MAX_SPLIT_REQUESTS;
+        boolean success = false;
+        try {
+            while (!requests.isEmpty()) {
+                List<Signal> request = requests.peekFirst();
+                try {
+                    this.client.reportBatch(request);
+                } catch (BadHttpStatusException e) {
+                    boolean tooLarge = e.getResponseCode() == PAYLOAD_TOO_LARGE;
+                    boolean invalid = e instanceof InvalidPayloadException
+                            && this.maxIsolationRequests > 0;
+                    if (!tooLarge && !invalid) {
+                        throw e;
+                    }
+                    requests.removeFirst();
+                    if (request.size() == 1 || extraRequests + 2 > maxExtraRequests) {
+                        if (tooLarge) {
+                            dropTooLarge(request);
+                        } else {
+                            quarantine(request, (InvalidPayloadException) e);
+                        }
+                        done += request.size();
+                    } else {
+                        LOGGER.debug("Request of {} objects rejected as {}; splitting it",
+                                request.size(), tooLarge ? "too large" : "invalid");
+                        splitInTwo(request, requests);
+                        extraRequests += 2;
+                    }
+                    continue;
+                }
+                requests.removeFirst();
+                done += request.size();
+            }
+            success = true;
+        } finally {
+            // the requests are consecutive ranges of the batch, handled in order
+            if (!success && done > 0) {
+                batch.subList(0, done).clear();
+            }
+        }
+    }
+
+    private static void splitInTwo(List<Signal> request, Deque<List<Signal>> requests) {
+        int half = request.size() / 2;
+        requests.addFirst(request.subList(half, request.size()));
+        requests.addFirst(request.subList(0, half));
+    }
+
+    private void dropTooLarge(List<Signal> rejected) {
+        for (Signal signal : rejected) {
+            countDropped(signal, 0);
+        }
+        LOGGER.warn("{} objects too large for the backend were dropped", rejected.size());
+    }
+
+    private void quarantine(List<Signal> rejected, InvalidPayloadException e) {
+        this.quarantinedCount.addAndGet(rejected.size());
+        LOGGER.warn("{} objects rejected by the backend were quarantined: {}",
+                rejected.size(), e.getMessage());
+        if (this.quarantineListener == null) {
+            return;
+        }
+        try {
+            // the batch is cleared if a later request fails
+            this.quarantineListener.onQuarantine(
+                    Collections.unmodifiableList(Lists.newArrayList(rejected)), e);
+        } catch (RuntimeException le) {
+            LOGGER.warn("Quarantine listener failed", le);
+        }
+    }
+
+    /**
+     * Splits the batch into consecutive ranges whose estimated serialized
+     * size doesn't exceed the maximum, filling each range before starting
+     * the next one. Objects larger than the maximum get a range of their own.
+     */
+    static List<List<Signal>> packRequests(List<Signal> batch, long maxRequestSizeInBytes) {
+        List<List<Signal>> requests = Lists.newArrayList();
+        int start = 0;
+        long size = 2; // the brackets of the array
+        for (int i = 0; i < batch.size(); i++) {
+            long weight = SignalSizeEstimator.estimate(batch.get(i)) + 1; // and a comma
+            if (i > start && size + weight > maxRequestSizeInBytes) {
+                requests.add(batch.subList(start, i));
+                start = i;
+                size = 2;
+            }
+            size += weight;
+        }
+        if (start < batch.size()) {
+            requests.add(batch.subList(start, batch.size()));
+        }
+        return requests;
+    }
+
+    /**
+     * Reserves room for an object in the budget in bytes. An object larger
+     * than the whole budget is still accepted when nothing else is queued.
+     */
+    private boolean reserveBytes(long weight) {
+        if (this.maxQueueSizeInBytes <= 0) {
+            return true;
+        }
+        while (true) {
+            long cur = this.queuedBytes.get();
+            if (cur > 0 && cur + weight > this.maxQueueSizeInBytes) {
+                return false;
+            }
+            if (this.queuedBytes.compareAndSet(cur, cur + weight)) {
+                return true;
+            }
+        }
+    }
+
+    private void releaseBytes(long weight) {
+        if (weight > 0) {
+            this.queuedBytes.addAndGet(-weight);
+        }
+    }
+
+    private void countDropped(Signal signal, long weight) {
+        this.droppedCount.incrementAndGet();
+        this.droppedBytes.addAndGet(
+                weight > 0 ? weight : SignalSizeEstimator.estimate(signal));
+    }
+
+    private int drainQueue(List<Signal> signals, int maxElements) {
+        int before = signals.size();
+        // releases exactly what was reserved, even if the objects changed since
+        releaseBytes(this.queue.drainTo(signals, maxElements));
+        int num = signals.size() - before;
+        if (num > 0) {
+            signalRoomAvailable();
+        }
+        return num;
+    }
+
+    /**
+     * @return the number of objects rejected by {@link #add(Signal)} so far,
+     * or dropped since, including those the backend found too large
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * @return the estimated size, in bytes, of the serialized form of the
+     * objects counted in {@link #getDroppedCount()}
+     */
+    public long getDroppedBytes() {
+        return this.droppedBytes.get();
+    }
+
+    /**
+     * @return the estimated size, in bytes, of the serialized form of the
+     * objects currently queued, if a budget in bytes was configured with
+     * {@link BatchCollectorBuilder#withMaxQueueSizeInBytes(long)}; 0 otherwise
+     */
+    public long getQueuedBytes() {
+        return this.queuedBytes.get();
     }
 
     /**
@@ -114,34 +567,71 @@ public class BatchCollector implements Closeable {
      */
     private boolean submitBatch() {
         int curActive = this.activeBatches.get();
-        if (curActive >= this.maxConcurrentRequests) {
+        if (curActive >= concurrencyLimit()) {
             LOGGER.debug("Not submitting batch. " +
                     "maxConcurrentRequests reached (active: {})", curActive);
             return false;
         }
 
         List<Signal> signals = Lists.newArrayList();
-        int num = this.queue.drainTo(signals);
+        // with adaptive control, the trigger size bounds the batch size too
+        int num = drainQueue(signals,
+                this.adaptiveController != null ? triggerSize() : Integer.MAX_VALUE);
         if (num == 0) {
             LOGGER.debug("Queue drained between before call");
             return false;
         }
 
-        BatchRunnable batchRunnable = new BatchRunnable(signals);
+        BatchRunnable batchRunnable = new BatchRunnable(signals, 1);
         try {
             newActiveBatch();
-            this.pool.submit(batchRunnable);
+            this.senders.execute(batchRunnable);
         } catch (RejectedExecutionException exc) {
             finishActiveBatch();
             LOGGER.info("Submission rejected. Likely pool was already closed. " +
                     "{} signals were lost", signals.size());
             return false;
+        } catch (RuntimeException | Error e) {
+            finishActiveBatch();
+            throw e;
         }
 
         rescheduleNextTimedSubmission();
         return true;
     }
 
+    private int concurrencyLimit() {
+        if (this.adaptiveController != null) {
+            return this.adaptiveController.concurrencyLimit();
+        }
+        return this.maxConcurrentRequests;
+    }
+
+    private int triggerSize() {
+        if (this.adaptiveController != null) {
+            return this.adaptiveController.triggerSize();
+        }
+        return this.triggerSize;
+    }
+
+    /**
+     * @return the maximum number of concurrent submissions currently allowed;
+     * it changes over time with {@link BatchCollectorBuilder#withAdaptiveControl(int, int)
+     * adaptive control}
+     */
+    public int getCurrentConcurrencyLimit() {
+        return concurrencyLimit();
+    }
+
+    /**
+     * @return the number of queued objects that currently triggers a batch;
+     * it changes over time with {@link BatchCollectorBuilder#withAdaptiveControl(int, int)
+     * adaptive control}
+     */
+    public int getCurrentTriggerSize() {
+        return triggerSize();
+    }
+
     private void newActiveBatch() {
         int i = this.activeBatches.incrementAndGet();
         LOGGER.debug("Active batches: {}", i);
@@ -150,60 +640,69 @@ public class BatchCollector implements Closeable {
     private void finishActiveBatch() {
         int i = this.activeBatches.decrementAndGet();
         LOGGER.debug("Active batches: {}", i);
-    }
-
-    private void rescheduleNextTimedSubmission() {
-        synchronized (this) {
-            if (this.nextTimedSubmission != null) {
-                boolean cancel = this.nextTimedSubmission.cancel(false);
-                LOGGER.debug("Cancel next submission. Result: {}", cancel);
+        if (i == 0) {
+            synchronized (this.activeBatches) {
+                this.activeBatches.notifyAll();
             }
-            this.nextTimedSubmission = scheduleReport();
         }
     }
 
-    private ScheduledFuture<?> scheduleReport() {
-        ScheduledFuture<?> schedule = this.pool.schedule(
-                this.reportRunnable, this.maxDelayInMs, TimeUnit.MILLISECONDS);
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Scheduled next automatic batch flush in {} ms",
-                    schedule.getDelay(TimeUnit.MILLISECONDS));
-        }
-        return schedule;
+    /**
+     * Pushes back the next timed flush. This is a single volatile write; the
+     * ticker notices the new deadline on its next run.
+     */
+    private void rescheduleNextTimedSubmission() {
+        this.flushDeadline = System.nanoTime() + this.maxDelayInNanos;
     }
 
     // for testing
     long getDelayTillNextFlush() {
-        ScheduledFuture<?> nextTimedSubmission;
-        synchronized (this) {
-            nextTimedSubmission = this.nextTimedSubmission;
-        }
-        return nextTimedSubmission.getDelay(TimeUnit.MILLISECONDS);
+        return TimeUnit.NANOSECONDS.toMillis(this.flushDeadline - System.nanoTime());
+    }
+
+    /**
+     * @return the number of objects quarantined so far by
+     * {@link BatchCollectorBuilder#withPoisonIsolation(int, QuarantineListener)
+     * poison isolation}
+     */
+    public long getQuarantinedCount() {
+        return this.quarantinedCount.get();
+    }
+
+    /**
+     * @return the number of retries of failed batch submissions scheduled so far
+     */
+    public long getRetriedCount() {
+        return this.retriedCount.get();
     }
 
     /**
      * Discards the objects queued for the next batch submission.
      */
     public void discard() {
-        this.queue.clear();
+        drainQueue(Lists.<Signal>newArrayList(), Integer.MAX_VALUE);
     }
 
     /**
-     * Shuts down the associated thread pool where http requests are run.
-     * Further batch submissions will become impossible afterwards.
+     * Shuts down the associated thread pools where the timed flushes and the
+     * http requests are run. An executor given with
+     * {@link BatchCollectorBuilder#withExecutor(ExecutorService)} is not shut
+     * down. Further batch submissions will become impossible afterwards.
      * In order not to avoid losing unsent objects, {@link #forceReport()}
      * can be called before.
      */
     @Override
     public void close() {
-        synchronized (this) {
-            if (this.nextTimedSubmission != null) {
-                this.nextTimedSubmission.cancel(false);
-                this.nextTimedSubmission = null;
-            }
-        }
-        this.pool.shutdown();
+        this.ticker.cancel(false);
         this.closed = true;
+        for (PendingRetry retry : this.pendingRetries) {
+            retry.abandon();
+        }
+        this.timer.shutdown();
+        if (this.sendersOwned) {
+            this.senders.shutdown();
+        }
+        signalRoomAvailable();
     }
 
     /**
@@ -228,55 +727,386 @@ public class BatchCollector implements Closeable {
      * @throws InterruptedException if interrupted
      */
     public boolean awaitTermination(long timeInMs) throws InterruptedException {
-        return this.pool.awaitTermination(timeInMs, TimeUnit.MILLISECONDS);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeInMs);
+        if (!this.timer.awaitTermination(timeInMs, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+
+        long remaining = deadline - System.nanoTime();
+        if (this.sendersOwned) {
+            return this.senders.awaitTermination(remaining, TimeUnit.NANOSECONDS);
+        }
+
+        // we can't wait for the termination of an executor we don't own;
+        // wait instead for our own batches to finish
+        synchronized (this.activeBatches) {
+            while (this.activeBatches.get() > 0) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this.activeBatches, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        }
+        return true;
     }
 
+    /**
+     * Runs at a fixed rate and flushes the queue once the deadline has passed.
+     */
     private class ScheduledReportRunnable implements Runnable {
         @Override
         public void run() {
-            // we're running, there's nothing to cancel;
-            // cancellations after this task starts but before
-            // this block is reached have no effect
-            synchronized (BatchCollector.this) {
-                nextTimedSubmission = null;
+            if (System.nanoTime() - flushDeadline < 0) {
+                return;
             }
 
             LOGGER.debug("Periodic batch flush running");
+            // an exception escaping would cancel all the following runs
+            try {
+                // whether or not a submission happens
+                rescheduleNextTimedSubmission();
+
+                maybeReplaySpilled();
 
-            if (queue.isEmpty() || !submitBatch()) {
-                LOGGER.debug("No submission happened; rescheduling");
-                // if submitBatch succeeds, the rescheduling will have been done
-                synchronized (BatchCollector.this) {
-                    nextTimedSubmission = scheduleReport();
+                if (!queue.isEmpty()) {
+                    submitBatch();
                 }
+            } catch (Throwable t) {
+                LOGGER.error("Periodic batch flush failed", t);
             }
         }
     }
 
     private class BatchRunnable implements Runnable {
         private final List<Signal> batch;
+        private final int attempt;
 
-        private BatchRunnable(List<Signal> batch) {
+        private BatchRunnable(List<Signal> batch, int attempt) {
             this.batch = batch;
+            this.attempt = attempt;
         }
 
         @Override
         public void run() {
+            boolean success = false;
+            if (attempt == 1) {
+                retryBudget.onFirstAttempt();
+            }
+            long start = System.nanoTime();
             try {
-                client.reportBatch(batch);
+                report(batch);
+                success = true;
+                if (adaptiveController != null) {
+                    adaptiveController.onSuccess(System.nanoTime() - start,
+                            queue.size() >= adaptiveController.triggerSize());
+                }
             } catch (Throwable e) {
-                LOGGER.warn("Batch report failed: " + e.getMessage(), e);
+                if (adaptiveController != null && RetryPolicy.isRetryable(e)) {
+                    adaptiveController.onFailure();
+                }
+                LOGGER.warn("Batch report failed (attempt " + attempt + "): " + e.getMessage(), e);
+                if (!scheduleRetry(batch, attempt, e)) {
+                    giveUp(batch, e);
+                }
+            } finally {
+                finishActiveBatch();
+            }
+
+            if (success) {
+                // the backend is reachable again
+                maybeReplaySpilled();
+            }
+
+            if (closed) {
+                return;
+            }
+            if (waitingProducers.get() > 0) {
+                LOGGER.debug("Submitting batch to make room for waiting producers");
+                submitBatch();
+            } else if (adaptiveController != null && queue.size() >= triggerSize()) {
+                // batches are bounded; keep sending while objects pile up
+                submitBatch();
+            }
+        }
+    }
+
+    /**
+     * What {@link #add(Signal)} does when the queue is full.
+     */
+    public enum AdmissionPolicy {
+        /**
+         * The object being added is rejected.
+         */
+        DROP_NEWEST,
+
+        /**
+         * The oldest queued objects are dropped to make room for the object
+         * being added.
+         */
+        DROP_OLDEST,
+
+        /**
+         * The calling thread waits until there is room in the queue.
+         */
+        BLOCK,
+
+        /**
+         * The calling thread waits until there is room in the queue, up to
+         * the {@link BatchCollectorBuilder#withAdmissionPolicy(AdmissionPolicy, long)
+         * configured time}. The object is rejected if the time lapses.
+         */
+        TIMED_WAIT
+    }
+
+    /**
+     * The implementations of the queue where objects wait to be sent.
+     */
+    public enum QueueType {
+        /**
+         * A linked queue guarded by a lock. Each insertion allocates a node.
+         */
+        LINKED {
+            @Override
+            SignalQueue create(int maxQueueSize, int triggerSize) {
+                return new LinkedSignalQueue();
+            }
+        },
+
+        /**
+         * A lock-free ring buffer, preallocated with room for
+         * <code>maxQueueSize</code> objects. Insertions do not allocate, and
+         * concurrent insertions do not block one another.
+         *
+         * The room is rounded up to a power of two, of at most 2^30, and each
+         * slot takes about 24 bytes (a reference, a sequence number and a
+         * weight), allocated up front whether it's used or not: a queue of a
+         * million objects takes 24 MiB. The maximum queue size should be
+         * set accordingly, rather than left to its default of ten times the
+         * trigger size.
+         */
+        RING_BUFFER {
+            @Override
+            SignalQueue create(int maxQueueSize, int triggerSize) {
+                return new RingBufferSignalQueue(maxQueueSize);
+            }
+        },
+
+        /**
+         * Per-thread staging buffers (one per stripe, selected by hashing the
+         * thread), handed off in chunks to a shared queue once full and swept
+         * when a batch is sent. Insertions from threads on different stripes
+         * do not contend with each other, which lets {@link #add(Signal)}
+         * scale with the number of cores.
+         *
+         * Objects are only counted towards the trigger size and the maximum
+         * queue size once their chunk is handed off, so both limits can be
+         * exceeded by the number of staged objects (at most a quarter of the
+         * trigger size per stripe). Objects are not sent in insertion order.
+         */
+        STRIPED {
+            @Override
+            SignalQueue create(int maxQueueSize, int triggerSize) {
+                return new StripedSignalQueue(maxQueueSize, triggerSize);
+            }
+        };
+
+        abstract SignalQueue create(int maxQueueSize, int triggerSize);
+    }
+
+    /**
+     * @return whether a retry was scheduled
+     */
+    private boolean scheduleRetry(List<Signal> batch, int failedAttempt, Throwable failure) {
+        if (this.closed || !this.retryPolicy.shouldRetry(failedAttempt, failure)) {
+            return false;
+        }
+        if (!this.retryBudget.tryAcquireRetry()) {
+            LOGGER.info("Retry budget exhausted; not retrying batch of {} objects", batch.size());
+            return false;
+        }
+
+        long delay = this.retryPolicy.backoffInMs(failedAttempt);
+        PendingRetry retry = new PendingRetry(batch, failedAttempt + 1);
+        this.pendingRetries.add(retry);
+        try {
+            retry.future = this.timer.schedule(retry, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException exc) {
+            this.pendingRetries.remove(retry);
+            return false;
+        }
+        if (this.closed) {
+            // close() may have missed it
+            retry.abandon();
+        }
+        this.retriedCount.incrementAndGet();
+        LOGGER.debug("Retrying batch of {} objects in {} ms", batch.size(), delay);
+        return true;
+    }
+
+    /**
+     * Deals with a batch that won't be attempted again: it is spilled to disk,
+     * if configured, unless the backend deemed it invalid.
+     */
+    private void giveUp(List<Signal> batch, Throwable failure) {
+        if (this.spillStore != null && !(failure instanceof InvalidPayloadException)) {
+            spill(batch);
+        } else {
+            LOGGER.info("{} objects were lost", batch.size());
+        }
+    }
+
+    /**
+     * A retry waiting for its backoff to lapse. It doesn't count as an active
+     * batch until it is handed to the senders.
+     */
+    private class PendingRetry implements Runnable {
+        private final List<Signal> batch;
+        private final int attempt;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile ScheduledFuture<?> future;
+
+        private PendingRetry(List<Signal> batch, int attempt) {
+            this.batch = batch;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void run() {
+            if (!this.done.compareAndSet(false, true)) {
+                return;
+            }
+            pendingRetries.remove(this);
+            try {
+                newActiveBatch();
+                senders.execute(new BatchRunnable(this.batch, this.attempt));
+            } catch (RejectedExecutionException exc) {
+                finishActiveBatch();
+                LOGGER.info("Retry rejected. Likely pool was already closed");
+                giveUp(this.batch, exc);
+            }
+        }
+
+        private void abandon() {
+            if (!this.done.compareAndSet(false, true)) {
+                return;
+            }
+            pendingRetries.remove(this);
+            ScheduledFuture<?> future = this.future;
+            if (future != null) {
+                future.cancel(false);
+            }
+            LOGGER.info("Collector closed with a retry pending");
+            giveUp(this.batch, null);
+        }
+    }
+
+    private void spill(List<Signal> batch) {
+        try {
+            if (this.spillStore.append(this.spillWriter.writeValueAsBytes(batch))) {
+                LOGGER.info("Spilled batch of {} objects to disk", batch.size());
+            } else {
+                LOGGER.warn("Spill directory is full. {} objects were lost", batch.size());
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Could not spill batch to disk. " + batch.size() +
+                    " objects were lost", e);
+        }
+    }
+
+    /**
+     * Submits the replay of the spilled batches, unless there are none, a
+     * replay is already running or the maximum number of concurrent requests
+     * has been reached.
+     */
+    private void maybeReplaySpilled() {
+        if (this.spillStore == null || this.closed || this.spillStore.isEmpty()) {
+            return;
+        }
+        if (!this.replaying.compareAndSet(false, true)) {
+            return;
+        }
+        if (this.activeBatches.get() >= concurrencyLimit()) {
+            this.replaying.set(false);
+            return;
+        }
+
+        try {
+            newActiveBatch();
+            this.senders.execute(new SpillReplayRunnable());
+        } catch (RejectedExecutionException exc) {
+            finishActiveBatch();
+            this.replaying.set(false);
+        }
+    }
+
+    /**
+     * Sends the spilled batches, oldest first, until there are none left or
+     * a submission fails.
+     */
+    private class SpillReplayRunnable implements Runnable {
+        @Override
+        public void run() {
+            try {
+                DiskSpillStore.Record record;
+                while (!closed && (record = spillStore.peek()) != null) {
+                    List<Signal> batch;
+                    try {
+                        batch = deserialize(record.data);
+                    } catch (IOException e) {
+                        LOGGER.warn("Discarding unreadable spilled batch", e);
+                        spillStore.consume(record);
+                        continue;
+                    }
+
+                    int size = batch.size();
+                    try {
+                        report(batch);
+                        LOGGER.info("Replayed spilled batch of {} objects", size);
+                    } catch (InvalidPayloadException e) {
+                        LOGGER.warn("Discarding spilled batch rejected by the backend", e);
+                    } catch (Throwable e) {
+                        LOGGER.info("Replay of spilled batch failed: {}", e.getMessage());
+                        if (batch.size() == size) {
+                            break;
+                        }
+                        // part of it was sent; keep only the rest
+                        spill(batch);
+                        spillStore.consume(record);
+                        break;
+                    }
+                    spillStore.consume(record);
+                }
             } finally {
                 finishActiveBatch();
+                replaying.set(false);
             }
         }
+
+        private List<Signal> deserialize(byte[] data) throws IOException {
+            JsonNode tree = SPILL_READER.readTree(data);
+            if (tree == null || !tree.isArray()) {
+                throw new IOException("spilled batch is not an array");
+            }
+            List<Signal> batch = Lists.newArrayListWithCapacity(tree.size());
+            for (JsonNode element : tree) {
+                batch.add(new SerializedSignal(element));
+            }
+            return batch;
+        }
     }
 
     private static class BatchThreadFactory implements ThreadFactory {
+        private final String prefix;
+
+        private BatchThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
         @Override
         public Thread newThread(Runnable r) {
             Thread thread = new Thread(r,
-                    "sqreen-batch-collector-" + THREAD_SERIAL.incrementAndGet());
+                    this.prefix + THREAD_SERIAL.incrementAndGet());
             thread.setDaemon(true);
             return thread;
         }
@@ -289,13 +1119,35 @@ public class BatchCollector implements Closeable {
         private static final int DEFAULT_TRIGGER_SIZE = 30;
         private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 3;
         private static final int DEFAULT_MAX_INTERVAL_IN_MS = 60000;
+        private static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1;
+        private static final int DEFAULT_RETRY_BUDGET_MIN_RETRIES = 10;
 
         final IngestionHttpClient.WithAuthentication client;
         private int triggerSize = DEFAULT_TRIGGER_SIZE;
         private long maxDelayInMs = DEFAULT_MAX_INTERVAL_IN_MS;
         private int maxQueueSize;
+        private long maxQueueSizeInBytes;
+        private long maxRequestSizeInBytes;
+        private int maxIsolationRequests;
+        private QuarantineListener quarantineListener;
         private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
-        private ScheduledExecutorService service;
+        private ScheduledExecutorService timer;
+        private ExecutorService executor;
+        private QueueType queueType = QueueType.LINKED;
+        private AdmissionPolicy admissionPolicy = AdmissionPolicy.DROP_NEWEST;
+        private long admissionTimeoutInMs;
+        private File spillDirectory;
+        private long spillMaxSizeInBytes;
+        private ObjectWriter spillWriter;
+        private DiskSpillStore spillStore;
+        private RetryPolicy retryPolicy = RetryPolicy.NO_RETRIES;
+        private boolean adaptiveControl;
+        private int minTriggerSize;
+        private int maxTriggerSize;
+        private double retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+        private int retryBudgetMinRetries = DEFAULT_RETRY_BUDGET_MIN_RETRIES;
+        private ExecutorService senders;
+        private boolean sendersOwned;
 
         private BatchCollectorBuilder(IngestionHttpClient.WithAuthentication client) {
             this.client = client;
@@ -326,7 +1178,8 @@ public class BatchCollector implements Closeable {
          * to saturation of http connections. Having this limit prevent runaway
          * memory usage in those circumstances.
          *
-         * The default value is 10 times the trigger size.
+         * The default value is 10 times the trigger size (the maximum trigger
+         * size, with {@link #withAdaptiveControl(int, int) adaptive control}).
          *
          * @param maxQueueSize the max number of objects that will held in the queue
          * @return <code>this</code>, for chaining
@@ -339,6 +1192,92 @@ public class BatchCollector implements Closeable {
             return this;
         }
 
+        /**
+         * Defines the maximum estimated size, in bytes, of the serialized form
+         * of the objects neither sent nor in the process of being sent.
+         * Additional objects will be rejected, and counted in
+         * {@link BatchCollector#getDroppedCount()} and
+         * {@link BatchCollector#getDroppedBytes()}.
+         *
+         * Unlike {@link #withMaxQueueSize(int)}, this limit accounts for the
+         * size of the objects, so that it bounds the memory used by the queue
+         * even when large traces are queued. The sizes are estimated from the
+         * objects' fields, with the naming used by the default object writer.
+         * Both limits apply; the default value of the maximum queue size may
+         * need to be raised accordingly.
+         *
+         * By default, there is no limit in bytes.
+         *
+         * @param maxQueueSizeInBytes the max estimated size of the queued objects
+         * @return <code>this</code>, for chaining
+         */
+        public BatchCollectorBuilder withMaxQueueSizeInBytes(long maxQueueSizeInBytes) {
+            if (maxQueueSizeInBytes <= 0) {
+                throw new IllegalArgumentException("maxQueueSizeInBytes must be positive");
+            }
+            this.maxQueueSizeInBytes = maxQueueSizeInBytes;
+            return this;
+        }
+
+        /**
+         * Limits the size of the requests: batches whose serialized form
+         * would be larger than this are sent in several requests, each filled
+         * with as many objects as fit. The size is estimated before
+         * serialization and compression, like for
+         * {@link #withMaxQueueSizeInBytes(long)}; an object larger than the
+         * limit is sent alone.
+         *
+         * Independently of this, requests rejected with
+         * <code>413 Payload Too Large</code> are split in two and sent again,
+         * with at most 16 requests added per batch, or the number given to
+         * {@link #withPoisonIsolation(int, QuarantineListener)}. The objects
+         * still rejected, on their own or once the extra requests are used up,
+         * are dropped and counted in {@link BatchCollector#getDroppedCount()}.
+         *
+         * By default, there is no limit.
+         *
+         * @param maxRequestSizeInBytes the max estimated size of a request body
+         * @return <code>this</code>, for chaining
+         */
+        public BatchCollectorBuilder withMaxRequestSizeInBytes(long maxRequestSizeInBytes) {
+            if (maxRequestSizeInBytes <= 0) {
+                throw new IllegalArgumentException("maxRequestSizeInBytes must be positive");
+            }
+            this.maxRequestSizeInBytes = maxRequestSizeInBytes;
+            return this;
+        }
+
+        /**
+         * Isolates the objects that make the backend reject a batch as
+         * invalid (<code>422</code>), instead of losing the whole batch: the
+         * rejected requests are split in two, recursively, and the halves
+         * are sent again. The objects still rejected on their own are
+         * quarantined: they are counted in
+         * {@link BatchCollector#getQuarantinedCount()} and passed to the
+         * listener.
+         *
+         * To bound the traffic a bad producer can cause, at most
+         * <code>maxExtraRequests</code> requests are added per batch,
+         * including those splitting requests rejected as too large; once
+         * they are used up, the requests still rejected are quarantined
+         * whole. Isolating a single object in a batch of n takes about
+         * 2&nbsp;log2(n) extra requests.
+         *
+         * @param maxExtraRequests the maximum number of requests added to
+         *                         isolate the invalid objects of a batch
+         * @param listener called with the quarantined objects, or null
+         * @return <code>this</code>, for chaining
+         */
+        public BatchCollectorBuilder withPoisonIsolation(int maxExtraRequests,
+                                                         QuarantineListener listener) {
+            if (maxExtraRequests < 2) {
+                throw new IllegalArgumentException("maxExtraRequests must be at least 2");
+            }
+            this.maxIsolationRequests = maxExtraRequests;
+            this.quarantineListener = listener;
+            return this;
+        }
+
         /**
          * Defines the maximum amount of time, in milliseconds, between two
          * submissions. This maximum delay is respected unless when the delay
@@ -371,17 +1310,290 @@ public class BatchCollector implements Closeable {
             return this;
         }
 
+        /**
+         * Defines the executor where the http requests will be run. The
+         * executor should be able to run at least
+         * {@link #withMaxConcurrentRequests(int) maxConcurrentRequests} tasks
+         * in parallel, otherwise requests will wait for one another.
+         *
+         * The executor is not shut down when the <code>BatchCollector</code>
+         * is closed. By default, a fixed pool of
+         * <code>maxConcurrentRequests</code> daemon threads is created and
+         * owned by the <code>BatchCollector</code>.
+         *
+         * @param executor the executor to run the http requests on
+         * @return <code>this</code>, for chaining
+         */
+        public BatchCollectorBuilder withExecutor(ExecutorService executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor must not be null");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Defines the implementation of the queue where objects wait to be
+         * sent. {@link QueueType#RING_BUFFER} reduces contention when many
+         * threads add objects at the same time, at the cost of preallocating
+         * arrays with room for
+         * {@link #withMaxQueueSize(int) maxQueueSize} objects, about 24 bytes
+         * per object; {@link #build()} fails if it's larger than 2^30.
+         *
+         * The default value is {@link QueueType#LINKED}.
+         *
+         * @param queueType the queue implementation
+         * @return <code>this</code>, for chaining
+         */
+        public BatchCollectorBuilder withQueueType(QueueType queueType) {
+            if (queueType == null) {
+                throw new IllegalArgumentException("queueType must not be null");
+            }
+            this.queueType = queueType;
+            return this;
+        }
+
+        /**
+         * Defines what {@link BatchCollector#add(Signal)} does when the queue
+         * is full: rejecting the new object, dropping the oldest ones, or
+         * waiting for room to become available. Waiting slows down the
+         * producers instead of losing objects.
+         *
+         * The default value is {@link AdmissionPolicy#DROP_NEWEST}.
+         *
+         * @param admissionPolicy the policy; use
+         *                        {@link #withAdmissionPolicy(AdmissionPolicy, long)}
+         *                        for {@link AdmissionPolicy#TIMED_WAIT}
+         * @return <code>this</code>, for chaining
+         */
+        public BatchCollectorBuilder withAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+            if (admissionPolicy == null) {
+                throw new IllegalArgumentException("admissionPolicy must not be null");
+            }
+            if (admissionPolicy == AdmissionPolicy.TIMED_WAIT) {
+                throw new IllegalArgumentException("TIMED_WAIT requires a timeout");
+            }
+            this.admissionPolicy = admissionPolicy;
+            return this;
+        }
+
+        /**
+         * Defines what {@link BatchCollector#add(Signal)} does when the queue
+         * is full, with the maximum time to wait for
+         * {@link AdmissionPolicy#TIMED_WAIT}.
+         *
+         * @param admissionPolicy the policy
+         * @param timeoutInMs the maximum time to wait for room in the queue
+         * @return <code>this</code>, for chaining
+         * @see #withAdmissionPolicy(AdmissionPolicy)
+         */
+        public BatchCollectorBuilder withAdmissionPolicy(AdmissionPolicy admissionPolicy,
+                                                         long timeoutInMs) {
+            if (admissionPolicy == null) {
+                throw new IllegalArgumentException("admissionPolicy must not be null");
+            }
+            if (timeoutInMs < 0) {
+                throw new IllegalArgumentException("timeoutInMs must not be negative");
+            }
+            this.admissionPolicy = admissionPolicy;
+            this.admissionTimeoutInMs = timeoutInMs;
+            return this;
+        }
+
+        /**
+         * Lets the collector tune the number of concurrent submissions and the
+         * trigger size while running, from the round-trip time and the
+         * outcome of the submissions. Failures and rising round-trip times
+         * decrease the concurrency; while objects pile up in the queue and
+         * the backend keeps up, the concurrency is increased, up to
+         * {@link #withMaxConcurrentRequests(int) maxConcurrentRequests}, and
+         * then the trigger size, up to <code>maxTriggerSize</code>.
+         *
+         * The {@link #withTriggerSize(int) trigger size} is the initial value,
+         * and should be between the given bounds.
+         *
+         * @param minTriggerSize the smallest trigger size
+         * @param maxTriggerSize the largest trigger size
+         * @return <code>this</code>, for chaining
+         * @see BatchCollector#getCurrentConcurrencyLimit()
+         * @see BatchCollector#getCurrentTriggerSize()
+         */
+        public BatchCollectorBuilder withAdaptiveControl(int minTriggerSize, int maxTriggerSize) {
+            if (minTriggerSize <= 0) {
+                throw new IllegalArgumentException("minTriggerSize must be positive");
+            }
+            if (maxTriggerSize < minTriggerSize) {
+                throw new IllegalArgumentException(
+                        "maxTriggerSize must not be smaller than minTriggerSize");
+            }
+            this.adaptiveControl = true;
+            this.minTriggerSize = minTriggerSize;
+            this.maxTriggerSize = maxTriggerSize;
+            return this;
+        }
+
+        /**
+         * Makes up to <code>maxAttempts</code> attempts at sending a batch,
+         * when its submission fails with a transient error: a 5xx, 408 or 429
+         * response, or an I/O error such as a timeout. Authentication failures
+         * and payloads rejected as invalid are not retried.
+         *
+         * Before the n-th retry, the collector waits a random time between 0
+         * and <code>initialBackoffInMs * 2^(n-1)</code>, capped to
+         * <code>maxBackoffInMs</code>. No sender thread is held while waiting.
+         * The retries are limited by the
+         * {@link #withRetryBudget(double, int) retry budget}.
+         *
+         * By default, batches are not retried.
+         *
+         * @param maxAttempts the maximum number of attempts per batch, including the first
+         * @param initialBackoffInMs the maximum wait before the first retry
+         * @param maxBackoffInMs the maximum wait before any retry
+         * @return <code>this</code>, for chaining
+         */
+        public BatchCollectorBuilder withRetries(int maxAttempts,
+                                                 long initialBackoffInMs,
+                                                 long maxBackoffInMs) {
+            if (maxAttempts <= 0) {
+                throw new IllegalArgumentException("maxAttempts must be positive");
+            }
+            if (initialBackoffInMs < 0) {
+                throw new IllegalArgumentException("initialBackoffInMs must not be negative");
+            }
+            if (maxBackoffInMs < initialBackoffInMs) {
+                throw new IllegalArgumentException(
+                        "maxBackoffInMs must not be smaller than initialBackoffInMs");
+            }
+            this.retryPolicy = new RetryPolicy(maxAttempts, initialBackoffInMs, maxBackoffInMs);
+            return this;
+        }
+
+        /**
+         * Limits the retries to a fraction of the batch submissions, so that
+         * they don't multiply the load on a failing backend. Each batch
+         * submission allows <code>ratio</code> retries; besides,
+         * <code>minRetries</code> retries are allowed when little traffic has
+         * been seen.
+         *
+         * The default is a ratio of 0.1, with 10 minimum retries.
+         *
+         * @param ratio the retries allowed per batch submission
+         * @param minRetries the retries allowed regardless of the traffic
+         * @return <code>this</code>, for chaining
+         * @see #withRetries(int, long, long)
+         */
+        public BatchCollectorBuilder withRetryBudget(double ratio, int minRetries) {
+            if (!(ratio >= 0)) {
+                throw new IllegalArgumentException("ratio must not be negative");
+            }
+            if (minRetries < 0) {
+                throw new IllegalArgumentException("minRetries must not be negative");
+            }
+            this.retryBudgetRatio = ratio;
+            this.retryBudgetMinRetries = minRetries;
+            return this;
+        }
+
+        /**
+         * Keeps the batches whose submission failed, once any
+         * {@link #withRetries(int, long, long) retries} are exhausted, in
+         * files under the given directory, instead of losing them. The
+         * spilled batches are sent again, oldest first, as soon as a
+         * submission succeeds, and at least every
+         * {@link #withMaxDelayInMs(long) maxDelayInMs} milliseconds.
+         * Batches left in the directory by a previous run (for instance,
+         * before a restart of the JVM) are sent again as well.
+         *
+         * Batches rejected by the backend as invalid
+         * ({@link InvalidPayloadException}) are not spilled. Batches that
+         * would make the files in the directory exceed
+         * <code>maxSizeInBytes</code> are lost.
+         *
+         * The directory must not be shared with another
+         * <code>BatchCollector</code>, in this or in another process.
+         *
+         * @param directory the directory where the batches are kept
+         * @param maxSizeInBytes the maximum size of the files in the directory
+         * @return <code>this</code>, for chaining
+         * @see #withSpillObjectWriter(ObjectWriter)
+         */
+        public BatchCollectorBuilder withDiskSpill(File directory, long maxSizeInBytes) {
+            if (directory == null) {
+                throw new IllegalArgumentException("directory must not be null");
+            }
+            if (maxSizeInBytes <= 0) {
+                throw new IllegalArgumentException("maxSizeInBytes must be positive");
+            }
+            this.spillDirectory = directory;
+            this.spillMaxSizeInBytes = maxSizeInBytes;
+            return this;
+        }
+
+        /**
+         * Specifies the Jackson {@link ObjectWriter} used to serialize the
+         * batches spilled to disk. It should produce JSON like the one
+         * configured in the client; the default is the default object writer
+         * of {@link IngestionHttpClientBuilder}.
+         *
+         * @param spillWriter the object writer for spilled batches
+         * @return <code>this</code>, for chaining
+         * @see #withDiskSpill(File, long)
+         */
+        public BatchCollectorBuilder withSpillObjectWriter(ObjectWriter spillWriter) {
+            if (spillWriter == null) {
+                throw new IllegalArgumentException("spillWriter must not be null");
+            }
+            this.spillWriter = spillWriter;
+            return this;
+        }
+
         /**
          * Builds the configured <code>BatchCollector</code>.
          * @return the new <code>BatchCollector</code>
+         * @throws IllegalStateException if the maximum queue size is too
+         * large for a {@link QueueType#RING_BUFFER} queue
          */
         public BatchCollector build() {
             if (this.maxQueueSize <= 0) {
-                this.maxQueueSize = this.triggerSize > Integer.MAX_VALUE / 10 ?
-                        Integer.MAX_VALUE : this.triggerSize * 10;
+                int largestTrigger = this.adaptiveControl ?
+                        Math.max(this.triggerSize, this.maxTriggerSize) : this.triggerSize;
+                this.maxQueueSize = largestTrigger > Integer.MAX_VALUE / 10 ?
+                        Integer.MAX_VALUE : largestTrigger * 10;
+            }
+            if (this.queueType == QueueType.RING_BUFFER
+                    && this.maxQueueSize > RingBufferSignalQueue.MAX_CAPACITY) {
+                throw new IllegalStateException("maxQueueSize (" + this.maxQueueSize + ") is too "
+                        + "large for a RING_BUFFER queue, which is preallocated and holds at most "
+                        + RingBufferSignalQueue.MAX_CAPACITY + " objects; set a smaller one "
+                        + "with withMaxQueueSize()");
+            }
+
+            this.spillStore = null;
+            if (this.spillDirectory != null) {
+                try {
+                    this.spillStore = new DiskSpillStore(this.spillDirectory,
+                            this.spillMaxSizeInBytes,
+                            (int) Math.min(DiskSpillStore.DEFAULT_SEGMENT_SIZE, this.spillMaxSizeInBytes));
+                } catch (IOException e) {
+                    throw new IllegalStateException(
+                            "Could not open spill directory " + this.spillDirectory, e);
+                }
+                if (this.spillWriter == null) {
+                    this.spillWriter = IngestionHttpClientBuilder.createDefaultObjectWriter();
+                }
             }
 
-            this.service = Executors.newScheduledThreadPool(1, new BatchThreadFactory());
+            this.timer = Executors.newSingleThreadScheduledExecutor(
+                    new BatchThreadFactory("sqreen-batch-collector-timer-"));
+            if (this.executor != null) {
+                this.senders = this.executor;
+                this.sendersOwned = false;
+            } else {
+                this.senders = Executors.newFixedThreadPool(
+                        Math.max(1, this.maxConcurrentRequests),
+                        new BatchThreadFactory("sqreen-batch-collector-"));
+                this.sendersOwned = true;
+            }
 
             return new BatchCollector(this);
         }
@@ -0,0 +1,83 @@
+package io.sqreen.sasdk.backend;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Keeps byte arrays for reuse, so that serializing and compressing request
+ * bodies doesn't allocate large arrays in the steady state. The arrays come in
+ * size classes, powers of two from {@link #MIN_SIZE} to {@link #MAX_SIZE};
+ * the total size of the pooled arrays is bounded. The pool is shared by all
+ * the threads sending requests.
+ */
+final class BufferPool {
+    static final int MIN_SIZE = 4 * 1024;
+    static final int MAX_SIZE = 256 * 1024;
+    private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    private static final int NUM_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SIZE_SHIFT + 1;
+
+    private final long maxPooledBytes;
+    private final Queue<byte[]>[] classes;
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    BufferPool(long maxPooledBytes) {
+        checkArgument(maxPooledBytes >= 0);
+        this.maxPooledBytes = maxPooledBytes;
+        this.classes = new Queue[NUM_CLASSES];
+        for (int i = 0; i < NUM_CLASSES; i++) {
+            this.classes[i] = new ConcurrentLinkedQueue<byte[]>();
+        }
+    }
+
+    /**
+     * @param minSize the minimum size of the array
+     * @return an array of the smallest size class holding <code>minSize</code>
+     * bytes, or of {@link #MAX_SIZE} if <code>minSize</code> is larger. Its
+     * contents are undefined
+     */
+    byte[] acquire(int minSize) {
+        int cls = sizeClass(minSize);
+        byte[] buffer = this.classes[cls].poll();
+        if (buffer != null) {
+            this.pooledBytes.addAndGet(-buffer.length);
+            return buffer;
+        }
+        return new byte[MIN_SIZE << cls];
+    }
+
+    /**
+     * Returns an array obtained from {@link #acquire(int)} to the pool, or
+     * leaves it to the garbage collector if the pool is full.
+     */
+    void release(byte[] buffer) {
+        int cls = Integer.numberOfTrailingZeros(buffer.length) - MIN_SIZE_SHIFT;
+        if (cls < 0 || cls >= NUM_CLASSES || buffer.length != MIN_SIZE << cls) {
+            return; // not ours
+        }
+        if (this.pooledBytes.addAndGet(buffer.length) <= this.maxPooledBytes) {
+            this.classes[cls].offer(buffer);
+        } else {
+            this.pooledBytes.addAndGet(-buffer.length);
+        }
+    }
+
+    private static int sizeClass(int minSize) {
+        if (minSize <= MIN_SIZE) {
+            return 0;
+        }
+        if (minSize >= MAX_SIZE) {
+            return NUM_CLASSES - 1;
+        }
+        // the next power of two
+        return 32 - Integer.numberOfLeadingZeros(minSize - 1) - MIN_SIZE_SHIFT;
+    }
+
+    // for testing
+    long pooledBytes() {
+        return this.pooledBytes.get();
+    }
+}
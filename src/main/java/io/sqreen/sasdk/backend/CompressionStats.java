@@ -0,0 +1,83 @@
+package io.sqreen.sasdk.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates the sizes of the request bodies before and after compression,
+ * so that the compression ratio can be monitored. Only the compressed bodies
+ * are counted; those smaller than the minimum size are sent as they are.
+ * Each compressed body is also logged, at debug level, with its ratio.
+ *
+ * @see IngestionHttpClientBuilder.WithConfiguredHttpClient#withCompressionStats(CompressionStats)
+ */
+public final class CompressionStats {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompressionStats.class);
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    // the bits of a double
+    private final AtomicLong lastRatio = new AtomicLong(Double.doubleToLongBits(0));
+
+    void record(String path, long uncompressed, long compressed) {
+        this.requests.incrementAndGet();
+        this.uncompressedBytes.addAndGet(uncompressed);
+        this.compressedBytes.addAndGet(compressed);
+        double ratio = ratio(uncompressed, compressed);
+        this.lastRatio.set(Double.doubleToLongBits(ratio));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Compressed {} request body from {} to {} bytes (ratio {})",
+                    path, uncompressed, compressed, String.format("%.2f", ratio));
+        }
+    }
+
+    /**
+     * @return the number of request bodies compressed
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    /**
+     * @return the total size of the compressed bodies before compression
+     */
+    public long getUncompressedBytes() {
+        return this.uncompressedBytes.get();
+    }
+
+    /**
+     * @return the total size of the compressed bodies after compression
+     */
+    public long getCompressedBytes() {
+        return this.compressedBytes.get();
+    }
+
+    /**
+     * @return the overall ratio of uncompressed to compressed bytes, or 0 if
+     * nothing was compressed yet
+     */
+    public double getRatio() {
+        return ratio(this.uncompressedBytes.get(), this.compressedBytes.get());
+    }
+
+    /**
+     * @return the ratio of uncompressed to compressed bytes of the last
+     * compressed body, or 0 if nothing was compressed yet
+     */
+    public double getLastRatio() {
+        return Double.longBitsToDouble(this.lastRatio.get());
+    }
+
+    private static double ratio(long uncompressed, long compressed) {
+        return compressed == 0 ? 0 : (double) uncompressed / compressed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompressionStats{requests: %d, %d -> %d bytes (ratio %.2f)}",
+                getRequests(), getUncompressedBytes(), getCompressedBytes(), getRatio());
+    }
+}
@@ -0,0 +1,108 @@
+package io.sqreen.sasdk.backend;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the connections opened to the ingestion backend, and the time it
+ * took to establish them. TLS connections are counted separately depending
+ * on whether the handshake resumed a cached session (abbreviated handshake)
+ * or not (full handshake). The times include DNS resolution and TCP
+ * connection.
+ *
+ * @see IngestionHttpClientBuilder.BuildingHttpClient#withConnectionStats(ConnectionStats)
+ */
+public final class ConnectionStats {
+    private final AtomicLong plainConnections = new AtomicLong();
+    private final AtomicLong plainNanos = new AtomicLong();
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong fullHandshakeNanos = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakeNanos = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    void recordPlain(long nanos) {
+        this.plainConnections.incrementAndGet();
+        this.plainNanos.addAndGet(nanos);
+    }
+
+    void recordHandshake(boolean resumed, long nanos) {
+        if (resumed) {
+            this.resumedHandshakes.incrementAndGet();
+            this.resumedHandshakeNanos.addAndGet(nanos);
+        } else {
+            this.fullHandshakes.incrementAndGet();
+            this.fullHandshakeNanos.addAndGet(nanos);
+        }
+    }
+
+    void recordFailure() {
+        this.failures.incrementAndGet();
+    }
+
+    /**
+     * @return the number of connections established without TLS
+     */
+    public long getPlainConnections() {
+        return this.plainConnections.get();
+    }
+
+    /**
+     * @return the number of TLS connections established with a full handshake
+     */
+    public long getFullHandshakes() {
+        return this.fullHandshakes.get();
+    }
+
+    /**
+     * @return the number of TLS connections established by resuming a session
+     */
+    public long getResumedHandshakes() {
+        return this.resumedHandshakes.get();
+    }
+
+    /**
+     * @return the number of connections that could not be established
+     */
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    /**
+     * @return the average time to establish a connection without TLS, in
+     * milliseconds, or 0 if there was none
+     */
+    public double getAveragePlainConnectionTimeInMs() {
+        return averageInMs(this.plainNanos.get(), this.plainConnections.get());
+    }
+
+    /**
+     * @return the average time to establish a TLS connection with a full
+     * handshake, in milliseconds, or 0 if there was none
+     */
+    public double getAverageFullHandshakeTimeInMs() {
+        return averageInMs(this.fullHandshakeNanos.get(), this.fullHandshakes.get());
+    }
+
+    /**
+     * @return the average time to establish a TLS connection by resuming a
+     * session, in milliseconds, or 0 if there was none
+     */
+    public double getAverageResumedHandshakeTimeInMs() {
+        return averageInMs(this.resumedHandshakeNanos.get(), this.resumedHandshakes.get());
+    }
+
+    private static double averageInMs(long nanos, long count) {
+        return count == 0 ? 0 : (double) nanos / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionStats{plain: %d (%.1f ms), full handshakes: %d (%.1f ms), " +
+                        "resumed handshakes: %d (%.1f ms), failures: %d}",
+                getPlainConnections(), getAveragePlainConnectionTimeInMs(),
+                getFullHandshakes(), getAverageFullHandshakeTimeInMs(),
+                getResumedHandshakes(), getAverageResumedHandshakeTimeInMs(),
+                getFailures());
+    }
+}
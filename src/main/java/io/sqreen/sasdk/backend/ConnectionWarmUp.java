@@ -0,0 +1,199 @@
+package io.sqreen.sasdk.backend;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.message.BasicHttpRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens connections to the ingestion backend ahead of the first requests,
+ * directly through the connection manager of the Apache HttpClient, so that
+ * no request reaches the backend. The connections are made with the
+ * manager's socket factories: through the proxy, if any, with a tunnel for
+ * https URLs, and with the TLS handshake done. Each one stays leased until
+ * all of them are connected, so that they are distinct, and is then released
+ * to the pool, for the following requests.
+ *
+ * This is best effort: failures are only logged.
+ */
+final class ConnectionWarmUp {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionWarmUp.class);
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private ConnectionWarmUp() {}
+
+    /**
+     * The route of the requests to the URL, as the default route planner of
+     * HttpClient determines it, so that the connections match it in the pool.
+     */
+    static HttpRoute route(String url, IngestionHttpClientBuilder.ProxyConfig proxy) {
+        HttpHost host = URIUtils.extractHost(URI.create(url));
+        if (host == null) {
+            throw new IllegalArgumentException("no host in " + url);
+        }
+        HttpHost target = host;
+        if (host.getPort() <= 0) {
+            try {
+                target = new HttpHost(host.getHostName(),
+                        DefaultSchemePortResolver.INSTANCE.resolve(host), host.getSchemeName());
+            } catch (IOException e) { // unsupported scheme
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+        boolean secure = "https".equalsIgnoreCase(target.getSchemeName());
+        if (proxy.isDisabled()) {
+            return new HttpRoute(target, null, secure);
+        }
+        return new HttpRoute(target, null,
+                new HttpHost(proxy.getHost(), proxy.getPort(), proxy.getProtocol()), secure);
+    }
+
+    /**
+     * Blocks until the connections are open, or the timeout expires. They
+     * are connected concurrently, by a pool of <code>connections</code>
+     * threads, which is shut down before returning.
+     * @param proxy the proxy of the route, whose credentials, if any, are
+     *              sent with basic authentication to open tunnels
+     * @param keepAliveInMs how long the connections can stay idle in the
+     *                      pool, or 0 for no limit
+     * @return the number of connections opened
+     */
+    static int warmUp(final HttpClientConnectionManager manager, final HttpRoute route,
+                      final IngestionHttpClientBuilder.ProxyConfig proxy, int connections,
+                      final int connectTimeoutInMs, final long keepAliveInMs, long timeoutInMs) {
+        final CountDownLatch connected = new CountDownLatch(connections);
+        final AtomicInteger opened = new AtomicInteger();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(connections);
+        for (int i = 0; i < connections; i++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    HttpClientConnection conn = null;
+                    boolean reusable = false;
+                    try {
+                        ConnectionRequest request = manager.requestConnection(route, null);
+                        conn = request.get(remainingNanos(deadline), TimeUnit.NANOSECONDS);
+                        if (!conn.isOpen()) {
+                            HttpClientContext context = HttpClientContext.create();
+                            manager.connect(conn, route, connectTimeoutInMs, context);
+                            if (route.isTunnelled()) {
+                                openTunnel(conn, route, proxy);
+                                manager.upgrade(conn, route, context);
+                            }
+                            manager.routeComplete(conn, route, context);
+                        }
+                        reusable = true;
+                        opened.incrementAndGet();
+                    } catch (IOException | HttpException | ExecutionException | RuntimeException e) {
+                        LOGGER.debug("Could not open a connection for {}: {}", route, e.toString());
+                    } finally {
+                        connected.countDown();
+                    }
+                    try {
+                        // a released connection could be leased again by the other threads
+                        connected.await(remainingNanos(deadline), TimeUnit.NANOSECONDS);
+                    } finally {
+                        if (conn != null) {
+                            release(manager, conn, reusable, keepAliveInMs);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(connections, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "sqreen-connection-warm-up-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            // cancels the connections still being opened after the timeout
+            executor.invokeAll(tasks, remainingNanos(deadline), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int result = opened.get();
+        if (result < connections) {
+            LOGGER.info("Opened {} of {} connections for {} ahead of time", result, connections, route);
+        } else {
+            LOGGER.debug("Opened {} connections for {} ahead of time", result, route);
+        }
+        return result;
+    }
+
+    /**
+     * Asks the proxy for a tunnel to the target, as HttpClient does before
+     * the first request on a connection.
+     */
+    private static void openTunnel(HttpClientConnection conn, HttpRoute route,
+                                   IngestionHttpClientBuilder.ProxyConfig proxy)
+            throws IOException, HttpException {
+        String authority = route.getTargetHost().toHostString();
+        HttpRequest connect = new BasicHttpRequest("CONNECT", authority, HttpVersion.HTTP_1_1);
+        connect.addHeader(HttpHeaders.HOST, authority);
+        if (proxy.hasCredentials()) {
+            String credentials = proxy.getUserLogin() + ":" + proxy.getUserPassword();
+            connect.addHeader(HttpHeaders.PROXY_AUTHORIZATION,
+                    "Basic " + BaseEncoding.base64().encode(credentials.getBytes(Charsets.UTF_8)));
+        }
+        conn.sendRequestHeader(connect);
+        conn.flush();
+        HttpResponse response = conn.receiveResponseHeader();
+        int status = response.getStatusLine().getStatusCode();
+        if (status < 200 || status >= 300) {
+            throw new IOException("The proxy refused the tunnel: " + response.getStatusLine());
+        }
+    }
+
+    private static void release(HttpClientConnectionManager manager, HttpClientConnection conn,
+                                boolean reusable, long keepAliveInMs) {
+        if (!reusable) {
+            try {
+                conn.shutdown();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close a connection: {}", e.toString());
+            }
+        }
+        manager.releaseConnection(conn, null, keepAliveInMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static long remainingNanos(long deadline) {
+        return deadline - System.nanoTime();
+    }
+}
@@ -0,0 +1,37 @@
+package io.sqreen.sasdk.backend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes request bodies, typically compressing them, and names the encoding
+ * for the <code>Content-Encoding</code> header. The endpoint (or relay) the
+ * requests are sent to must accept the encoding.
+ *
+ * Implementations must be thread-safe, as they are shared by all the requests
+ * of a client. Codecs for gzip and for deflate with a preset dictionary are
+ * available from {@link ContentCodecs}; others, such as LZ4 or zstd, can be
+ * plugged in with {@link IngestionHttpClientBuilder.WithConfiguredHttpClient#withContentCodec(ContentCodec, int)}.
+ */
+public interface ContentCodec {
+
+    /**
+     * @return the value of the <code>Content-Encoding</code> header, e.g.
+     * <code>gzip</code>
+     */
+    String getContentEncoding();
+
+    /**
+     * Wraps a stream so that the data written to the returned stream is
+     * written encoded to <code>out</code>. The returned stream is closed once
+     * the whole body has been written; closing it must write any remaining
+     * encoded data. It may close <code>out</code>. If the body fails to be
+     * written, the returned stream is closed too, and the errors of closing
+     * it are ignored, so that its resources are freed.
+     *
+     * @param out the stream where the encoded body is written
+     * @return the stream where the body is written
+     * @throws IOException if writing to <code>out</code> fails
+     */
+    OutputStream encode(OutputStream out) throws IOException;
+}
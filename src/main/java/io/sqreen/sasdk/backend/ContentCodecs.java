@@ -0,0 +1,167 @@
+package io.sqreen.sasdk.backend;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The built-in {@link ContentCodec}s.
+ */
+public final class ContentCodecs {
+
+    /**
+     * A preset dictionary for deflate made of strings that recur in signals
+     * and traces serialized with the default object writer. As deflate looks
+     * back at most 32 KiB and favors the nearest matches, the most frequent
+     * strings come last.
+     */
+    public static final byte[] SIGNAL_DICTIONARY = (
+            "\"hostname\":\"\"os_type\":\"x64-Linux\"\"runtime_version\":\"1.8.0\"" +
+            "\"libsqreen_version\":\"\"agent_version\":\"\"agent_type\":\"java\"" +
+            "\"runtime_type\":\"java\"\"infra\":{\"location_infra\":{" +
+            "\"user_agent\":\"Mozilla/5.0 \"referer\":\"\"scheme\":\"https\"" +
+            "\"remote_ip\":\"\"remote_port\":\"host\":\"\"port\":\"verb\":\"GET\"" +
+            "\"POST\"\"path\":\"/\"\"parameters\":{\"query\":{\"form\":{\"json\":" +
+            "\"headers\":{\"content-type\":\"application/json\",\"accept\":\"*/*\"" +
+            "\"request\":{\"response\":{\"status\":200,\"content_type\":" +
+            "\"content_length\":\"type\":\"http\"\"context_schema\":\"http/2020-01-01T00:00:00.000Z\"" +
+            "\"context\":{\"ip_addresses\":[\"\"sqreen_ip\":\"actor\":{" +
+            "\"data\":[\"signals\":[\"trace\"\"metric\"\"sq.agent.metric.\"" +
+            "\"location\":{\"stack_trace\":[\"trigger\":{\"sq.agent.\"" +
+            "\"source\":\"sqreen:sdk:\"\"payload_schema\":\"point/2020-01-01T00:00:00.000Z\"" +
+            "\"payload\":{\"time\":\"2020-01-01T00:00:00Z\"" +
+            "\"type\":\"point\",\"signal_name\":\"sq.agent.").getBytes(Charsets.UTF_8);
+
+    private ContentCodecs() {}
+
+    /**
+     * @param level the deflate level, from 0 to 9, or -1 for the default
+     * @return a gzip codec, whose deflaters are reused across requests
+     */
+    public static ContentCodec gzip(int level) {
+        checkArgument(level >= -1 && level <= 9, "invalid deflate level");
+        return new GzipCodec(level);
+    }
+
+    /**
+     * A codec for the zlib format (HTTP's <code>deflate</code> encoding),
+     * primed with a preset dictionary. Small bodies, which gain little from
+     * plain gzip, compress much better with a dictionary of their common
+     * strings. The receiver must decompress with the same dictionary.
+     *
+     * @param level the deflate level, from 0 to 9, or -1 for the default
+     * @param dictionary the preset dictionary, e.g. {@link #SIGNAL_DICTIONARY}
+     * @param contentEncoding the name of the encoding the receiver expects
+     * @return the codec
+     */
+    public static ContentCodec deflateWithDictionary(int level, byte[] dictionary,
+                                                     String contentEncoding) {
+        checkArgument(level >= -1 && level <= 9, "invalid deflate level");
+        checkArgument(dictionary != null && dictionary.length > 0, "dictionary must not be empty");
+        checkArgument(contentEncoding != null, "contentEncoding must not be null");
+        return new DictionaryDeflateCodec(level, dictionary.clone(), contentEncoding);
+    }
+
+    static class GzipCodec implements ContentCodec {
+        private static final int MAX_POOLED_DEFLATERS = 16;
+
+        private final DeflaterPool pool;
+
+        GzipCodec(int level) {
+            this.pool = new DeflaterPool(level, MAX_POOLED_DEFLATERS);
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return "gzip";
+        }
+
+        @Override
+        public OutputStream encode(OutputStream out) throws IOException {
+            return new PooledGzipOutputStream(out, this.pool);
+        }
+
+        @Override
+        public String toString() {
+            return "gzip (level " + this.pool.getLevel() + ")";
+        }
+    }
+
+    static class DictionaryDeflateCodec implements ContentCodec {
+        private final int level;
+        private final byte[] dictionary;
+        private final String contentEncoding;
+
+        DictionaryDeflateCodec(int level, byte[] dictionary, String contentEncoding) {
+            this.level = level;
+            this.dictionary = dictionary;
+            this.contentEncoding = contentEncoding;
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return this.contentEncoding;
+        }
+
+        @Override
+        public OutputStream encode(OutputStream out) {
+            // zlib format: the header carries the dictionary's checksum
+            Deflater deflater = new Deflater(this.level);
+            deflater.setDictionary(this.dictionary);
+            return new DictionaryDeflaterOutputStream(out, deflater);
+        }
+
+        @Override
+        public String toString() {
+            return this.contentEncoding + " with dictionary (level " + this.level + ")";
+        }
+    }
+
+    /**
+     * Owns its deflater, which is freed when the stream is closed or aborted.
+     */
+    private static class DictionaryDeflaterOutputStream extends DeflaterOutputStream implements Abortable {
+        private static final int BUFFER_SIZE = 8192;
+
+        private DictionaryDeflaterOutputStream(OutputStream out, Deflater deflater) {
+            super(out, deflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.def.end();
+            }
+        }
+
+        @Override
+        public void abort() {
+            this.def.end();
+        }
+    }
+
+    /**
+     * Frees the resources of an encoder returned by
+     * {@link ContentCodec#encode(OutputStream)} whose body won't be completed.
+     * Encoders of other codecs than the built-in ones are closed instead,
+     * ignoring any error.
+     */
+    static void abort(OutputStream encoder) {
+        if (encoder instanceof Abortable) {
+            ((Abortable) encoder).abort();
+            return;
+        }
+        try {
+            encoder.close();
+        } catch (IOException | RuntimeException e) {
+            // the body is given up on anyway
+        }
+    }
+}
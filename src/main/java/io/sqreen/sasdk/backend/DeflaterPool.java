@@ -0,0 +1,54 @@
+package io.sqreen.sasdk.backend;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Keeps {@link Deflater}s for reuse, so that compressing a request doesn't
+ * allocate, and later free, the native zlib state. The deflaters produce raw
+ * deflate data (no zlib header), as needed for gzip.
+ */
+final class DeflaterPool {
+    private final int level;
+    private final int maxPooled;
+    private final Queue<Deflater> pool = new ConcurrentLinkedQueue<Deflater>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    DeflaterPool(int level, int maxPooled) {
+        this.level = level;
+        this.maxPooled = maxPooled;
+    }
+
+    Deflater acquire() {
+        Deflater deflater = this.pool.poll();
+        if (deflater != null) {
+            this.pooled.decrementAndGet();
+            return deflater;
+        }
+        return new Deflater(this.level, true);
+    }
+
+    /**
+     * Returns a deflater to the pool, or frees it if the pool is full.
+     */
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (this.pooled.incrementAndGet() <= this.maxPooled) {
+            this.pool.offer(deflater);
+        } else {
+            this.pooled.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    // for testing
+    int pooledCount() {
+        return this.pooled.get();
+    }
+}
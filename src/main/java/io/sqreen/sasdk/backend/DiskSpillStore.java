@@ -0,0 +1,309 @@
+package io.sqreen.sasdk.backend;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A persistent FIFO of serialized batches, kept in append-only, memory-mapped
+ * segment files under a directory.
+ *
+ * Each segment starts with a magic number and is followed by records made of
+ * a length (4 bytes), a status (1 byte: pending or consumed) and the data.
+ * The length is written last, so a record cut short by a crash reads as the
+ * end of the segment. Consuming a record flips its status; a segment is
+ * deleted once all its records are consumed and it's no longer written to.
+ *
+ * Segments found in the directory when the store is created are read back,
+ * so pending records survive restarts. The total size of the segment files
+ * is capped. Each record is forced to the disk once appended. Methods are
+ * synchronized; the store is meant for the rare occasions where the backend
+ * can't be reached. A directory must not be used by two stores at once.
+ */
+class DiskSpillStore {
+    static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int MAGIC = 0x53514253; // SQBS
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final byte STATUS_PENDING = 0;
+    private static final byte STATUS_CONSUMED = 1;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("batches-(\\d+)\\.spill");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskSpillStore.class);
+
+    private final File directory;
+    private final long maxSizeInBytes;
+    private final int segmentSize;
+
+    // guarded by this; in order of creation. The last one is written to
+    private final List<Segment> segments = Lists.newArrayList();
+    private long nextSequence;
+
+    DiskSpillStore(File directory, long maxSizeInBytes, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create spill directory " + directory);
+        }
+        this.directory = directory;
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.segmentSize = segmentSize;
+        loadSegments();
+    }
+
+    private void loadSegments() throws IOException {
+        File[] files = this.directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return SEGMENT_NAME.matcher(name).matches();
+            }
+        });
+        if (files == null) {
+            throw new IOException("Could not list spill directory " + this.directory);
+        }
+
+        List<Segment> found = Lists.newArrayList();
+        for (File f : files) {
+            Matcher m = SEGMENT_NAME.matcher(f.getName());
+            m.matches();
+            long seq = Long.parseLong(m.group(1));
+            this.nextSequence = Math.max(this.nextSequence, seq + 1);
+            try {
+                Segment segment = Segment.open(f, seq);
+                if (segment.pendingRecords == 0) {
+                    segment.delete();
+                } else {
+                    found.add(segment);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Ignoring unreadable spill segment " + f, e);
+            }
+        }
+        Collections.sort(found, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment o1, Segment o2) {
+                return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+            }
+        });
+        this.segments.addAll(found);
+
+        if (!found.isEmpty()) {
+            LOGGER.info("Found {} spilled batches in {}", pendingRecords(), this.directory);
+        }
+    }
+
+    /**
+     * Appends a record.
+     * @param data the serialized batch
+     * @return false if there is not enough room left under the size cap
+     * @throws IOException if the record could not be written
+     */
+    synchronized boolean append(byte[] data) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + data.length;
+        Segment last = this.segments.isEmpty() ? null : this.segments.get(this.segments.size() - 1);
+        if (last == null || !last.writable || last.remaining() < recordSize) {
+            int size = Math.max(this.segmentSize, HEADER_SIZE + recordSize);
+            if (totalSize() + size > this.maxSizeInBytes) {
+                return false;
+            }
+            if (last != null) {
+                last.writable = false;
+                if (last.pendingRecords == 0) {
+                    this.segments.remove(last);
+                    last.delete();
+                }
+            }
+            last = Segment.create(
+                    new File(this.directory, String.format("batches-%016d.spill", this.nextSequence)),
+                    this.nextSequence, size);
+            this.nextSequence++;
+            this.segments.add(last);
+        }
+
+        last.append(data);
+        return true;
+    }
+
+    /**
+     * @return the oldest pending record, or null if there is none
+     */
+    synchronized Record peek() {
+        for (Segment segment : this.segments) {
+            Record record = segment.firstPending();
+            if (record != null) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks a record returned by {@link #peek()} as consumed, so that it's not
+     * returned again, even after a restart.
+     */
+    synchronized void consume(Record record) {
+        Segment segment = record.segment;
+        if (!this.segments.contains(segment)) {
+            return;
+        }
+        segment.consume(record.offset);
+        if (segment.pendingRecords == 0) {
+            this.segments.remove(segment);
+            segment.delete();
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return pendingRecords() == 0;
+    }
+
+    synchronized int pendingRecords() {
+        int n = 0;
+        for (Segment segment : this.segments) {
+            n += segment.pendingRecords;
+        }
+        return n;
+    }
+
+    synchronized long totalSize() {
+        long size = 0;
+        for (Segment segment : this.segments) {
+            size += segment.buffer.capacity();
+        }
+        return size;
+    }
+
+    static class Record {
+        private final Segment segment;
+        private final int offset;
+        final byte[] data;
+
+        private Record(Segment segment, int offset, byte[] data) {
+            this.segment = segment;
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final long sequence;
+        // the mapping stays valid after the channel is closed
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        // records before this offset are all consumed
+        private int readPosition = HEADER_SIZE;
+        private int pendingRecords;
+        private boolean writable;
+
+        private Segment(File file, long sequence, MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.buffer = buffer;
+        }
+
+        static Segment create(File file, long sequence, int size) throws IOException {
+            Segment segment = new Segment(file, sequence, map(file, size));
+            segment.buffer.putInt(0, MAGIC);
+            segment.writePosition = HEADER_SIZE;
+            segment.writable = true;
+            return segment;
+        }
+
+        static Segment open(File file, long sequence) throws IOException {
+            long length = file.length();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("Invalid segment size: " + length);
+            }
+            Segment segment = new Segment(file, sequence, map(file, (int) length));
+            if (segment.buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a spill segment");
+            }
+
+            // scan until the end of the written records
+            int pos = HEADER_SIZE;
+            while (pos + RECORD_HEADER_SIZE <= segment.buffer.capacity()) {
+                int len = segment.buffer.getInt(pos);
+                if (len <= 0 || pos + RECORD_HEADER_SIZE + len > segment.buffer.capacity()) {
+                    break;
+                }
+                if (segment.buffer.get(pos + 4) == STATUS_PENDING) {
+                    segment.pendingRecords++;
+                }
+                pos += RECORD_HEADER_SIZE + len;
+            }
+            segment.writePosition = pos;
+            return segment;
+        }
+
+        private static MappedByteBuffer map(File file, int size) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        int remaining() {
+            return this.buffer.capacity() - this.writePosition;
+        }
+
+        void append(byte[] data) {
+            int pos = this.writePosition;
+            ByteBuffer dup = this.buffer.duplicate();
+            dup.position(pos + RECORD_HEADER_SIZE);
+            dup.put(data);
+            this.buffer.put(pos + 4, STATUS_PENDING);
+            // publishes the record
+            this.buffer.putInt(pos, data.length);
+            this.buffer.force();
+
+            this.writePosition = pos + RECORD_HEADER_SIZE + data.length;
+            this.pendingRecords++;
+        }
+
+        Record firstPending() {
+            int pos = this.readPosition;
+            while (pos < this.writePosition) {
+                int len = this.buffer.getInt(pos);
+                if (this.buffer.get(pos + 4) == STATUS_PENDING) {
+                    byte[] data = new byte[len];
+                    ByteBuffer dup = this.buffer.duplicate();
+                    dup.position(pos + RECORD_HEADER_SIZE);
+                    dup.get(data);
+                    return new Record(this, pos, data);
+                }
+                pos += RECORD_HEADER_SIZE + len;
+                this.readPosition = pos;
+            }
+            return null;
+        }
+
+        void consume(int offset) {
+            if (this.buffer.get(offset + 4) != STATUS_PENDING) {
+                return;
+            }
+            this.buffer.put(offset + 4, STATUS_CONSUMED);
+            this.pendingRecords--;
+        }
+
+        void delete() {
+            // the mapping is released when the buffer is garbage collected;
+            // if the file can't be deleted meanwhile, it's deleted on the
+            // next start, as it has no pending records
+            if (!this.file.delete()) {
+                LOGGER.debug("Could not delete spill segment {}", this.file);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package io.sqreen.sasdk.backend;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.DefaultClientTlsStrategy;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sends the requests over HTTP/2, with the async client of Apache
+ * HttpClient 5. Without a proxy, the concurrent requests are multiplexed on
+ * a single connection per host. Through a proxy, HTTP/2 is negotiated on
+ * pooled connections tunneled through it.
+ *
+ * HttpClient 5 is an optional dependency: this class is only loaded when
+ * {@link IngestionHttpClientBuilder.BuildingHttpClient#withHttp2()} is used.
+ *
+ * The request bodies are written to memory before being handed over, since
+ * the async client reads them from its I/O thread, which defeats streaming
+ * requests. The responses of the ingestion backend are small, and are read
+ * entirely before {@link #execute(Request)} returns.
+ */
+class Http2Transport implements Transport {
+    // connection-specific headers, forbidden in HTTP/2, and those derived from the body
+    private static final Set<String> SKIPPED_HEADERS = ImmutableSet.of(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding",
+            "upgrade", "host", "content-length", "content-type");
+
+    private final CloseableHttpAsyncClient client;
+
+    private Http2Transport(CloseableHttpAsyncClient client) {
+        this.client = client;
+        this.client.start();
+    }
+
+    /**
+     * @param sslContext the context of TLS connections, or null for the default
+     * @param proxy the proxy configuration, possibly disabled
+     * @param maxConnections the size of the pool of tunneled connections;
+     *                       not used without a proxy
+     * @param idleTimeoutInMs the time after which idle connections are closed,
+     *                        or 0 to keep them open
+     */
+    static Http2Transport create(SSLContext sslContext, IngestionHttpClientBuilder.ProxyConfig proxy,
+                                 int maxConnections, int connectTimeoutInMs, int readTimeoutInMs,
+                                 int borrowTimeoutInMs, int maxRedirects, long idleTimeoutInMs) {
+        TlsStrategy tlsStrategy = sslContext != null ?
+                new DefaultClientTlsStrategy(sslContext) : DefaultClientTlsStrategy.getDefault();
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setMaxRedirects(maxRedirects)
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutInMs))
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(borrowTimeoutInMs))
+                .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutInMs))
+                .build();
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setSoTimeout(Timeout.ofMilliseconds(readTimeoutInMs))
+                .build();
+
+        if (proxy.isDisabled()) {
+            H2AsyncClientBuilder builder = HttpAsyncClients.customHttp2()
+                    .setTlsStrategy(tlsStrategy)
+                    .setIOReactorConfig(ioReactorConfig)
+                    .setDefaultRequestConfig(requestConfig);
+            if (idleTimeoutInMs > 0) {
+                builder.evictIdleConnections(TimeValue.ofMilliseconds(idleTimeoutInMs));
+            }
+            return new Http2Transport(builder.build());
+        }
+
+        // HTTP/2 requests through a proxy need the pooled client; the
+        // multiplexing one only makes direct connections
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setTlsStrategy(tlsStrategy)
+                        .setMaxConnTotal(maxConnections)
+                        .setMaxConnPerRoute(maxConnections)
+                        .build())
+                .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                .setIOReactorConfig(ioReactorConfig)
+                .setDefaultRequestConfig(requestConfig)
+                .setProxy(new HttpHost(proxy.getProtocol(), proxy.getHost(), proxy.getPort()));
+        if (proxy.hasCredentials()) {
+            BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+            credentials.setCredentials(new AuthScope(proxy.getHost(), proxy.getPort()),
+                    new UsernamePasswordCredentials(proxy.getUserLogin(),
+                            proxy.getUserPassword().toCharArray()));
+            builder.setDefaultCredentialsProvider(credentials);
+        }
+        if (idleTimeoutInMs > 0) {
+            builder.evictIdleConnections(TimeValue.ofMilliseconds(idleTimeoutInMs));
+        }
+        return new Http2Transport(builder.build());
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        Future<SimpleHttpResponse> future = this.client.execute(toSimpleRequest(request), null);
+        try {
+            return toResponse(future.get());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Request to " + request.getUrl() + " failed", cause);
+        }
+    }
+
+    static SimpleHttpRequest toSimpleRequest(Request request) throws IOException {
+        SimpleHttpRequest simpleRequest = new SimpleHttpRequest(
+                request.getMethod().name(), URI.create(request.getUrl()));
+        String contentType = null;
+        for (Map.Entry<String, String> h : request.getHeaders().entries()) {
+            String name = h.getKey().toLowerCase(Locale.ROOT);
+            if (name.equals("content-type")) {
+                contentType = h.getValue();
+            } else if (!SKIPPED_HEADERS.contains(name)) {
+                simpleRequest.addHeader(h.getKey(), h.getValue());
+            }
+        }
+
+        Body body = request.getBody();
+        if (body != null) {
+            long length = body.getContentLength();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    length > 0 && length <= Integer.MAX_VALUE ? (int) length : 4096);
+            body.writeTo(bytes);
+            simpleRequest.setBody(bytes.toByteArray(), contentType != null ?
+                    ContentType.parse(contentType) : ContentType.APPLICATION_OCTET_STREAM);
+        }
+        return simpleRequest;
+    }
+
+    static Response toResponse(SimpleHttpResponse simpleResponse) {
+        final int status = simpleResponse.getCode();
+        byte[] body = simpleResponse.getBodyBytes();
+        final InputStream content = new ByteArrayInputStream(body != null ? body : new byte[0]);
+        return new Response() {
+            @Override
+            public int getStatus() {
+                return status;
+            }
+
+            @Override
+            public InputStream getContent() {
+                return content;
+            }
+
+            // the body is already in memory; there's nothing to release
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        this.client.close(CloseMode.GRACEFUL);
+    }
+}
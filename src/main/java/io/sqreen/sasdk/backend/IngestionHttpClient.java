@@ -221,8 +221,7 @@ public final class IngestionHttpClient {
                     BackendHttpImpl.HttpMethod.POST, this.host, path);
 
             BackendResponse<BackendHttpImpl.IgnoredResponse> result = reqBuilder
-                    .header("Content-Type", "application/json")
-                    .compression(false)
+                    .compression(this.backendHttp.isCompressionEnabled())
                     .headers(headers)
                     .payload(payload)
                     .execute(BackendHttpImpl.IgnoredResponse.class);
@@ -1,25 +1,44 @@
 package io.sqreen.sasdk.backend;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
 import io.sqreen.sasdk.signals_dto.MetricSignal;
 import io.sqreen.sasdk.signals_dto.PointSignal;
+import io.sqreen.sasdk.signals_dto.SignalsModule;
 import io.sqreen.sasdk.signals_dto.Trace;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -43,10 +62,24 @@ import static com.google.common.base.Preconditions.checkArgument;
  * </pre>
  */
 public class IngestionHttpClientBuilder {
+    /**
+     * The <code>Content-Type</code> of Smile request bodies.
+     * @see WithConfiguredHttpClient#withDataFormat(JsonFactory, String)
+     */
+    public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+
+    /**
+     * The <code>Content-Type</code> of CBOR request bodies.
+     * @see WithConfiguredHttpClient#withDataFormat(JsonFactory, String)
+     */
+    public static final String CBOR_CONTENT_TYPE = "application/cbor";
+
     /* this can be a small value, as we we should always have enough connections */
     private static final int CONNECTION_BORROW_TIMEOUT = 200; // in ms
     private static final int MAX_REDIRECTS = 2;
-    private static final int MAX_CONCURRENT_CONN = 40;
+    private static final int DEFAULT_MAX_CONNECTIONS = 40;
+    /* connections idle for longer than this are checked before being reused */
+    private static final int STALE_CHECK_AFTER_INACTIVITY = 1000; // in ms
     private static final String DEFAULT_INJECTION_URL = "https://ingestion.sqreen.com/";
     private static final int DEFAULT_CONNECT_TIMEOUT = 15000;
     private static final int DEFAULT_READ_TIMEOUT = 10000;
@@ -67,8 +100,7 @@ public class IngestionHttpClientBuilder {
     }
 
     // 2. configure http client
-    private CloseableHttpClient httpClient;
-    private boolean httpClientOwned;
+    private Transport transport;
 
     /**
      * Specifies an arbitrary Apache HttpClient 4 to use.
@@ -76,8 +108,18 @@ public class IngestionHttpClientBuilder {
      * @return an object for chaining
      */
     public WithConfiguredHttpClient withExplicitHttpClient(CloseableHttpClient client) {
-        this.httpClientOwned = false;
-        this.httpClient = client;
+        this.transport = new ApacheTransport(client, false);
+        return new WithConfiguredHttpClient();
+    }
+
+    /**
+     * Sends the requests with the given transport, owned by the created
+     * client, e.g. a {@link LoopbackTransport} in benchmarks.
+     * @return an object for chaining
+     */
+    WithConfiguredHttpClient withTransport(Transport transport) {
+        checkArgument(transport != null, "transport must not be null");
+        this.transport = transport;
         return new WithConfiguredHttpClient();
     }
 
@@ -95,15 +137,26 @@ public class IngestionHttpClientBuilder {
      * @return an object for chaining
      */
     public BuildingHttpClient buildingHttpClient() {
-        this.httpClientOwned = true;
         return new BuildingHttpClient();
     }
 
     public class BuildingHttpClient {
         private LayeredConnectionSocketFactory connectionSocketFactory;
+        // also set when connectionSocketFactory was created from it
+        private SSLContext sslContext;
+        private boolean http2;
+        private boolean jdkHttpConnection;
         private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
         private int readTimeout = DEFAULT_READ_TIMEOUT;
         private ProxyConfig proxy = ProxyConfig.DISABLED;
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private boolean persistentConnections;
+        private long idleTimeoutInMs;
+        private long timeToLiveInMs;
+        private int tlsSessionCacheSize = -1;
+        private int tlsSessionTimeoutInSeconds;
+        private int warmUpConnections;
+        private ConnectionStats connectionStats;
 
         /**
          * Sets the maximum time for establishing connections with the
@@ -155,6 +208,197 @@ public class IngestionHttpClientBuilder {
         public BuildingHttpClient withConnectionSocketFactory(
                 LayeredConnectionSocketFactory connectionSocketFactory) {
             this.connectionSocketFactory = connectionSocketFactory;
+            this.sslContext = null;
+            return this;
+        }
+
+        /**
+         * Configures the SSL context of the TLS connections, in order to
+         * customize protocols and trust, for instance. Unlike
+         * {@link #withConnectionSocketFactory(LayeredConnectionSocketFactory)},
+         * this also applies to the {@link #withHttp2() HTTP/2 transport}.
+         *
+         * @param sslContext the context
+         * @return <code>this</code>, for chaining
+         */
+        public BuildingHttpClient withSslContext(SSLContext sslContext) {
+            checkArgument(sslContext != null, "sslContext must not be null");
+            this.sslContext = sslContext;
+            this.connectionSocketFactory = new SSLConnectionSocketFactory(sslContext);
+            return this;
+        }
+
+        /**
+         * Sends the requests over HTTP/2, with Apache HttpClient 5, instead
+         * of HTTP/1.1. The concurrent requests, such as the batches of a
+         * {@link BatchCollector}, then share a single connection, and a
+         * single TLS handshake, instead of one connection each. Through a
+         * proxy, HTTP/2 is negotiated on each tunneled connection instead.
+         * {@link #withMaxConnections(int) The maximum number of connections}
+         * only applies to the tunneled connections: without a proxy, all the
+         * requests go through the one connection, whatever the maximum.
+         *
+         * <code>org.apache.httpcomponents.client5:httpclient5</code> (5.0)
+         * must be on the classpath; it is not a dependency of this library.
+         * HTTP/2 over TLS needs ALPN, available from Java 9 (and 8u252);
+         * plain http URLs are sent as HTTP/2 without upgrade, which the
+         * server must support. A socket factory can't be used: configure
+         * TLS with {@link #withSslContext(SSLContext)}. The request bodies are
+         * always buffered, even with streaming requests.
+         *
+         * @return <code>this</code>, for chaining
+         */
+        public BuildingHttpClient withHttp2() {
+            this.http2 = true;
+            return this;
+        }
+
+        /**
+         * Sends the requests with the JDK's <code>HttpURLConnection</code>
+         * instead of Apache HttpClient, for setups that want as few moving
+         * parts as possible: there is no connection pool nor background
+         * thread. Apache HttpClient remains a dependency of this library.
+         *
+         * The timeouts, the proxy and {@link #withSslContext(SSLContext) the
+         * SSL context} are honored, but not proxy credentials, https proxies,
+         * socket factories or {@link #withConnectionStats(ConnectionStats)
+         * connection stats}. With {@link #withPersistentConnections(long, long)
+         * persistent connections}, the connections are kept in the JVM-wide
+         * cache of <code>HttpURLConnection</code>, whose size and timeouts
+         * are set by system properties such as <code>http.maxConnections</code>;
+         * the maximum number of connections, idle timeout and time to live
+         * given here don't apply.
+         *
+         * @return <code>this</code>, for chaining
+         */
+        public BuildingHttpClient withJdkHttpConnection() {
+            this.jdkHttpConnection = true;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections that the Apache HttpClient
+         * will open to the ingestion backend simultaneously.
+         *
+         * The default value is 40. It is ignored by the
+         * {@link #withHttp2() HTTP/2 transport} without a proxy, which
+         * multiplexes the requests on a single connection.
+         *
+         * @param maxConnections the maximum number of connections
+         * @return <code>this</code>, for chaining
+         */
+        public BuildingHttpClient withMaxConnections(int maxConnections) {
+            checkArgument(maxConnections > 0, "maxConnections must be positive");
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Keeps the connections to the ingestion backend open after each
+         * request, so that the following requests can be made without
+         * establishing new connections (and doing new TLS handshakes).
+         *
+         * Connections that have been idle for more than
+         * <code>idleTimeoutInMs</code> or that have been open for more than
+         * <code>timeToLiveInMs</code> are closed by a background thread.
+         * This thread is stopped when the client is closed.
+         *
+         * By default, connections are closed after each request.
+         *
+         * @param idleTimeoutInMs the time after which an idle connection is closed
+         * @param timeToLiveInMs the maximum lifetime of a connection
+         * @return <code>this</code>, for chaining
+         */
+        public BuildingHttpClient withPersistentConnections(long idleTimeoutInMs,
+                                                            long timeToLiveInMs) {
+            checkArgument(idleTimeoutInMs > 0, "idleTimeoutInMs must be positive");
+            checkArgument(timeToLiveInMs > 0, "timeToLiveInMs must be positive");
+            this.persistentConnections = true;
+            this.idleTimeoutInMs = idleTimeoutInMs;
+            this.timeToLiveInMs = timeToLiveInMs;
+            return this;
+        }
+
+        /**
+         * Configures the cache of TLS sessions, so that new connections to
+         * the ingestion backend resume a previous session with an
+         * abbreviated handshake, skipping the key exchange and the
+         * verification of certificates. This is most useful without
+         * {@link #withPersistentConnections(long, long) persistent connections},
+         * or with a short time to live, since a handshake is then done for
+         * each new connection.
+         *
+         * Java clients already cache sessions, for 24 hours by default: this
+         * sets the size and timeout of the cache of the SSL context that is
+         * used, which is created if none was
+         * {@link #withSslContext(SSLContext) given}. A context given with
+         * {@link #withSslContext(SSLContext)} is modified. This can't be used
+         * with a {@link #withConnectionSocketFactory(LayeredConnectionSocketFactory)
+         * socket factory}. With TLS 1.3, a session can only be resumed once
+         * its ticket has been received, i.e. after a response was read on the
+         * first connection.
+         *
+         * @param size the maximum number of cached sessions, or 0 for no limit
+         * @param timeoutInSeconds the time after which a session can't be
+         *                         resumed anymore, or 0 for no limit
+         * @return <code>this</code>, for chaining
+         */
+        public BuildingHttpClient withTlsSessionCache(int size, int timeoutInSeconds) {
+            checkArgument(size >= 0, "size must not be negative");
+            checkArgument(timeoutInSeconds >= 0, "timeoutInSeconds must not be negative");
+            this.tlsSessionCacheSize = size;
+            this.tlsSessionTimeoutInSeconds = timeoutInSeconds;
+            return this;
+        }
+
+        /**
+         * Opens connections to the ingestion backend when the client is
+         * built, instead of on the first requests. The connections are made
+         * by the connection manager of the Apache HttpClient, through the
+         * configured proxy and socket factory, without sending any request:
+         * the host name is resolved, the proxy tunnels are created and the
+         * TLS handshakes are done. The proxy credentials, if any, are sent
+         * with basic authentication to create the tunnels.
+         *
+         * The connections are then kept in the pool for the following
+         * requests: with {@link #withPersistentConnections(long, long)
+         * persistent connections}, until they have been idle for too long;
+         * otherwise, each is closed after its first request. Either way, the
+         * host name and TLS sessions stay cached (see
+         * {@link #withTlsSessionCache(int, int)}). This is not supported by
+         * the {@link #withHttp2() HTTP/2 transport} nor with the
+         * {@link #withJdkHttpConnection() JDK's HttpURLConnection}.
+         *
+         * {@link #buildHttpClient()} then blocks until the connections are
+         * open, for up to the sum of the connection and read timeouts, while
+         * a temporary pool of <code>connections</code> threads opens them.
+         * Failures are logged and otherwise ignored.
+         *
+         * @param connections the number of connections to open, no more than
+         *                    the {@link #withMaxConnections(int) maximum}
+         * @return <code>this</code>, for chaining
+         */
+        public BuildingHttpClient withConnectionWarmUp(int connections) {
+            checkArgument(connections > 0, "connections must be positive");
+            this.warmUpConnections = connections;
+            return this;
+        }
+
+        /**
+         * Records the connections opened to the ingestion backend, and their
+         * TLS handshakes, in the given object. It can be used to verify the
+         * effect of {@link #withPersistentConnections(long, long) persistent
+         * connections}, {@link #withConnectionWarmUp(int) warm-up} and
+         * {@link #withTlsSessionCache(int, int) session resumption}.
+         *
+         * This is not supported by the {@link #withHttp2() HTTP/2 transport}.
+         *
+         * @param stats the object the connections are counted in
+         * @return <code>this</code>, for chaining
+         */
+        public BuildingHttpClient withConnectionStats(ConnectionStats stats) {
+            checkArgument(stats != null, "stats must not be null");
+            this.connectionStats = stats;
             return this;
         }
 
@@ -163,6 +407,38 @@ public class IngestionHttpClientBuilder {
          * @return an object for chaining
          */
         public WithConfiguredHttpClient buildHttpClient() {
+            if (this.warmUpConnections > this.maxConnections) {
+                throw new IllegalStateException("Can't warm up more connections than the maximum ("
+                        + this.maxConnections + ")");
+            }
+            if (this.tlsSessionCacheSize >= 0) {
+                configureTlsSessionCache();
+            }
+
+            if (this.jdkHttpConnection) {
+                transport = createJdkTransport();
+                return new WithConfiguredHttpClient();
+            }
+
+            if (this.http2) {
+                if (this.connectionSocketFactory != null && this.sslContext == null) {
+                    throw new IllegalStateException("The HTTP/2 transport can't use a connection " +
+                            "socket factory; configure TLS with withSslContext instead");
+                }
+                if (this.connectionStats != null) {
+                    throw new IllegalStateException("Connection stats are not supported " +
+                            "by the HTTP/2 transport");
+                }
+                if (this.warmUpConnections > 0) {
+                    throw new IllegalStateException("Connection warm-up is not supported " +
+                            "by the HTTP/2 transport");
+                }
+                transport = Http2Transport.create(this.sslContext, proxy,
+                        this.maxConnections, connectTimeout, readTimeout, CONNECTION_BORROW_TIMEOUT,
+                        MAX_REDIRECTS, this.persistentConnections ? this.idleTimeoutInMs : 0);
+                return new WithConfiguredHttpClient();
+            }
+
             RequestConfig.Builder requestConfig = RequestConfig.custom()
                     .setMaxRedirects(MAX_REDIRECTS)
                     // max time to obtain a connection
@@ -185,25 +461,154 @@ public class IngestionHttpClientBuilder {
                         new HttpHost(proxy.getHost(), proxy.getPort(), proxy.getProtocol()));
             }
 
-            httpClient = HttpClientBuilder.create()
-                    .setMaxConnPerRoute(MAX_CONCURRENT_CONN)
-                    .setMaxConnTotal(MAX_CONCURRENT_CONN) // we only have one route
+            HttpClientBuilder builder = HttpClientBuilder.create()
                     .setDefaultRequestConfig(requestConfig.build())
-                    // don't reuse connections for now, might be sub-optimal but ensures no resources to clean
-                    .setConnectionReuseStrategy(new NoConnectionReuseStrategy())
                     // null when there are no proxy credentials
-                    .setDefaultCredentialsProvider(proxyCredentials)
-                    // null to use JDK default SSL keystore, non-null to use our own embedded keystore
-                    .setSSLSocketFactory(this.connectionSocketFactory)
-                    .build();
+                    .setDefaultCredentialsProvider(proxyCredentials);
+
+            // null if HttpClientBuilder creates its own
+            PoolingHttpClientConnectionManager connectionManager = null;
+            if (this.persistentConnections) {
+                // the client owns the manager and the evictor thread; both are
+                // shut down when the client is closed
+                connectionManager = createPooledConnectionManager();
+                builder.setConnectionManager(connectionManager)
+                        .setKeepAliveStrategy(new CappedKeepAliveStrategy(this.idleTimeoutInMs))
+                        .evictIdleConnections(this.idleTimeoutInMs, TimeUnit.MILLISECONDS)
+                        .evictExpiredConnections();
+            } else {
+                // don't reuse connections, might be sub-optimal but ensures no resources to clean
+                builder.setConnectionReuseStrategy(new NoConnectionReuseStrategy());
+                if (this.connectionStats != null || this.warmUpConnections > 0) {
+                    // the socket factories can only be wrapped, and the
+                    // connections opened ahead, with our own manager
+                    connectionManager = createPooledConnectionManager();
+                    builder.setConnectionManager(connectionManager);
+                } else {
+                    builder.setMaxConnPerRoute(this.maxConnections)
+                            .setMaxConnTotal(this.maxConnections) // we only have one route
+                            // null to use JDK default SSL keystore, non-null to use our own embedded keystore
+                            .setSSLSocketFactory(this.connectionSocketFactory);
+                }
+            }
+
+            transport = new ApacheTransport(builder.build(), true);
+            if (this.warmUpConnections > 0) {
+                ConnectionWarmUp.warmUp(connectionManager, ConnectionWarmUp.route(url, proxy), proxy,
+                        this.warmUpConnections, connectTimeout,
+                        this.persistentConnections ? this.idleTimeoutInMs : 0,
+                        (long) connectTimeout + readTimeout);
+            }
 
             return new WithConfiguredHttpClient();
         }
+
+        private JdkTransport createJdkTransport() {
+            if (this.http2) {
+                throw new IllegalStateException("The JDK's HttpURLConnection doesn't support HTTP/2");
+            }
+            if (this.connectionSocketFactory != null && this.sslContext == null) {
+                throw new IllegalStateException("The JDK's HttpURLConnection can't use a connection " +
+                        "socket factory; configure TLS with withSslContext instead");
+            }
+            if (this.connectionStats != null) {
+                throw new IllegalStateException("Connection stats are not supported " +
+                        "with the JDK's HttpURLConnection");
+            }
+            if (this.warmUpConnections > 0) {
+                throw new IllegalStateException("Connection warm-up is not supported " +
+                        "with the JDK's HttpURLConnection");
+            }
+            Proxy jdkProxy = Proxy.NO_PROXY;
+            if (!proxy.isDisabled()) {
+                if (proxy.hasCredentials() || !proxy.getProtocol().equals("http")) {
+                    throw new IllegalStateException("The JDK's HttpURLConnection only supports " +
+                            "http proxies without credentials");
+                }
+                jdkProxy = new Proxy(Proxy.Type.HTTP,
+                        InetSocketAddress.createUnresolved(proxy.getHost(), proxy.getPort()));
+            }
+            return new JdkTransport(jdkProxy,
+                    this.sslContext != null ? this.sslContext.getSocketFactory() : null,
+                    connectTimeout, readTimeout, this.persistentConnections);
+        }
+
+        private void configureTlsSessionCache() {
+            if (this.sslContext == null) {
+                if (this.connectionSocketFactory != null) {
+                    throw new IllegalStateException("The TLS session cache can't be configured " +
+                            "with a connection socket factory; use withSslContext instead");
+                }
+                // rather than changing the JVM-wide default context
+                this.sslContext = SSLContexts.createDefault();
+                this.connectionSocketFactory = new SSLConnectionSocketFactory(this.sslContext);
+            }
+            SSLSessionContext sessionContext = this.sslContext.getClientSessionContext();
+            sessionContext.setSessionCacheSize(this.tlsSessionCacheSize);
+            sessionContext.setSessionTimeout(this.tlsSessionTimeoutInSeconds);
+        }
+
+        private PoolingHttpClientConnectionManager createPooledConnectionManager() {
+            ConnectionSocketFactory plainFactory = PlainConnectionSocketFactory.getSocketFactory();
+            // same default as HttpClientBuilder's when no factory is given
+            LayeredConnectionSocketFactory tlsFactory = this.connectionSocketFactory != null ?
+                    this.connectionSocketFactory : SSLConnectionSocketFactory.getSocketFactory();
+            if (this.connectionStats != null) {
+                plainFactory = new InstrumentedSocketFactory(plainFactory, this.connectionStats);
+                tlsFactory = new InstrumentedLayeredSocketFactory(tlsFactory, this.connectionStats);
+            }
+            Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", plainFactory)
+                    .register("https", tlsFactory)
+                    .build();
+
+            PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(
+                    registry, null, null, null, this.timeToLiveInMs, TimeUnit.MILLISECONDS);
+            manager.setMaxTotal(this.maxConnections);
+            manager.setDefaultMaxPerRoute(this.maxConnections); // we only have one route
+            manager.setValidateAfterInactivity(STALE_CHECK_AFTER_INACTIVITY);
+            // for the TLS handshakes and proxy tunnels of the connections
+            // opened ahead; the requests set their own read timeout
+            manager.setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(readTimeout).build());
+            return manager;
+        }
+    }
+
+    /**
+     * Honors the keep-alive time advertised by the server, but never keeps
+     * a connection for longer than the configured idle timeout.
+     */
+    private static class CappedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        private final long maxKeepAliveInMs;
+
+        private CappedKeepAliveStrategy(long maxKeepAliveInMs) {
+            this.maxKeepAliveInMs = maxKeepAliveInMs;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+                    .getKeepAliveDuration(response, context);
+            if (duration <= 0) {
+                return this.maxKeepAliveInMs;
+            }
+            return Math.min(duration, this.maxKeepAliveInMs);
+        }
     }
 
     public class WithConfiguredHttpClient {
         private ObjectWriter objectWriter;
+        private JsonFactory dataFormat;
+        private String contentType = BackendHttpImpl.JSON_CONTENT_TYPE;
         private IngestionErrorListener errorListener;
+        private boolean streamingRequests;
+        private ContentCodec codec;
+        private int compressionMinSize;
+        private CompressionStats compressionStats;
+        private int serializationThreads;
+        private int parallelMinBatchSize;
+        private int parallelChunkSize;
+        private boolean compactTraces;
 
         /**
          * Specifies a callback that will be invoked when an error occurs during
@@ -244,24 +649,197 @@ public class IngestionHttpClientBuilder {
             return this;
         }
 
+        /**
+         * Serializes the request bodies with a binary Jackson data format,
+         * such as Smile or CBOR, instead of JSON. This is cheaper to produce
+         * and smaller, but the Sqreen ingestion backend only accepts JSON, so
+         * this is only useful when the signals are sent to a local relay that
+         * converts them back to JSON, e.g.:
+         *
+         * <pre>
+         * builder.withDataFormat(new SmileFactory(), IngestionHttpClientBuilder.SMILE_CONTENT_TYPE)
+         * </pre>
+         *
+         * The factory's data format module (e.g.
+         * <code>jackson-dataformat-smile</code>) must be on the classpath; it
+         * is not a dependency of this library. If a custom object writer is
+         * also specified, it must use the same data format. Batches are not
+         * serialized in parallel in binary formats.
+         *
+         * @param factory the factory of the data format, copied
+         * @param contentType the <code>Content-Type</code> of the requests,
+         *                    e.g. {@link #SMILE_CONTENT_TYPE} or
+         *                    {@link #CBOR_CONTENT_TYPE}
+         * @return <code>this</code>, for chaining
+         * @see #withCustomObjectWriter(ObjectWriter)
+         */
+        public WithConfiguredHttpClient withDataFormat(JsonFactory factory, String contentType) {
+            if (factory == null) {
+                throw new IllegalArgumentException("factory must not be null");
+            }
+            if (contentType == null) {
+                throw new IllegalArgumentException("contentType must not be null");
+            }
+            this.dataFormat = factory.copy();
+            this.contentType = contentType;
+            return this;
+        }
+
+        /**
+         * Serializes the request bodies directly into the connection as they
+         * are sent, with chunked transfer encoding, instead of first
+         * buffering them in memory. This avoids keeping copies of large
+         * batches in memory, but the ingestion backend, and any proxy in
+         * between, must accept chunked requests.
+         *
+         * @return <code>this</code>, for chaining
+         */
+        public WithConfiguredHttpClient withStreamingRequests() {
+            this.streamingRequests = true;
+            return this;
+        }
+
+        /**
+         * Compresses the request bodies with gzip. JSON signals are very
+         * repetitive and compress well, at the cost of some CPU time.
+         *
+         * The compression ratio of each request is logged at debug level.
+         *
+         * @param level the deflate level, from 1 (fastest) to 9 (smallest),
+         *              or -1 for zlib's default (6)
+         * @param minSizeInBytes request bodies smaller than this are not
+         *                       compressed, as the gain would be negligible
+         * @return <code>this</code>, for chaining
+         */
+        public WithConfiguredHttpClient withCompression(int level, int minSizeInBytes) {
+            if (level < -1 || level > 9 || level == 0) {
+                throw new IllegalArgumentException("level must be -1 or between 1 and 9");
+            }
+            if (minSizeInBytes < 0) {
+                throw new IllegalArgumentException("minSizeInBytes must not be negative");
+            }
+            this.codec = ContentCodecs.gzip(level);
+            this.compressionMinSize = minSizeInBytes;
+            return this;
+        }
+
+        /**
+         * Encodes the request bodies with the given codec, e.g. one of
+         * {@link ContentCodecs}, instead of gzip. The ingestion endpoint, or
+         * the relay the requests are sent to, must accept the codec's
+         * <code>Content-Encoding</code>.
+         *
+         * @param codec the codec
+         * @param minSizeInBytes request bodies smaller than this are not
+         *                       encoded
+         * @return <code>this</code>, for chaining
+         * @see #withCompression(int, int)
+         */
+        public WithConfiguredHttpClient withContentCodec(ContentCodec codec, int minSizeInBytes) {
+            if (codec == null) {
+                throw new IllegalArgumentException("codec must not be null");
+            }
+            if (minSizeInBytes < 0) {
+                throw new IllegalArgumentException("minSizeInBytes must not be negative");
+            }
+            this.codec = codec;
+            this.compressionMinSize = minSizeInBytes;
+            return this;
+        }
+
+        /**
+         * Records the sizes of the request bodies before and after
+         * compression in the given object, which gives the compression ratio
+         * of the last body and the overall one. It has no effect unless
+         * compression is enabled, with {@link #withCompression(int, int)} or
+         * {@link #withContentCodec(ContentCodec, int)}.
+         *
+         * @param stats the object the sizes are recorded in
+         * @return <code>this</code>, for chaining
+         */
+        public WithConfiguredHttpClient withCompressionStats(CompressionStats stats) {
+            if (stats == null) {
+                throw new IllegalArgumentException("stats must not be null");
+            }
+            this.compressionStats = stats;
+            return this;
+        }
+
+        /**
+         * Serializes large batches in parallel: batches of at least
+         * <code>minBatchSize</code> objects are split into chunks of
+         * <code>chunkSize</code> objects, serialized concurrently on a pool of
+         * <code>threads</code> threads, and joined. This only pays off for
+         * large batches of heavy objects, such as traces; the
+         * <code>serializationBenchmark</code> Gradle task shows where.
+         *
+         * It has no effect with {@link #withStreamingRequests()}.
+         *
+         * @param threads the number of serialization threads
+         * @param minBatchSize smaller batches are serialized by the sending
+         *                     thread alone
+         * @param chunkSize the number of objects serialized by each task; must
+         *                  be smaller than <code>minBatchSize</code>
+         * @return <code>this</code>, for chaining
+         */
+        public WithConfiguredHttpClient withParallelSerialization(int threads, int minBatchSize,
+                                                                  int chunkSize) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads must be positive");
+            }
+            if (chunkSize <= 0 || chunkSize >= minBatchSize) {
+                throw new IllegalArgumentException("chunkSize must be positive and smaller than minBatchSize");
+            }
+            this.serializationThreads = threads;
+            this.parallelMinBatchSize = minBatchSize;
+            this.parallelChunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Compacts the traces as they are serialized: the fields that all the
+         * signals of a trace share are written once, in the trace. The
+         * reported traces are not modified. This requires the object writer
+         * to use the {@link SignalsModule}, as the default one does; see
+         * {@link SignalsModule#COMPACT_TRACES}.
+         *
+         * @return <code>this</code>, for chaining
+         */
+        public WithConfiguredHttpClient withTraceCompaction() {
+            this.compactTraces = true;
+            return this;
+        }
+
         private BackendHttpImpl createBackendHttpImpl() {
             if (this.objectWriter == null) {
-                this.objectWriter = createDefaultObjectWriter();
+                this.objectWriter = this.dataFormat != null ?
+                        createDefaultObjectWriter(this.dataFormat) : createDefaultObjectWriter();
+            } else if (this.dataFormat != null && !this.dataFormat.getFormatName()
+                    .equals(this.objectWriter.getFactory().getFormatName())) {
+                throw new IllegalStateException("The custom object writer produces "
+                        + this.objectWriter.getFactory().getFormatName() + ", not "
+                        + this.dataFormat.getFormatName());
             }
 
-            return BackendHttpImpl.builder(httpClient, httpClientOwned)
+            ObjectWriter writer = this.compactTraces ?
+                    this.objectWriter.withAttribute(SignalsModule.COMPACT_TRACES, Boolean.TRUE) :
+                    this.objectWriter;
+            BackendHttpImpl.Builder builder = BackendHttpImpl.builder(transport)
                     .errorListener(this.errorListener)
                     .errorResponseClass(BackendHttpImpl.IgnoredResponse.class)
-                    .objectWriter(this.objectWriter)
-                    .build();
-        }
-
-        private ObjectWriter createDefaultObjectWriter() {
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
-            mapper.setTimeZone(TimeZone.getTimeZone("GMT+00"));
-            mapper.setDateFormat(new ISO8601DateFormat());
-            return mapper.writer();
+                    .objectWriter(writer)
+                    .contentType(this.contentType)
+                    .streamingRequests(this.streamingRequests);
+            if (this.codec != null) {
+                builder.codec(this.codec, this.compressionMinSize)
+                        .compressionStats(this.compressionStats);
+            }
+            // the parallel serializer joins JSON arrays
+            if (this.serializationThreads > 0 && this.dataFormat == null) {
+                builder.parallelSerializer(new ParallelSerializer(
+                        this.serializationThreads, this.parallelMinBatchSize, this.parallelChunkSize));
+            }
+            return builder.build();
         }
 
         // final methods
@@ -323,6 +901,22 @@ public class IngestionHttpClientBuilder {
         }
     }
 
+    static ObjectWriter createDefaultObjectWriter() {
+        return createDefaultObjectWriter(new JsonFactory());
+    }
+
+    /**
+     * @param factory the factory of the data format; it's bound to the mapper
+     */
+    static ObjectWriter createDefaultObjectWriter(JsonFactory factory) {
+        ObjectMapper mapper = new ObjectMapper(factory);
+        mapper.setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+        mapper.setTimeZone(TimeZone.getTimeZone("GMT+00"));
+        mapper.setDateFormat(new ISO8601DateFormat());
+        mapper.registerModule(new SignalsModule());
+        return mapper.writer();
+    }
+
     /**
      * Configures authentication using a session key. Session keys are
      * obtained through a login call that is not supported by this SDK.
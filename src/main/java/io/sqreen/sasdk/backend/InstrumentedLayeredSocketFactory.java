@@ -0,0 +1,40 @@
+package io.sqreen.sasdk.backend;
+
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Wraps a TLS socket factory, which also layers TLS on the sockets of proxy
+ * tunnels, and records those handshakes too.
+ */
+class InstrumentedLayeredSocketFactory extends InstrumentedSocketFactory
+        implements LayeredConnectionSocketFactory {
+    private final LayeredConnectionSocketFactory delegate;
+
+    InstrumentedLayeredSocketFactory(LayeredConnectionSocketFactory delegate, ConnectionStats stats) {
+        super(delegate, stats);
+        this.delegate = delegate;
+    }
+
+    /**
+     * Called to establish TLS through a proxy tunnel.
+     */
+    @Override
+    public Socket createLayeredSocket(Socket socket, String target, int port,
+                                      HttpContext context) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        Socket layered;
+        try {
+            layered = this.delegate.createLayeredSocket(socket, target, port, context);
+        } catch (IOException | RuntimeException e) {
+            recordFailure();
+            throw e;
+        }
+        record(layered, startMillis, System.nanoTime() - start);
+        return layered;
+    }
+}
@@ -0,0 +1,68 @@
+package io.sqreen.sasdk.backend;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Records in {@link ConnectionStats} how long it takes the wrapped factory to
+ * connect sockets and, for TLS sockets, whether the handshake resumed a
+ * session. A session created before the connection started was resumed.
+ *
+ * @see InstrumentedLayeredSocketFactory
+ */
+class InstrumentedSocketFactory implements ConnectionSocketFactory {
+    private final ConnectionSocketFactory delegate;
+    private final ConnectionStats stats;
+
+    InstrumentedSocketFactory(ConnectionSocketFactory delegate, ConnectionStats stats) {
+        checkArgument(delegate != null);
+        checkArgument(stats != null);
+        this.delegate = delegate;
+        this.stats = stats;
+    }
+
+    @Override
+    public Socket createSocket(HttpContext context) throws IOException {
+        return this.delegate.createSocket(context);
+    }
+
+    @Override
+    public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host,
+                                InetSocketAddress remoteAddress, InetSocketAddress localAddress,
+                                HttpContext context) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        Socket socket;
+        try {
+            socket = this.delegate.connectSocket(connectTimeout, sock, host,
+                    remoteAddress, localAddress, context);
+        } catch (IOException | RuntimeException e) {
+            recordFailure();
+            throw e;
+        }
+        record(socket, startMillis, System.nanoTime() - start);
+        return socket;
+    }
+
+    void record(Socket socket, long startMillis, long nanos) {
+        if (socket instanceof SSLSocket) {
+            SSLSession session = ((SSLSocket) socket).getSession();
+            this.stats.recordHandshake(session.getCreationTime() < startMillis, nanos);
+        } else {
+            this.stats.recordPlain(nanos);
+        }
+    }
+
+    void recordFailure() {
+        this.stats.recordFailure();
+    }
+}
@@ -0,0 +1,118 @@
+package io.sqreen.sasdk.backend;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sends the requests with the JDK's {@link HttpURLConnection}, without a
+ * connection pool or background thread of its own.
+ *
+ * The connections are kept alive in the JVM-wide cache of
+ * <code>HttpURLConnection</code>, whose size is set by the
+ * <code>http.maxConnections</code> system property, unless
+ * <code>persistentConnections</code> is false, in which case they are closed
+ * after each request. Closing the transport can't close them. As with
+ * Apache HttpClient, only <code>GET</code> and <code>HEAD</code> requests
+ * follow redirects.
+ */
+class JdkTransport implements Transport {
+    private final Proxy proxy;
+    // null for the default
+    private final SSLSocketFactory sslSocketFactory;
+    private final int connectTimeoutInMs;
+    private final int readTimeoutInMs;
+    private final boolean persistentConnections;
+
+    /**
+     * @param proxy the proxy, or {@link Proxy#NO_PROXY}
+     * @param sslSocketFactory the factory of TLS sockets, or null for the default
+     */
+    JdkTransport(Proxy proxy, SSLSocketFactory sslSocketFactory,
+                 int connectTimeoutInMs, int readTimeoutInMs, boolean persistentConnections) {
+        checkArgument(proxy != null);
+        this.proxy = proxy;
+        this.sslSocketFactory = sslSocketFactory;
+        this.connectTimeoutInMs = connectTimeoutInMs;
+        this.readTimeoutInMs = readTimeoutInMs;
+        this.persistentConnections = persistentConnections;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection)
+                new URL(request.getUrl()).openConnection(this.proxy);
+        if (this.sslSocketFactory != null && conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(this.sslSocketFactory);
+        }
+        conn.setConnectTimeout(this.connectTimeoutInMs);
+        conn.setReadTimeout(this.readTimeoutInMs);
+        conn.setUseCaches(false);
+        conn.setRequestMethod(request.getMethod().name());
+        conn.setInstanceFollowRedirects(request.getMethod() != BackendHttpImpl.HttpMethod.POST);
+        if (!this.persistentConnections) {
+            conn.setRequestProperty("Connection", "close");
+        }
+        for (Map.Entry<String, String> h : request.getHeaders().entries()) {
+            conn.addRequestProperty(h.getKey(), h.getValue());
+        }
+
+        final int status;
+        final InputStream content;
+        try {
+            Body body = request.getBody();
+            if (body != null) {
+                conn.setDoOutput(true);
+                long length = body.getContentLength();
+                if (length >= 0) {
+                    conn.setFixedLengthStreamingMode(length);
+                } else {
+                    conn.setChunkedStreamingMode(0); // default chunk size
+                }
+                try (OutputStream os = conn.getOutputStream()) {
+                    body.writeTo(os);
+                }
+            }
+
+            status = conn.getResponseCode();
+            InputStream stream = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            content = stream != null ? stream : new ByteArrayInputStream(new byte[0]);
+        } catch (IOException | RuntimeException e) {
+            conn.disconnect();
+            throw e;
+        }
+
+        return new Response() {
+            @Override
+            public int getStatus() {
+                return status;
+            }
+
+            @Override
+            public InputStream getContent() {
+                return content;
+            }
+
+            /**
+             * The connection is reused if the content was read entirely.
+             */
+            @Override
+            public void close() throws IOException {
+                content.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+}
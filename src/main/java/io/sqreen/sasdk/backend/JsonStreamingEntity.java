@@ -0,0 +1,126 @@
+package io.sqreen.sasdk.backend;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.io.CountingOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An entity that serializes its payload, and compresses it if requested,
+ * straight into the connection's output stream, as it is sent. Unlike a
+ * {@link org.apache.http.entity.ByteArrayEntity}, no copy of the whole body
+ * is kept in memory. The length is not known in advance, so the body is sent
+ * with chunked transfer encoding.
+ *
+ * The entity is repeatable: the payload is serialized again each time it's
+ * written.
+ */
+class JsonStreamingEntity extends AbstractHttpEntity implements Transport.Body {
+    private final ObjectWriter objectWriter;
+    private final Object payload;
+    // null if not encoded
+    private final ContentCodec codec;
+    private final CompressionStats compressionStats;
+    private final String path;
+
+    JsonStreamingEntity(ObjectWriter objectWriter, Object payload) {
+        this(objectWriter, payload, null, null, null);
+    }
+
+    /**
+     * @param codec the codec to encode the body with, or null for none
+     * @param compressionStats where the compression ratio is recorded
+     * @param path the request path, for the compression statistics
+     */
+    JsonStreamingEntity(ObjectWriter objectWriter, Object payload,
+                        ContentCodec codec, CompressionStats compressionStats,
+                        String path) {
+        checkArgument(objectWriter != null);
+        checkArgument(codec == null || compressionStats != null);
+        // the connection's stream must stay open after serialization; this
+        // returns the same writer if the feature is disabled already
+        this.objectWriter = objectWriter.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.payload = payload;
+        this.codec = codec;
+        this.compressionStats = compressionStats;
+        this.path = path;
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Only for callers that need to read the body back; this buffers it.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writeTo(baos);
+        return new ByteArrayInputStream(baos.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        checkArgument(outStream != null);
+        if (this.codec != null) {
+            // codecs may close the stream they write to; the connection's must stay open
+            CountingOutputStream compressed = new CountingOutputStream(new CloseShieldOutputStream(outStream));
+            OutputStream encoder = this.codec.encode(compressed);
+            CountingOutputStream uncompressed = new CountingOutputStream(encoder);
+            boolean finished = false;
+            try {
+                this.objectWriter.writeValue(uncompressed, this.payload);
+                // writes the remaining encoded data
+                encoder.close();
+                finished = true;
+            } finally {
+                if (!finished) {
+                    // e.g. the connection broke; frees the encoder's deflater
+                    ContentCodecs.abort(encoder);
+                }
+            }
+            this.compressionStats.record(this.path, uncompressed.getCount(), compressed.getCount());
+        } else {
+            this.objectWriter.writeValue(outStream, this.payload);
+        }
+        outStream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private static class CloseShieldOutputStream extends FilterOutputStream {
+        private CloseShieldOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.sqreen.sasdk.backend;
+
+import io.sqreen.sasdk.signals_dto.Signal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * A {@link SignalQueue} backed by a {@link LinkedBlockingDeque}. The queue is
+ * unbounded; the <code>BatchCollector</code> enforces its maximum size.
+ *
+ * Objects without a weight are queued as they are; the others are wrapped
+ * together with their weight.
+ */
+class LinkedSignalQueue implements SignalQueue {
+    // Signals or WeightedSignals
+    private final BlockingDeque<Object> deque = new LinkedBlockingDeque<Object>();
+
+    @Override
+    public boolean offer(Signal signal, long weight) {
+        if (signal == null) {
+            throw new NullPointerException();
+        }
+        return this.deque.offer(weight != 0 ? new WeightedSignal(signal, weight) : signal);
+    }
+
+    @Override
+    public long drainTo(Collection<? super Signal> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long drainTo(Collection<? super Signal> c, int maxElements) {
+        // drained at once, under a single acquisition of the deque's lock
+        List<Object> elements = new ArrayList<Object>(Math.min(maxElements, this.deque.size()));
+        this.deque.drainTo(elements, maxElements);
+        long weight = 0;
+        for (Object element : elements) {
+            if (element instanceof WeightedSignal) {
+                WeightedSignal weighted = (WeightedSignal) element;
+                c.add(weighted.signal);
+                weight += weighted.weight;
+            } else {
+                c.add((Signal) element);
+            }
+        }
+        return weight;
+    }
+
+    @Override
+    public int size() {
+        return this.deque.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.deque.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        this.deque.clear();
+    }
+
+    private static class WeightedSignal {
+        private final Signal signal;
+        private final long weight;
+
+        private WeightedSignal(Signal signal, long weight) {
+            this.signal = signal;
+            this.weight = weight;
+        }
+    }
+}
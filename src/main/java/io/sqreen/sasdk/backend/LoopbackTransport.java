@@ -0,0 +1,77 @@
+package io.sqreen.sasdk.backend;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers all the requests in memory, with a status and an empty body,
+ * after writing their bodies to a stream that discards them. Serialization
+ * and compression still happen, so the cost of the client can be measured
+ * without the network.
+ */
+class LoopbackTransport implements Transport {
+    private final int status;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bodyBytes = new AtomicLong();
+
+    /**
+     * Answers with <code>202 Accepted</code>.
+     */
+    LoopbackTransport() {
+        this(202);
+    }
+
+    LoopbackTransport(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        Body body = request.getBody();
+        if (body != null) {
+            CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+            body.writeTo(out);
+            this.bodyBytes.addAndGet(out.getCount());
+        }
+        this.requests.incrementAndGet();
+
+        return new Response() {
+            @Override
+            public int getStatus() {
+                return LoopbackTransport.this.status;
+            }
+
+            @Override
+            public InputStream getContent() {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * @return the number of requests answered
+     */
+    long getRequestCount() {
+        return this.requests.get();
+    }
+
+    /**
+     * @return the total size of the request bodies, as sent (encoded)
+     */
+    long getBodyBytes() {
+        return this.bodyBytes.get();
+    }
+
+    @Override
+    public void close() {
+    }
+}
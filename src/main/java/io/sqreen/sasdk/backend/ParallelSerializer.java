@@ -0,0 +1,136 @@
+package io.sqreen.sasdk.backend;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Serializes large batches in chunks, in parallel, on a fork-join pool. Each
+ * chunk is serialized as a JSON array into its own buffer; the arrays are then
+ * joined in order into a single one. With the default object writer, the
+ * result is the same as serializing the whole batch at once.
+ *
+ * The pool is owned by the serializer and its threads are daemon threads.
+ */
+final class ParallelSerializer {
+    private final ForkJoinPool pool;
+    private final int minBatchSize;
+    private final int chunkSize;
+
+    /**
+     * @param parallelism the number of threads of the pool
+     * @param minBatchSize smaller batches are serialized by the calling thread
+     * @param chunkSize the number of objects serialized by each task
+     */
+    ParallelSerializer(int parallelism, int minBatchSize, int chunkSize) {
+        checkArgument(parallelism > 0);
+        checkArgument(chunkSize > 0);
+        checkArgument(minBatchSize > chunkSize);
+        this.pool = new ForkJoinPool(parallelism);
+        this.minBatchSize = minBatchSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return whether the payload is a batch large enough to be split
+     */
+    boolean accepts(Object payload) {
+        return payload instanceof List && ((List<?>) payload).size() >= this.minBatchSize;
+    }
+
+    /**
+     * Serializes a batch accepted by {@link #accepts(Object)}.
+     * @param writer the object writer
+     * @param batch the objects to serialize as a JSON array
+     * @param bufferPool where the buffers of the chunks come from
+     * @param out where the JSON array is written
+     * @throws IOException if any chunk fails to be serialized
+     */
+    void writeArray(final ObjectWriter writer, List<?> batch, final BufferPool bufferPool,
+                    PooledByteArrayOutputStream out) throws IOException {
+        List<ForkJoinTask<PooledByteArrayOutputStream>> tasks = Lists.newArrayList();
+        for (int from = 0; from < batch.size(); from += this.chunkSize) {
+            final List<?> chunk = batch.subList(from, Math.min(batch.size(), from + this.chunkSize));
+            tasks.add(this.pool.submit(new Callable<PooledByteArrayOutputStream>() {
+                @Override
+                public PooledByteArrayOutputStream call() throws IOException {
+                    PooledByteArrayOutputStream chunkOut = new PooledByteArrayOutputStream(bufferPool);
+                    try {
+                        writer.writeValue(chunkOut, chunk);
+                    } catch (IOException | RuntimeException e) {
+                        chunkOut.release();
+                        throw e;
+                    }
+                    return chunkOut;
+                }
+            }));
+        }
+
+        // join in order; the buffers of all the chunks are released, even on failure
+        Throwable failure = null;
+        boolean first = true;
+        out.write('[');
+        for (ForkJoinTask<PooledByteArrayOutputStream> task : tasks) {
+            PooledByteArrayOutputStream chunkOut;
+            try {
+                chunkOut = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new InterruptedIOException("Interrupted during serialization");
+                }
+                continue;
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = ioExceptionCause(e.getCause());
+                }
+                continue;
+            }
+
+            try {
+                if (failure == null) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    first = false;
+                    // without the enclosing brackets
+                    chunkOut.writeTo(out, 1, chunkOut.size() - 2);
+                }
+            } finally {
+                chunkOut.release();
+            }
+        }
+        if (failure != null) {
+            Throwables.propagateIfPossible(failure, IOException.class);
+            throw new IOException(failure);
+        }
+        out.write(']');
+    }
+
+    /**
+     * Checked exceptions thrown by the tasks come wrapped in runtime
+     * exceptions, possibly several times.
+     */
+    private static Throwable ioExceptionCause(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof IOException) {
+                return c;
+            }
+        }
+        return t;
+    }
+
+    void close() {
+        this.pool.shutdown();
+    }
+}
@@ -0,0 +1,54 @@
+package io.sqreen.sasdk.backend;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An entity whose body is held in a {@link PooledByteArrayOutputStream}. The
+ * body is written to the connection segment by segment, without being copied
+ * to a single array. The segments must be released once the request is
+ * completed, with {@link #release()}; the entity can't be sent afterwards.
+ */
+class PooledByteArrayEntity extends AbstractHttpEntity implements Transport.Body {
+    private final PooledByteArrayOutputStream body;
+
+    PooledByteArrayEntity(PooledByteArrayOutputStream body) {
+        checkArgument(body != null);
+        this.body = body;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return this.body.size();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return this.body.newInputStream();
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        checkArgument(outStream != null);
+        this.body.writeTo(outStream);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    void release() {
+        this.body.release();
+    }
+}
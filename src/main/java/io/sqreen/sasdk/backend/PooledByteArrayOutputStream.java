@@ -0,0 +1,187 @@
+package io.sqreen.sasdk.backend;
+
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * An in-memory output stream that stores the data in segments borrowed from a
+ * {@link BufferPool}. Unlike {@link java.io.ByteArrayOutputStream}, growing
+ * doesn't copy the data written so far: a new segment, twice as large as the
+ * last one up to {@link BufferPool#MAX_SIZE}, is added instead.
+ *
+ * The segments go back to the pool on {@link #release()}; the stream can't be
+ * used afterwards. Not thread-safe.
+ */
+final class PooledByteArrayOutputStream extends OutputStream {
+    private final BufferPool pool;
+    private final List<byte[]> segments = Lists.newArrayListWithCapacity(8);
+    // the segment being written to
+    private byte[] current;
+    private int currentCount;
+    private long count;
+    private boolean released;
+
+    PooledByteArrayOutputStream(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.current == null || this.currentCount == this.current.length) {
+            addSegment();
+        }
+        this.current[this.currentCount++] = (byte) b;
+        this.count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            if (this.current == null || this.currentCount == this.current.length) {
+                addSegment();
+            }
+            int n = Math.min(len, this.current.length - this.currentCount);
+            System.arraycopy(b, off, this.current, this.currentCount, n);
+            this.currentCount += n;
+            this.count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void addSegment() throws IOException {
+        if (this.released) {
+            throw new IOException("Stream already released");
+        }
+        int size = this.current == null ?
+                BufferPool.MIN_SIZE : Math.min(BufferPool.MAX_SIZE, this.current.length * 2);
+        this.current = this.pool.acquire(size);
+        this.currentCount = 0;
+        this.segments.add(this.current);
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    long size() {
+        return this.count;
+    }
+
+    /**
+     * Writes the data written so far to the given stream.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        checkNotReleased();
+        int last = this.segments.size() - 1;
+        for (int i = 0; i < last; i++) {
+            byte[] segment = this.segments.get(i);
+            out.write(segment, 0, segment.length);
+        }
+        if (last >= 0) {
+            out.write(this.current, 0, this.currentCount);
+        }
+    }
+
+    /**
+     * Writes a range of the data written so far to the given stream.
+     * @param out the stream to write to
+     * @param offset the position of the first byte to write
+     * @param length the number of bytes to write
+     */
+    void writeTo(OutputStream out, long offset, long length) throws IOException {
+        checkNotReleased();
+        if (offset < 0 || length < 0 || offset + length > this.count) {
+            throw new IndexOutOfBoundsException();
+        }
+        long segmentStart = 0;
+        for (int i = 0; i < this.segments.size() && length > 0; i++) {
+            byte[] segment = this.segments.get(i);
+            int segmentCount = segment == this.current ? this.currentCount : segment.length;
+            if (offset < segmentStart + segmentCount) {
+                int off = (int) (offset - segmentStart);
+                int n = (int) Math.min(length, segmentCount - off);
+                out.write(segment, off, n);
+                offset += n;
+                length -= n;
+            }
+            segmentStart += segmentCount;
+        }
+    }
+
+    /**
+     * @return a stream reading the data written so far, valid until the
+     * segments are released
+     */
+    InputStream newInputStream() throws IOException {
+        checkNotReleased();
+        return new SegmentsInputStream();
+    }
+
+    /**
+     * Returns the segments to the pool. Does nothing if already released.
+     */
+    void release() {
+        if (this.released) {
+            return;
+        }
+        this.released = true;
+        for (byte[] segment : this.segments) {
+            this.pool.release(segment);
+        }
+        this.segments.clear();
+        this.current = null;
+    }
+
+    private void checkNotReleased() throws IOException {
+        if (this.released) {
+            throw new IOException("Stream already released");
+        }
+    }
+
+    private class SegmentsInputStream extends InputStream {
+        private int segment;
+        private int pos;
+
+        private int available(int seg) {
+            if (seg >= segments.size()) {
+                return 0;
+            }
+            int end = seg == segments.size() - 1 ? currentCount : segments.get(seg).length;
+            return end - (seg == this.segment ? this.pos : 0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (released) {
+                throw new IOException("Stream already released");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (available(this.segment) == 0) {
+                if (this.segment >= segments.size() - 1) {
+                    return -1;
+                }
+                this.segment++;
+                this.pos = 0;
+            }
+            int n = Math.min(len, available(this.segment));
+            System.arraycopy(segments.get(this.segment), this.pos, b, off, n);
+            this.pos += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.sqreen.sasdk.backend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes gzip data, like {@link java.util.zip.GZIPOutputStream}, but with a
+ * deflater borrowed from a {@link DeflaterPool}. The deflater is returned to
+ * the pool by {@link #finish()}, or by {@link #abort()} if the data is not to
+ * be completed; the stream can't be written to afterwards. {@link #finish()}
+ * doesn't close the underlying stream, {@link #close()} does.
+ */
+class PooledGzipOutputStream extends DeflaterOutputStream implements Abortable {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int BUFFER_SIZE = 8192;
+    // magic, CM = deflate, no flags, no mtime, no XFL, OS = unknown
+    private static final byte[] HEADER = {
+            (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED,
+            0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final DeflaterPool pool;
+    private final CRC32 crc = new CRC32();
+    private boolean finished;
+
+    PooledGzipOutputStream(OutputStream out, DeflaterPool pool) throws IOException {
+        super(out, pool.acquire(), BUFFER_SIZE);
+        this.pool = pool;
+        try {
+            out.write(HEADER);
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.finished) {
+            throw new IOException("write beyond end of stream");
+        }
+        super.write(b, off, len);
+        this.crc.update(b, off, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (this.finished) {
+            return;
+        }
+        this.finished = true;
+        try {
+            super.finish();
+            writeTrailer();
+        } finally {
+            this.pool.release(this.def);
+        }
+    }
+
+    /**
+     * Returns the deflater to the pool without writing the remaining data
+     * nor the trailer. The underlying stream is not closed.
+     */
+    @Override
+    public void abort() {
+        if (this.finished) {
+            return;
+        }
+        this.finished = true;
+        this.pool.release(this.def);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            this.out.close();
+        }
+    }
+
+    private void writeTrailer() throws IOException {
+        byte[] trailer = new byte[8];
+        writeInt((int) this.crc.getValue(), trailer, 0);
+        // ISIZE is the uncompressed size modulo 2^32
+        writeInt((int) this.def.getBytesRead(), trailer, 4);
+        this.out.write(trailer);
+    }
+
+    private static void writeInt(int i, byte[] buf, int offset) {
+        buf[offset] = (byte) i;
+        buf[offset + 1] = (byte) (i >> 8);
+        buf[offset + 2] = (byte) (i >> 16);
+        buf[offset + 3] = (byte) (i >> 24);
+    }
+}
@@ -0,0 +1,24 @@
+package io.sqreen.sasdk.backend;
+
+import io.sqreen.sasdk.backend.exception.InvalidPayloadException;
+import io.sqreen.sasdk.signals_dto.Signal;
+
+import java.util.List;
+
+/**
+ * Receives the objects that the ingestion backend rejected as invalid, once
+ * they have been isolated from the rest of their batch.
+ *
+ * @see BatchCollector.BatchCollectorBuilder#withPoisonIsolation(int, QuarantineListener)
+ */
+public interface QuarantineListener {
+
+    /**
+     * Called on a sending thread; it should return quickly.
+     *
+     * @param rejected the quarantined objects, usually a single one, or
+     *                 several once the limit of extra requests is reached
+     * @param e the rejection of the last request they were sent in
+     */
+    void onQuarantine(List<Signal> rejected, InvalidPayloadException e);
+}
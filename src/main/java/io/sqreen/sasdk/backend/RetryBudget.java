@@ -0,0 +1,57 @@
+package io.sqreen.sasdk.backend;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries to a fraction of the batch submissions, so that retries
+ * can't multiply the load on a backend that is already failing.
+ *
+ * Each first attempt deposits <code>ratio</code> tokens and each retry
+ * withdraws one. The balance starts at <code>minRetries</code> tokens, which
+ * allows some retries even when little traffic has been seen, and never
+ * exceeds <code>minRetries</code> tokens (or one, if greater).
+ */
+final class RetryBudget {
+    // tokens are kept in thousandths so that fractional ratios are exact enough
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    RetryBudget(double ratio, int minRetries) {
+        this.deposit = (long) (ratio * SCALE);
+        this.maxBalance = Math.max(minRetries, 1) * SCALE;
+        this.balance = new AtomicLong(minRetries * SCALE);
+    }
+
+    void onFirstAttempt() {
+        while (true) {
+            long current = this.balance.get();
+            long updated = Math.min(this.maxBalance, current + this.deposit);
+            if (updated == current || this.balance.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether a retry may be made
+     */
+    boolean tryAcquireRetry() {
+        while (true) {
+            long current = this.balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (this.balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    // for testing
+    double balance() {
+        return (double) this.balance.get() / SCALE;
+    }
+}
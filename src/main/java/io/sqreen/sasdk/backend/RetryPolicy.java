@@ -0,0 +1,78 @@
+package io.sqreen.sasdk.backend;
+
+import io.sqreen.sasdk.backend.exception.AuthenticationException;
+import io.sqreen.sasdk.backend.exception.BadHttpStatusException;
+import io.sqreen.sasdk.backend.exception.InvalidPayloadException;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a failed batch submission is attempted again.
+ *
+ * The wait before each retry is drawn uniformly between 0 and an exponentially
+ * growing ceiling ("full jitter"), so that the collectors of many hosts that
+ * saw the same outage don't retry in lockstep.
+ */
+final class RetryPolicy {
+    static final RetryPolicy NO_RETRIES = new RetryPolicy(1, 0, 0);
+
+    private static final int REQUEST_TIMEOUT = 408;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final int maxAttempts;
+    private final long initialBackoffInMs;
+    private final long maxBackoffInMs;
+
+    RetryPolicy(int maxAttempts, long initialBackoffInMs, long maxBackoffInMs) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffInMs = initialBackoffInMs;
+        this.maxBackoffInMs = maxBackoffInMs;
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt the number of the attempt that failed, starting at 1
+     * @param failure the reason of the failure
+     * @return whether another attempt may be made
+     */
+    boolean shouldRetry(int attempt, Throwable failure) {
+        return attempt < this.maxAttempts && isRetryable(failure);
+    }
+
+    /**
+     * @param attempt the number of the attempt that failed, starting at 1
+     * @return the time to wait before the next attempt
+     */
+    long backoffInMs(int attempt) {
+        long ceiling = this.initialBackoffInMs;
+        for (int i = 1; i < attempt && ceiling < this.maxBackoffInMs; i++) {
+            ceiling <<= 1;
+        }
+        ceiling = Math.min(ceiling, this.maxBackoffInMs);
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Server errors, timeouts, throttling and I/O errors are transient;
+     * authentication failures, rejected payloads and other client errors
+     * would fail again.
+     */
+    static boolean isRetryable(Throwable failure) {
+        if (failure instanceof AuthenticationException
+                || failure instanceof InvalidPayloadException) {
+            return false;
+        }
+        if (failure instanceof BadHttpStatusException) {
+            int code = ((BadHttpStatusException) failure).getResponseCode();
+            return code >= 500 || code == REQUEST_TIMEOUT || code == TOO_MANY_REQUESTS;
+        }
+        return failure instanceof IOException;
+    }
+}
@@ -0,0 +1,156 @@
+package io.sqreen.sasdk.backend;
+
+import io.sqreen.sasdk.signals_dto.Signal;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, array-backed, lock-free {@link SignalQueue}.
+ *
+ * Each slot has a sequence number telling whether it is free for the producer
+ * at a given position or holds an element for the consumer at that position
+ * (see Dmitry Vyukov's bounded MPMC queue). Producers claim a position with a
+ * single CAS on the tail and never allocate. Consumers claim all the published
+ * elements at once with a single CAS on the head, so that concurrent drains
+ * (which are rare) are safe, and a drain costs one CAS however many elements
+ * it removes.
+ *
+ * The weights are kept in a parallel array. They are written before the
+ * element is published and read before its slot is freed, so the sequence
+ * numbers order their accesses like those of the elements.
+ */
+class RingBufferSignalQueue implements SignalQueue {
+    // the largest power of two that is a valid array size
+    static final int MAX_CAPACITY = 1 << 30;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Signal> elements;
+    private final long[] weights;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param minCapacity the minimum number of elements the queue can hold;
+     *                    it's rounded up to a power of two
+     */
+    RingBufferSignalQueue(int minCapacity) {
+        if (minCapacity <= 0 || minCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("invalid capacity: " + minCapacity);
+        }
+        this.capacity = minCapacity == 1 ? 1 : Integer.highestOneBit(minCapacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.elements = new AtomicReferenceArray<Signal>(this.capacity);
+        this.weights = new long[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return this.capacity;
+    }
+
+    @Override
+    public boolean offer(Signal signal, long weight) {
+        if (signal == null) {
+            throw new NullPointerException();
+        }
+
+        long pos = this.tail.get();
+        while (true) {
+            int idx = (int) (pos & this.mask);
+            long diff = this.sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    this.weights[idx] = weight;
+                    this.elements.lazySet(idx, signal);
+                    // publishes the element to the consumers
+                    this.sequences.lazySet(idx, pos + 1);
+                    return true;
+                }
+                pos = this.tail.get();
+            } else if (diff < 0) {
+                // the slot still holds the element from the previous lap
+                return false;
+            } else {
+                // another producer took this position
+                pos = this.tail.get();
+            }
+        }
+    }
+
+    @Override
+    public long drainTo(Collection<? super Signal> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long drainTo(Collection<? super Signal> c, int maxElements) {
+        long[] weight = new long[1];
+        drain(c, maxElements, weight);
+        return weight[0];
+    }
+
+    /**
+     * @param c null to discard the elements
+     * @param weight where the weights of the elements are added
+     * @return the number of elements removed
+     */
+    private int drain(Collection<? super Signal> c, int maxElements, long[] weight) {
+        int max = Math.min(this.capacity, maxElements);
+        while (true) {
+            long pos = this.head.get();
+            int n = 0;
+            while (n < max &&
+                    this.sequences.get((int) ((pos + n) & this.mask)) == pos + n + 1) {
+                n++;
+            }
+            if (n == 0) {
+                return 0;
+            }
+            if (!this.head.compareAndSet(pos, pos + n)) {
+                continue; // another consumer drained concurrently
+            }
+
+            for (int i = 0; i < n; i++) {
+                int idx = (int) ((pos + i) & this.mask);
+                Signal signal = this.elements.get(idx);
+                weight[0] += this.weights[idx];
+                this.elements.lazySet(idx, null);
+                // frees the slot for the producers of the next lap
+                this.sequences.lazySet(idx, pos + i + this.capacity);
+                if (c != null) {
+                    c.add(signal);
+                }
+            }
+            return n;
+        }
+    }
+
+    @Override
+    public int size() {
+        long head = this.head.get();
+        long tail = this.tail.get();
+        // the tail includes claimed but not yet published positions
+        return (int) Math.max(0, Math.min(tail - head, this.capacity));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        long[] weight = new long[1];
+        while (drain(null, Integer.MAX_VALUE, weight) > 0) {
+            // repeat until no element is left
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.sqreen.sasdk.backend;
+
+import io.sqreen.sasdk.signals_dto.Signal;
+
+import java.util.Collection;
+
+/**
+ * The queue where a {@link BatchCollector} keeps the objects waiting to be
+ * sent. Implementations must allow concurrent calls to all the methods.
+ *
+ * Each object is queued with a weight, its share of the collector's budget in
+ * bytes, which is kept with it and given back when it's removed. The weight is
+ * not recomputed, as the object may have changed since it was queued.
+ */
+interface SignalQueue {
+
+    /**
+     * Inserts an object at the tail of the queue, if there is room for it.
+     * @param signal the object to insert
+     * @param weight the weight reserved for the object, or 0 if none
+     * @return whether the object was inserted
+     */
+    boolean offer(Signal signal, long weight);
+
+    /**
+     * Removes all the available objects, adding them to the given collection
+     * in insertion order.
+     * @param c the collection to add the removed objects to
+     * @return the sum of the weights of the removed objects
+     */
+    long drainTo(Collection<? super Signal> c);
+
+    /**
+     * Removes at most the given number of available objects, adding them to
+     * the given collection in insertion order.
+     * @param c the collection to add the removed objects to
+     * @param maxElements the maximum number of objects to remove
+     * @return the sum of the weights of the removed objects
+     */
+    long drainTo(Collection<? super Signal> c, int maxElements);
+
+    /**
+     * @return the number of objects in the queue. Implementations may return an
+     * approximate value while the queue is being concurrently modified.
+     */
+    int size();
+
+    boolean isEmpty();
+
+    void clear();
+}
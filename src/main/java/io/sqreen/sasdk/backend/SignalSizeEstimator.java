@@ -0,0 +1,212 @@
+package io.sqreen.sasdk.backend;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.sqreen.sasdk.signals_dto.Actor;
+import io.sqreen.sasdk.signals_dto.LocationInfra;
+import io.sqreen.sasdk.signals_dto.SerializedSignal;
+import io.sqreen.sasdk.signals_dto.Signal;
+import io.sqreen.sasdk.signals_dto.Trace;
+import io.sqreen.sasdk.signals_dto.context.http.HttpContext;
+import io.sqreen.sasdk.signals_dto.context.http.Parameters;
+import io.sqreen.sasdk.signals_dto.context.http.Request;
+import io.sqreen.sasdk.signals_dto.context.http.Response;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Estimates the size of the JSON representation of signals, as produced by
+ * the default object writer, without serializing them.
+ *
+ * The estimate ignores character escaping and the UTF-8 expansion of non-ASCII
+ * characters. Objects of unknown types (outside the <code>signals_dto</code>
+ * model, JSON trees, maps, collections, arrays, strings, numbers, booleans
+ * and dates) are given a fixed size. A {@link SerializedSignal} is estimated
+ * from its tree.
+ */
+final class SignalSizeEstimator {
+    static final int UNKNOWN_OBJECT_SIZE = 64;
+    private static final int NUMBER_SIZE = 8;
+    private static final int DATE_SIZE = 22; // "2020-01-01T00:00:00Z"
+    private static final int MAX_DEPTH = 32;
+
+    private SignalSizeEstimator() {}
+
+    static long estimate(Object object) {
+        return value(object, 0);
+    }
+
+    private static long value(Object o, int depth) {
+        if (o == null) {
+            return 4;
+        }
+        if (depth > MAX_DEPTH) {
+            return UNKNOWN_OBJECT_SIZE;
+        }
+        if (o instanceof CharSequence) {
+            return ((CharSequence) o).length() + 2;
+        }
+        if (o instanceof Number) {
+            return NUMBER_SIZE;
+        }
+        if (o instanceof Boolean) {
+            return 5;
+        }
+        if (o instanceof Date) {
+            return DATE_SIZE;
+        }
+        if (o instanceof Enum) {
+            return o.toString().length() + 2;
+        }
+        if (o instanceof SerializedSignal) {
+            // its fields are all null; its JSON is the tree read back
+            return value(((SerializedSignal) o).getTree(), depth);
+        }
+        if (o instanceof Signal) {
+            return signal((Signal) o, depth + 1);
+        }
+        if (o instanceof JsonNode) {
+            return node((JsonNode) o, depth);
+        }
+        if (o instanceof Map) {
+            long size = 2;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+                size += String.valueOf(e.getKey()).length() + 4 + value(e.getValue(), depth + 1);
+            }
+            return size;
+        }
+        if (o instanceof Collection) {
+            long size = 2;
+            for (Object element : (Collection<?>) o) {
+                size += value(element, depth + 1) + 1;
+            }
+            return size;
+        }
+        if (o.getClass().isArray()) {
+            long size = 2;
+            int len = Array.getLength(o);
+            for (int i = 0; i < len; i++) {
+                size += value(Array.get(o, i), depth + 1) + 1;
+            }
+            return size;
+        }
+        if (o instanceof Actor) {
+            Actor actor = (Actor) o;
+            return 2 + field("ip_addresses", actor.ipAddresses, depth)
+                    + field("user_agent", actor.userAgent, depth)
+                    + field("identifiers", actor.identifiers, depth)
+                    + field("traits", actor.traits, depth);
+        }
+        if (o instanceof LocationInfra) {
+            return 2 + field("infra", ((LocationInfra) o).infra, depth);
+        }
+        if (o instanceof LocationInfra.Infra) {
+            LocationInfra.Infra infra = (LocationInfra.Infra) o;
+            return 2 + field("agent_type", infra.agentType, depth)
+                    + field("agent_version", infra.agentVersion, depth)
+                    + field("os_type", infra.osType, depth)
+                    + field("hostname", infra.hostname, depth)
+                    + field("runtime_type", infra.runtimeType, depth)
+                    + field("runtime_version", infra.runtimeVersion, depth)
+                    + field("libsqreen_version", infra.libsqreenVersion, depth);
+        }
+        if (o instanceof HttpContext) {
+            HttpContext context = (HttpContext) o;
+            return 2 + field("request", context.request, depth)
+                    + field("response", context.response, depth)
+                    + field("datadog_trace_id", context.datadogTraceId, depth)
+                    + field("datadog_span_id", context.datadogSpanId, depth);
+        }
+        if (o instanceof Request) {
+            return request((Request) o, depth);
+        }
+        if (o instanceof Response) {
+            Response response = (Response) o;
+            return 2 + field("status", response.status, depth)
+                    + field("content_length", response.contentLength, depth)
+                    + field("content_type", response.contentType, depth)
+                    + field("blocked", response.blocked, depth)
+                    + field("headers", response.headers, depth);
+        }
+        if (o instanceof Parameters) {
+            Parameters parameters = (Parameters) o;
+            return 2 + field("query", parameters.query, depth)
+                    + field("form", parameters.form, depth)
+                    + field("cookies", parameters.cookies, depth)
+                    + field("json", parameters.json, depth)
+                    + field("other", parameters.other, depth);
+        }
+        return UNKNOWN_OBJECT_SIZE;
+    }
+
+    private static long node(JsonNode node, int depth) {
+        if (node.isTextual()) {
+            return node.textValue().length() + 2;
+        }
+        if (node.isObject()) {
+            long size = 2;
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> e = fields.next();
+                size += e.getKey().length() + 4 + value(e.getValue(), depth + 1);
+            }
+            return size;
+        }
+        if (node.isArray()) {
+            long size = 2;
+            for (JsonNode element : node) {
+                size += value(element, depth + 1) + 1;
+            }
+            return size;
+        }
+        // numbers, booleans and null
+        return node.asText().length();
+    }
+
+    private static long signal(Signal signal, int depth) {
+        long size = 2 + "\"type\":\"point\",".length()
+                + field("signal_name", signal.name, depth)
+                + field("payload_schema", signal.payloadSchema, depth)
+                + field("payload", signal.payload, depth)
+                + field("actor", signal.actor, depth)
+                + field("context_schema", signal.contextSchema, depth)
+                + field("context", signal.context, depth)
+                + field("source", signal.source, depth)
+                + field("trigger", signal.trigger, depth)
+                + field("location", signal.location, depth)
+                + field("location_infra", signal.locationInfra, depth)
+                + "\"time\":".length() + DATE_SIZE + 1;
+        if (signal instanceof Trace) {
+            size += field("data", ((Trace) signal).getSignals(), depth);
+        }
+        return size;
+    }
+
+    private static long request(Request request, int depth) {
+        return 2 + field("start_processing_time", request.startProcessingTime, depth)
+                + field("end_processing_time", request.endProcessingTime, depth)
+                + field("rid", request.rid, depth)
+                + field("headers", request.headers, depth)
+                + field("user_agent", request.userAgent, depth)
+                + field("scheme", request.scheme, depth)
+                + field("verb", request.verb, depth)
+                + field("host", request.host, depth)
+                + field("port", request.port, depth)
+                + field("remote_ip", request.remoteIp, depth)
+                + field("remote_port", request.remotePort, depth)
+                + field("path", request.path, depth)
+                + field("referer", request.referer, depth)
+                + field("parameters", request.parameters, depth);
+    }
+
+    // "name":value, -- null values are not serialized
+    private static long field(String name, Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+        return name.length() + 4 + value(value, depth + 1);
+    }
+}
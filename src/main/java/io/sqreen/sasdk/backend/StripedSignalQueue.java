@@ -0,0 +1,217 @@
+package io.sqreen.sasdk.backend;
+
+import io.sqreen.sasdk.signals_dto.Signal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link SignalQueue} where each producer thread appends to one of several
+ * small staging buffers (stripes), selected by hashing the thread id. A
+ * stripe is handed off to the shared queue as a whole once it's full, so
+ * producers on different stripes don't contend with each other and the
+ * shared state is touched only once per chunk.
+ *
+ * Staged objects are not counted in {@link #size()} until their chunk is
+ * handed off, so the size lags behind by up to
+ * <code>stripes * chunkSize</code> objects. Draining the queue sweeps the
+ * partially filled stripes as well. Objects from different stripes are not
+ * drained in insertion order. The weights of the objects are kept in arrays
+ * parallel to those of the objects.
+ */
+class StripedSignalQueue implements SignalQueue {
+    private static final int MAX_STRIPES = 64;
+    private static final int MAX_CHUNK_SIZE = 32;
+
+    private final int capacity;
+    private final int chunkSize;
+    private final Stripe[] stripes;
+    private final int mask;
+    private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<Chunk>();
+    private final AtomicInteger handedOff = new AtomicInteger();
+
+    /**
+     * @param capacity the number of handed off objects above which offers fail
+     * @param triggerSize the batch size; the chunks are a fraction of it
+     */
+    StripedSignalQueue(int capacity, int triggerSize) {
+        this(capacity,
+                Math.max(1, Math.min(MAX_CHUNK_SIZE, triggerSize / 4)),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    StripedSignalQueue(int capacity, int chunkSize, int minStripes) {
+        this.capacity = capacity;
+        this.chunkSize = chunkSize;
+        int numStripes = minStripes <= 1 ?
+                1 : Math.min(MAX_STRIPES, Integer.highestOneBit(minStripes - 1) << 1);
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            this.stripes[i] = new Stripe(chunkSize);
+        }
+        this.mask = numStripes - 1;
+    }
+
+    int stripeCount() {
+        return this.stripes.length;
+    }
+
+    int chunkSize() {
+        return this.chunkSize;
+    }
+
+    private Stripe currentStripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h *= 0x9E3779B9; // spread consecutive ids
+        return this.stripes[(h ^ (h >>> 16)) & this.mask];
+    }
+
+    @Override
+    public boolean offer(Signal signal, long weight) {
+        if (signal == null) {
+            throw new NullPointerException();
+        }
+        if (this.handedOff.get() >= this.capacity) {
+            return false;
+        }
+
+        Stripe stripe = currentStripe();
+        Chunk full = null;
+        synchronized (stripe) {
+            stripe.buffer[stripe.count] = signal;
+            stripe.weights[stripe.count] = weight;
+            stripe.count++;
+            if (stripe.count == this.chunkSize) {
+                full = new Chunk(stripe.buffer, stripe.weights);
+                stripe.buffer = new Signal[this.chunkSize];
+                stripe.weights = new long[this.chunkSize];
+                stripe.count = 0;
+            }
+        }
+
+        if (full != null) {
+            this.chunks.offer(full);
+            this.handedOff.addAndGet(full.size());
+        }
+        return true;
+    }
+
+    @Override
+    public long drainTo(Collection<? super Signal> c) {
+        return drain(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long drainTo(Collection<? super Signal> c, int maxElements) {
+        return drain(c, maxElements);
+    }
+
+    // c null to discard the elements; returns the sum of their weights
+    private long drain(Collection<? super Signal> c, int maxElements) {
+        int n = 0;
+        long weight = 0;
+        Chunk chunk;
+        while (n < maxElements && (chunk = this.chunks.poll()) != null) {
+            this.handedOff.addAndGet(-chunk.size());
+            int take = Math.min(chunk.size(), maxElements - n);
+            if (take < chunk.size()) {
+                // the rest goes back to the tail; order is not kept anyway
+                Chunk rest = chunk.from(take);
+                this.chunks.offer(rest);
+                this.handedOff.addAndGet(rest.size());
+            }
+            for (int i = 0; i < take; i++) {
+                if (c != null) {
+                    c.add(chunk.signals[i]);
+                }
+                weight += chunk.weights[i];
+            }
+            n += take;
+        }
+
+        for (Stripe stripe : this.stripes) {
+            if (n >= maxElements) {
+                break;
+            }
+            if (stripe.count == 0) {
+                continue;
+            }
+            synchronized (stripe) {
+                int take = Math.min(stripe.count, maxElements - n);
+                for (int i = 0; i < take; i++) {
+                    if (c != null) {
+                        c.add(stripe.buffer[i]);
+                    }
+                    weight += stripe.weights[i];
+                }
+                // keep the rest at the start of the buffer
+                System.arraycopy(stripe.buffer, take, stripe.buffer, 0, stripe.count - take);
+                System.arraycopy(stripe.weights, take, stripe.weights, 0, stripe.count - take);
+                Arrays.fill(stripe.buffer, stripe.count - take, stripe.count, null);
+                stripe.count -= take;
+                n += take;
+            }
+        }
+        return weight;
+    }
+
+    @Override
+    public int size() {
+        return this.handedOff.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (!this.chunks.isEmpty()) {
+            return false;
+        }
+        for (Stripe stripe : this.stripes) {
+            if (stripe.count != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        drain(null, Integer.MAX_VALUE);
+    }
+
+    private static class Stripe {
+        // guarded by this
+        private Signal[] buffer;
+        // guarded by this
+        private long[] weights;
+        // written under the lock, but read without it for quick emptiness checks
+        private volatile int count;
+
+        private Stripe(int chunkSize) {
+            this.buffer = new Signal[chunkSize];
+            this.weights = new long[chunkSize];
+        }
+    }
+
+    private static class Chunk {
+        private final Signal[] signals;
+        private final long[] weights;
+
+        private Chunk(Signal[] signals, long[] weights) {
+            this.signals = signals;
+            this.weights = weights;
+        }
+
+        private int size() {
+            return this.signals.length;
+        }
+
+        private Chunk from(int start) {
+            return new Chunk(Arrays.copyOfRange(this.signals, start, this.signals.length),
+                    Arrays.copyOfRange(this.weights, start, this.weights.length));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.sqreen.sasdk.backend;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sends the requests built by {@link BackendHttpImpl}, so that it doesn't
+ * depend on a particular HTTP client. Implementations must be thread-safe.
+ *
+ * @see ApacheTransport
+ * @see Http2Transport
+ * @see JdkTransport
+ * @see LoopbackTransport
+ */
+interface Transport extends Closeable {
+
+    /**
+     * Sends the request and waits for the status of the response.
+     * @return the response, which must be closed
+     */
+    Response execute(Request request) throws IOException;
+
+    /**
+     * Releases the resources of the transport, such as its connections.
+     */
+    @Override
+    void close() throws IOException;
+
+    final class Request {
+        private final BackendHttpImpl.HttpMethod method;
+        private final String url;
+        private final ListMultimap<String, String> headers;
+        private final Body body;
+
+        /**
+         * @param body the body of the request, or null for none
+         */
+        Request(BackendHttpImpl.HttpMethod method, String url,
+                ListMultimap<String, String> headers, Body body) {
+            checkArgument(method != null);
+            checkArgument(url != null);
+            checkArgument(headers != null);
+            this.method = method;
+            this.url = url;
+            this.headers = ImmutableListMultimap.copyOf(headers);
+            this.body = body;
+        }
+
+        BackendHttpImpl.HttpMethod getMethod() {
+            return this.method;
+        }
+
+        String getUrl() {
+            return this.url;
+        }
+
+        ListMultimap<String, String> getHeaders() {
+            return this.headers;
+        }
+
+        /**
+         * @return the body, or null if there is none
+         */
+        Body getBody() {
+            return this.body;
+        }
+    }
+
+    /**
+     * The body of a request. It can be written several times, if the
+     * request is sent again.
+     */
+    interface Body {
+        /**
+         * @return the length of the body in bytes, or a negative number if it
+         * is not known in advance, in which case it is sent with chunked
+         * transfer encoding
+         */
+        long getContentLength();
+
+        void writeTo(OutputStream outStream) throws IOException;
+    }
+
+    interface Response extends Closeable {
+        int getStatus();
+
+        /**
+         * @return the body of the response, possibly empty; it is closed with
+         * the response
+         */
+        InputStream getContent() throws IOException;
+    }
+}
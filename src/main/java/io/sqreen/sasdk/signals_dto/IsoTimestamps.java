@@ -0,0 +1,100 @@
+package io.sqreen.sasdk.signals_dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * Writes timestamps as ISO-8601 UTC strings with a precision of one second
+ * (<code>2020-01-01T00:00:00Z</code>), like Jackson's
+ * <code>ISO8601DateFormat</code>, but straight into the generator, without
+ * allocating. Each thread keeps a buffer holding the last timestamp written;
+ * the date part is only computed again when the day changes.
+ */
+final class IsoTimestamps {
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    // 1583-01-01T00:00:00Z to 9999-12-31T23:59:59Z. ISO8601DateFormat
+    // uses the Julian calendar before the Gregorian reform of 1582, and years
+    // after 9999 don't have 4 digits
+    private static final long MIN_MILLIS = -12212553600000L;
+    private static final long MAX_MILLIS = 253402300799999L;
+
+    private static final ThreadLocal<Buffer> BUFFERS = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    private IsoTimestamps() {}
+
+    /**
+     * @return whether the timestamp can be written by {@link #write(JsonGenerator, long)}
+     */
+    static boolean isSupported(long millis) {
+        return millis >= MIN_MILLIS && millis <= MAX_MILLIS;
+    }
+
+    /**
+     * Writes the timestamp as a string value.
+     * @param gen the generator
+     * @param millis the time in milliseconds since the epoch; must be
+     *               {@link #isSupported(long) supported}
+     */
+    static void write(JsonGenerator gen, long millis) throws IOException {
+        Buffer buffer = BUFFERS.get();
+        buffer.set(millis);
+        gen.writeString(buffer.chars, 0, Buffer.LENGTH);
+    }
+
+    private static final class Buffer {
+        static final int LENGTH = 20;
+
+        final char[] chars = "0000-00-00T00:00:00Z".toCharArray();
+        long day = Long.MIN_VALUE;
+
+        void set(long millis) {
+            long day = floorDiv(millis, MILLIS_PER_DAY);
+            int secondOfDay = (int) ((millis - day * MILLIS_PER_DAY) / 1000);
+            if (day != this.day) {
+                setDate(day);
+                this.day = day;
+            }
+            write2(11, secondOfDay / 3600);
+            write2(14, secondOfDay / 60 % 60);
+            write2(17, secondOfDay % 60);
+        }
+
+        // from the proleptic Gregorian calendar algorithms of H. Hinnant
+        private void setDate(long epochDay) {
+            long z = epochDay + 719468;
+            long era = floorDiv(z, 146097);
+            long doe = z - era * 146097;
+            long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+            long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+            long mp = (5 * doy + 2) / 153;
+            int dayOfMonth = (int) (doy - (153 * mp + 2) / 5 + 1);
+            int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+            int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+            write2(0, year / 100);
+            write2(2, year % 100);
+            write2(5, month);
+            write2(8, dayOfMonth);
+        }
+
+        private void write2(int pos, int value) {
+            this.chars[pos] = (char) ('0' + value / 10);
+            this.chars[pos + 1] = (char) ('0' + value % 10);
+        }
+    }
+
+    // Math.floorDiv is not available in Java 7
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+}
@@ -0,0 +1,56 @@
+package io.sqreen.sasdk.signals_dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.google.common.base.MoreObjects;
+
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A signal or trace that was already serialized, for instance one read back
+ * from the disk after a failed submission. It's serialized as its stored
+ * JSON tree, whatever the fields inherited from <code>Signal</code>.
+ */
+public final class SerializedSignal extends Signal implements JsonSerializable {
+
+    private final JsonNode tree;
+
+    public SerializedSignal(JsonNode tree) {
+        this.tree = checkNotNull(tree);
+    }
+
+    /**
+     * @return the JSON representation of the signal or trace
+     */
+    public JsonNode getTree() {
+        return this.tree;
+    }
+
+    @Override
+    SignalType getType() {
+        return null; // part of the tree
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        gen.writeTree(this.tree);
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider serializers,
+                                  TypeSerializer typeSer) throws IOException {
+        serialize(gen, serializers);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("tree", tree)
+                .toString();
+    }
+}
@@ -1,5 +1,6 @@
 package io.sqreen.sasdk.signals_dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -90,25 +91,48 @@ public abstract class Signal {
      */
     public LocationInfra locationInfra;
 
-    private Date time;
+    // in milliseconds since the epoch; NO_TIME if not set
+    private long time = NO_TIME;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
 
     /**
      * The time of the signal, or the current time if not set.
      * @return the time of the signal
      */
     public Date getTime() {
-        if (this.time == null) {
-            return new Date();
-        }
-        return this.time;
+        return new Date(getTimeMillis());
     }
 
     /**
      * Sets the time associated with the request
-     * @param time the instant this event occurred
+     * @param time the instant this event occurred, or null for none
      */
     public void setTime(Date time) {
-        this.time = time;
+        this.time = time != null ? time.getTime() : NO_TIME;
+    }
+
+    /**
+     * The time of the signal, or the current time if not set, without
+     * allocating a <code>Date</code>.
+     * @return the time of the signal, in milliseconds since the epoch
+     */
+    @JsonIgnore
+    public long getTimeMillis() {
+        if (this.time == NO_TIME) {
+            return System.currentTimeMillis();
+        }
+        return this.time;
+    }
+
+    /**
+     * Sets the time associated with the request.
+     * @param timeMillis the instant this event occurred, in milliseconds
+     *                   since the epoch
+     */
+    @JsonIgnore
+    public void setTimeMillis(long timeMillis) {
+        this.time = timeMillis;
     }
 
     enum SignalType {
@@ -141,7 +165,7 @@ public abstract class Signal {
                 .add("trigger", trigger)
                 .add("location", location)
                 .add("locationInfra", locationInfra)
-                .add("time", time)
+                .add("time", time != NO_TIME ? new Date(time) : null)
                 .toString();
     }
 }
@@ -0,0 +1,636 @@
+package io.sqreen.sasdk.signals_dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.Serializers;
+import com.fasterxml.jackson.databind.ser.std.DateSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
+import com.google.common.collect.MapMaker;
+import io.sqreen.sasdk.signals_dto.context.http.HttpContext;
+import io.sqreen.sasdk.signals_dto.context.http.Parameters;
+import io.sqreen.sasdk.signals_dto.context.http.Request;
+import io.sqreen.sasdk.signals_dto.context.http.Response;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Jackson module with hand-written serializers for the signal classes,
+ * which avoid the reflection and the per-property checks of the bean
+ * serializers. The output is the same as that of the bean serializers with
+ * the <code>SNAKE_CASE</code> naming strategy: same properties, in the same
+ * order, with null values omitted.
+ *
+ * The serializers are only used for these exact classes; subclasses, which
+ * may add properties, are still serialized by the bean serializers.
+ */
+public final class SignalsModule extends Module {
+    private static final JsonFactory CONSTANT_JSON_FACTORY = new JsonFactory();
+    // features that change how the target is handled, but not the JSON
+    private static final int OUTPUT_NEUTRAL_FEATURES = JsonGenerator.Feature.AUTO_CLOSE_TARGET.getMask()
+            | JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT.getMask()
+            | JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM.getMask();
+    private static final int DEFAULT_GENERATOR_FEATURES =
+            JsonGenerator.Feature.collectDefaults() & ~OUTPUT_NEUTRAL_FEATURES;
+
+    // weak keys are compared by identity; the JSON of each constant is cached
+    // per serialization config, as the config (date format, features...)
+    // decides how the constant is written
+    private static final ConcurrentMap<Object, ConcurrentMap<SerializationConfig, SerializableString>> CONSTANTS =
+            new MapMaker().weakKeys().makeMap();
+
+    /**
+     * The attribute that, set to <code>Boolean.TRUE</code> on an
+     * <code>ObjectWriter</code> (with <code>withAttribute()</code>), makes the
+     * serializers of this module compact the traces: the inherited fields
+     * (all but <code>payload</code>, <code>payload_schema</code>, the name and
+     * the time) that all the signals of a trace have in common are written
+     * once, in the trace, and the signals omit the values they would inherit
+     * anyway. The meaning of the trace is unchanged, but its JSON is smaller.
+     * The serialized objects are not modified.
+     */
+    public static final String COMPACT_TRACES = "io.sqreen.sasdk.compactTraces";
+
+    /**
+     * Marks an object as constant, so that its JSON is produced once, the
+     * first time it's serialized by a given <code>ObjectWriter</code>
+     * configuration, and then copied as is into the JSON of the signals it's
+     * part of that are written with the same configuration. This is meant for
+     * objects shared by many signals, such as the {@link LocationInfra.Infra}
+     * describing the host, their {@link Actor} or the <code>payload</code>
+     * map of a metric.
+     *
+     * The object must not be modified afterwards: the changes would not be
+     * serialized. It's only reused when written by the serializers of this
+     * module, as a property of a signal, of a {@link LocationInfra} or of a
+     * {@link Request}/{@link Response} (maps), with a generator whose
+     * features are the defaults, save for those about closing and flushing
+     * the target; otherwise it's serialized as usual. Neither the object
+     * nor the configurations it's cached for are kept alive by it being
+     * marked.
+     *
+     * @param value the object, which must not be null
+     * @param <T> the type of the object
+     * @return <code>value</code>
+     */
+    public static <T> T markConstant(T value) {
+        checkNotNull(value);
+        if (!CONSTANTS.containsKey(value)) {
+            CONSTANTS.putIfAbsent(value,
+                    new MapMaker().weakKeys().<SerializationConfig, SerializableString>makeMap());
+        }
+        return value;
+    }
+
+    @Override
+    public String getModuleName() {
+        return "sqreen-signals";
+    }
+
+    @Override
+    public Version version() {
+        return Version.unknownVersion();
+    }
+
+    @Override
+    public void setupModule(SetupContext context) {
+        context.addSerializers(new ExactClassSerializers());
+    }
+
+    private static class ExactClassSerializers extends Serializers.Base {
+        @Override
+        public JsonSerializer<?> findSerializer(SerializationConfig config, JavaType type,
+                                                BeanDescription beanDesc) {
+            Class<?> cls = type.getRawClass();
+            if (cls == PointSignal.class || cls == MetricSignal.class || cls == Trace.class) {
+                return SignalSerializer.INSTANCE;
+            }
+            if (cls == Actor.class) {
+                return ActorSerializer.INSTANCE;
+            }
+            if (cls == LocationInfra.class) {
+                return LocationInfraSerializer.INSTANCE;
+            }
+            if (cls == HttpContext.class) {
+                return HttpContextSerializer.INSTANCE;
+            }
+            if (cls == Date.class && config.getDateFormat().getClass() == ISO8601DateFormat.class) {
+                return IsoDateSerializer.INSTANCE;
+            }
+            return null;
+        }
+    }
+
+    private static final SerializedString PAYLOAD_SCHEMA = new SerializedString("payload_schema");
+    private static final SerializedString PAYLOAD = new SerializedString("payload");
+    private static final SerializedString ACTOR = new SerializedString("actor");
+    private static final SerializedString CONTEXT_SCHEMA = new SerializedString("context_schema");
+    private static final SerializedString CONTEXT = new SerializedString("context");
+    private static final SerializedString SOURCE = new SerializedString("source");
+    private static final SerializedString TRIGGER = new SerializedString("trigger");
+    private static final SerializedString LOCATION = new SerializedString("location");
+    private static final SerializedString LOCATION_INFRA = new SerializedString("location_infra");
+    private static final SerializedString TIME = new SerializedString("time");
+    private static final SerializedString TYPE = new SerializedString("type");
+    private static final SerializedString SIGNAL_NAME = new SerializedString("signal_name");
+    private static final SerializedString DATA = new SerializedString("data");
+
+    private static final SerializedString IP_ADDRESSES = new SerializedString("ip_addresses");
+    private static final SerializedString USER_AGENT = new SerializedString("user_agent");
+    private static final SerializedString IDENTIFIERS = new SerializedString("identifiers");
+    private static final SerializedString TRAITS = new SerializedString("traits");
+
+    private static final SerializedString INFRA = new SerializedString("infra");
+    private static final SerializedString AGENT_TYPE = new SerializedString("agent_type");
+    private static final SerializedString AGENT_VERSION = new SerializedString("agent_version");
+    private static final SerializedString OS_TYPE = new SerializedString("os_type");
+    private static final SerializedString HOSTNAME = new SerializedString("hostname");
+    private static final SerializedString RUNTIME_TYPE = new SerializedString("runtime_type");
+    private static final SerializedString RUNTIME_VERSION = new SerializedString("runtime_version");
+    private static final SerializedString LIBSQREEN_VERSION = new SerializedString("libsqreen_version");
+
+    private static final SerializedString REQUEST = new SerializedString("request");
+    private static final SerializedString RESPONSE = new SerializedString("response");
+    private static final SerializedString DATADOG_TRACE_ID = new SerializedString("datadog_trace_id");
+    private static final SerializedString DATADOG_SPAN_ID = new SerializedString("datadog_span_id");
+    private static final SerializedString START_PROCESSING_TIME = new SerializedString("start_processing_time");
+    private static final SerializedString END_PROCESSING_TIME = new SerializedString("end_processing_time");
+    private static final SerializedString RID = new SerializedString("rid");
+    private static final SerializedString HEADERS = new SerializedString("headers");
+    private static final SerializedString SCHEME = new SerializedString("scheme");
+    private static final SerializedString VERB = new SerializedString("verb");
+    private static final SerializedString HOST = new SerializedString("host");
+    private static final SerializedString PORT = new SerializedString("port");
+    private static final SerializedString REMOTE_IP = new SerializedString("remote_ip");
+    private static final SerializedString REMOTE_PORT = new SerializedString("remote_port");
+    private static final SerializedString PATH = new SerializedString("path");
+    private static final SerializedString REFERER = new SerializedString("referer");
+    private static final SerializedString PARAMETERS = new SerializedString("parameters");
+    private static final SerializedString QUERY = new SerializedString("query");
+    private static final SerializedString FORM = new SerializedString("form");
+    private static final SerializedString COOKIES = new SerializedString("cookies");
+    private static final SerializedString JSON = new SerializedString("json");
+    private static final SerializedString OTHER = new SerializedString("other");
+    private static final SerializedString STATUS = new SerializedString("status");
+    private static final SerializedString CONTENT_LENGTH = new SerializedString("content_length");
+    private static final SerializedString CONTENT_TYPE = new SerializedString("content_type");
+    private static final SerializedString BLOCKED = new SerializedString("blocked");
+
+    static final class SignalSerializer extends JsonSerializer<Signal> {
+        static final SignalSerializer INSTANCE = new SignalSerializer();
+
+        @Override
+        public void serialize(Signal s, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            serialize(s, gen, provider, null);
+        }
+
+        /**
+         * @param inherited the values of the inherited fields in the enclosing
+         *                  trace, once compacted, or null if not compacted
+         */
+        private void serialize(Signal s, JsonGenerator gen, SerializerProvider provider,
+                               Object[] inherited) throws IOException {
+            // with compaction, the values this trace's signals may omit
+            Object[] compacted = null;
+            if (s instanceof Trace && (inherited != null
+                    || Boolean.TRUE.equals(provider.getAttribute(COMPACT_TRACES)))) {
+                compacted = compactedValues((Trace) s);
+            }
+            // the values to write, if not those of the fields
+            Object[] values = null;
+            if (inherited != null || compacted != null) {
+                values = compacted != null ? compacted.clone() : inheritedValues(s);
+                if (inherited != null) {
+                    // omits what is inherited anyway
+                    for (int i = 0; i < values.length; i++) {
+                        if (values[i] != null && values[i].equals(inherited[i])) {
+                            values[i] = null;
+                        }
+                    }
+                }
+            }
+
+            gen.writeStartObject(s);
+            writeString(gen, PAYLOAD_SCHEMA, s.payloadSchema);
+            writeValue(gen, provider, PAYLOAD, s.payload);
+            Actor actor = values != null ? (Actor) values[InheritedField.ACTOR.ordinal()] : s.actor;
+            if (actor != null && !writeConstant(gen, provider, ACTOR, actor)) {
+                gen.writeFieldName(ACTOR);
+                writeActor(gen, actor);
+            }
+            writeString(gen, CONTEXT_SCHEMA, values != null ?
+                    (String) values[InheritedField.CONTEXT_SCHEMA.ordinal()] : s.contextSchema);
+            HttpContext context = values != null ?
+                    (HttpContext) values[InheritedField.CONTEXT.ordinal()] : s.context;
+            if (context != null && !writeConstant(gen, provider, CONTEXT, context)) {
+                gen.writeFieldName(CONTEXT);
+                writeHttpContext(gen, provider, context);
+            }
+            writeString(gen, SOURCE, values != null ?
+                    (String) values[InheritedField.SOURCE.ordinal()] : s.source);
+            writeValue(gen, provider, TRIGGER, values != null ?
+                    values[InheritedField.TRIGGER.ordinal()] : s.trigger);
+            writeValue(gen, provider, LOCATION, values != null ?
+                    values[InheritedField.LOCATION.ordinal()] : s.location);
+            LocationInfra locationInfra = values != null ?
+                    (LocationInfra) values[InheritedField.LOCATION_INFRA.ordinal()] : s.locationInfra;
+            if (locationInfra != null && !writeConstant(gen, provider, LOCATION_INFRA, locationInfra)) {
+                gen.writeFieldName(LOCATION_INFRA);
+                writeLocationInfra(gen, provider, locationInfra);
+            }
+            gen.writeFieldName(TIME);
+            writeTimestamp(gen, provider, s.getTimeMillis());
+            Signal.SignalType type = s.getType();
+            if (type != null) {
+                gen.writeFieldName(TYPE);
+                gen.writeString(type.toString());
+            }
+            writeString(gen, SIGNAL_NAME, s.name);
+
+            if (s instanceof Trace) {
+                gen.writeFieldName(DATA);
+                gen.writeStartArray();
+                for (Signal nested : ((Trace) s).getSignals()) {
+                    if (nested == null) {
+                        gen.writeNull();
+                    } else if (isExactSignalClass(nested)) {
+                        serialize(nested, gen, provider, compacted);
+                    } else {
+                        provider.defaultSerializeValue(nested, gen);
+                    }
+                }
+                gen.writeEndArray();
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    private static boolean isExactSignalClass(Signal s) {
+        return s.getClass() == PointSignal.class
+                || s.getClass() == MetricSignal.class
+                || s.getClass() == Trace.class;
+    }
+
+    /**
+     * The fields whose value in a trace is inferred for its signals that
+     * don't specify it.
+     */
+    private enum InheritedField {
+        ACTOR {
+            @Override
+            Object get(Signal s) {
+                return s.actor;
+            }
+        },
+        CONTEXT_SCHEMA {
+            @Override
+            Object get(Signal s) {
+                return s.contextSchema;
+            }
+        },
+        CONTEXT {
+            @Override
+            Object get(Signal s) {
+                return s.context;
+            }
+        },
+        SOURCE {
+            @Override
+            Object get(Signal s) {
+                return s.source;
+            }
+        },
+        TRIGGER {
+            @Override
+            Object get(Signal s) {
+                return s.trigger;
+            }
+        },
+        LOCATION {
+            @Override
+            Object get(Signal s) {
+                return s.location;
+            }
+        },
+        LOCATION_INFRA {
+            @Override
+            Object get(Signal s) {
+                return s.locationInfra;
+            }
+        };
+
+        private static final InheritedField[] VALUES = values();
+
+        abstract Object get(Signal s);
+    }
+
+    private static Object[] inheritedValues(Signal s) {
+        Object[] values = new Object[InheritedField.VALUES.length];
+        for (InheritedField field : InheritedField.VALUES) {
+            values[field.ordinal()] = field.get(s);
+        }
+        return values;
+    }
+
+    /**
+     * The values of the inherited fields of a compacted trace: its own values
+     * and, for the fields it doesn't specify, the value that all its signals
+     * (at least two) have, if any, which they then omit. Equal values are
+     * found with <code>equals()</code>, so, for the classes that don't
+     * override it, only the very same instances are hoisted. Nested traces
+     * are compacted first.
+     *
+     * @return null if the trace can't be compacted, because it's empty or
+     * it contains <code>null</code>s or already serialized signals
+     */
+    private static Object[] compactedValues(Trace trace) {
+        Collection<Signal> signals = trace.getSignals();
+        if (signals.isEmpty()) {
+            return null;
+        }
+        // the value of each field in all the signals, if they have the same one
+        Object[] common = null;
+        for (Signal signal : signals) {
+            if (signal == null || signal instanceof SerializedSignal) {
+                return null;
+            }
+            Object[] values = null;
+            if (signal.getClass() == Trace.class) {
+                values = compactedValues((Trace) signal);
+            }
+            if (values == null) {
+                values = inheritedValues(signal);
+            }
+            if (common == null) {
+                common = values;
+                continue;
+            }
+            for (int i = 0; i < common.length; i++) {
+                if (common[i] != null && !common[i].equals(values[i])) {
+                    common[i] = null;
+                }
+            }
+        }
+
+        Object[] values = inheritedValues(trace);
+        if (signals.size() >= 2) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    values[i] = common[i];
+                }
+            }
+        }
+        return values;
+    }
+
+    static final class ActorSerializer extends JsonSerializer<Actor> {
+        static final ActorSerializer INSTANCE = new ActorSerializer();
+
+        @Override
+        public void serialize(Actor actor, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            writeActor(gen, actor);
+        }
+    }
+
+    static final class LocationInfraSerializer extends JsonSerializer<LocationInfra> {
+        static final LocationInfraSerializer INSTANCE = new LocationInfraSerializer();
+
+        @Override
+        public void serialize(LocationInfra locationInfra, JsonGenerator gen,
+                              SerializerProvider provider) throws IOException {
+            writeLocationInfra(gen, provider, locationInfra);
+        }
+    }
+
+    static final class HttpContextSerializer extends JsonSerializer<HttpContext> {
+        static final HttpContextSerializer INSTANCE = new HttpContextSerializer();
+
+        @Override
+        public void serialize(HttpContext context, JsonGenerator gen,
+                              SerializerProvider provider) throws IOException {
+            writeHttpContext(gen, provider, context);
+        }
+    }
+
+    /**
+     * Replaces Jackson's <code>DateSerializer</code> when the date format is
+     * <code>ISO8601DateFormat</code>, unless the property has its own format.
+     */
+    static final class IsoDateSerializer extends StdSerializer<Date> implements ContextualSerializer {
+        static final IsoDateSerializer INSTANCE = new IsoDateSerializer();
+
+        private IsoDateSerializer() {
+            super(Date.class);
+        }
+
+        @Override
+        public JsonSerializer<?> createContextual(SerializerProvider provider,
+                                                  BeanProperty property) throws JsonMappingException {
+            JsonFormat.Value format = findFormatOverrides(provider, property, Date.class);
+            if (format != null && !format.equals(JsonFormat.Value.empty())) {
+                return DateSerializer.instance.createContextual(provider, property);
+            }
+            return this;
+        }
+
+        @Override
+        public void serialize(Date date, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            writeTimestamp(gen, provider, date.getTime());
+        }
+    }
+
+    private static void writeTimestamp(JsonGenerator gen, SerializerProvider provider,
+                                       long millis) throws IOException {
+        if (IsoTimestamps.isSupported(millis)
+                && !provider.isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                && provider.getConfig().getDateFormat().getClass() == ISO8601DateFormat.class) {
+            IsoTimestamps.write(gen, millis);
+        } else {
+            provider.defaultSerializeDateValue(millis, gen);
+        }
+    }
+
+    private static void writeActor(JsonGenerator gen, Actor actor) throws IOException {
+        gen.writeStartObject(actor);
+        writeStringArray(gen, IP_ADDRESSES, actor.ipAddresses);
+        writeString(gen, USER_AGENT, actor.userAgent);
+        writeStringArray(gen, IDENTIFIERS, actor.identifiers);
+        writeStringArray(gen, TRAITS, actor.traits);
+        gen.writeEndObject();
+    }
+
+    private static void writeLocationInfra(JsonGenerator gen, SerializerProvider provider,
+                                           LocationInfra locationInfra) throws IOException {
+        gen.writeStartObject(locationInfra);
+        LocationInfra.Infra infra = locationInfra.infra;
+        if (infra != null && !writeConstant(gen, provider, INFRA, infra)) {
+            gen.writeFieldName(INFRA);
+            gen.writeStartObject(infra);
+            writeString(gen, AGENT_TYPE, infra.agentType);
+            writeString(gen, AGENT_VERSION, infra.agentVersion);
+            writeString(gen, OS_TYPE, infra.osType);
+            writeString(gen, HOSTNAME, infra.hostname);
+            writeString(gen, RUNTIME_TYPE, infra.runtimeType);
+            writeString(gen, RUNTIME_VERSION, infra.runtimeVersion);
+            writeString(gen, LIBSQREEN_VERSION, infra.libsqreenVersion);
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeHttpContext(JsonGenerator gen, SerializerProvider provider,
+                                         HttpContext context) throws IOException {
+        gen.writeStartObject(context);
+        Request request = context.request;
+        if (request != null) {
+            gen.writeFieldName(REQUEST);
+            gen.writeStartObject(request);
+            writeNumber(gen, START_PROCESSING_TIME, request.startProcessingTime);
+            writeNumber(gen, END_PROCESSING_TIME, request.endProcessingTime);
+            writeString(gen, RID, request.rid);
+            writeValue(gen, provider, HEADERS, request.headers);
+            writeString(gen, USER_AGENT, request.userAgent);
+            writeString(gen, SCHEME, request.scheme);
+            if (request.verb != null) {
+                gen.writeFieldName(VERB);
+                gen.writeString(request.verb.name());
+            }
+            writeString(gen, HOST, request.host);
+            writeNumber(gen, PORT, request.port);
+            writeString(gen, REMOTE_IP, request.remoteIp);
+            writeNumber(gen, REMOTE_PORT, request.remotePort);
+            writeString(gen, PATH, request.path);
+            writeString(gen, REFERER, request.referer);
+            Parameters parameters = request.parameters;
+            if (parameters != null) {
+                gen.writeFieldName(PARAMETERS);
+                gen.writeStartObject(parameters);
+                writeString(gen, QUERY, parameters.query);
+                writeString(gen, FORM, parameters.form);
+                writeString(gen, COOKIES, parameters.cookies);
+                writeString(gen, JSON, parameters.json);
+                writeString(gen, OTHER, parameters.other);
+                gen.writeEndObject();
+            }
+            gen.writeEndObject();
+        }
+        Response response = context.response;
+        if (response != null) {
+            gen.writeFieldName(RESPONSE);
+            gen.writeStartObject(response);
+            writeNumber(gen, STATUS, response.status);
+            writeNumber(gen, CONTENT_LENGTH, response.contentLength);
+            writeString(gen, CONTENT_TYPE, response.contentType);
+            if (response.blocked != null) {
+                gen.writeFieldName(BLOCKED);
+                gen.writeBoolean(response.blocked);
+            }
+            writeValue(gen, provider, HEADERS, response.headers);
+            gen.writeEndObject();
+        }
+        writeNumber(gen, DATADOG_TRACE_ID, context.datadogTraceId);
+        writeNumber(gen, DATADOG_SPAN_ID, context.datadogSpanId);
+        gen.writeEndObject();
+    }
+
+    private static void writeString(JsonGenerator gen, SerializedString name, String value) throws IOException {
+        if (value != null) {
+            gen.writeFieldName(name);
+            gen.writeString(value);
+        }
+    }
+
+    private static void writeNumber(JsonGenerator gen, SerializedString name, Long value) throws IOException {
+        if (value != null) {
+            gen.writeFieldName(name);
+            gen.writeNumber(value);
+        }
+    }
+
+    private static void writeNumber(JsonGenerator gen, SerializedString name, Integer value) throws IOException {
+        if (value != null) {
+            gen.writeFieldName(name);
+            gen.writeNumber(value);
+        }
+    }
+
+    private static void writeStringArray(JsonGenerator gen, SerializedString name, String[] values) throws IOException {
+        if (values != null) {
+            gen.writeFieldName(name);
+            gen.writeStartArray();
+            for (String v : values) {
+                if (v == null) {
+                    gen.writeNull();
+                } else {
+                    gen.writeString(v);
+                }
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    // maps and arbitrary objects are left to the serializers of the provider
+    private static void writeValue(JsonGenerator gen, SerializerProvider provider,
+                                   SerializedString name, Object value) throws IOException {
+        if (value != null && !writeConstant(gen, provider, name, value)) {
+            gen.writeFieldName(name);
+            provider.defaultSerializeValue(value, gen);
+        }
+    }
+
+    /**
+     * Writes the property from the JSON of the value cached for the
+     * serialization config, if the value was marked as constant.
+     * @return false if the value is not constant, or the generator is not
+     * configured like the one the JSON is cached from, or doesn't write JSON
+     */
+    private static boolean writeConstant(JsonGenerator gen, SerializerProvider provider,
+                                         SerializedString name, Object value) throws IOException {
+        if (CONSTANTS.isEmpty()) {
+            return false;
+        }
+        ConcurrentMap<SerializationConfig, SerializableString> cache = CONSTANTS.get(value);
+        if (cache == null || !(gen instanceof JsonGeneratorImpl)
+                || gen.getPrettyPrinter() != null || gen.getCharacterEscapes() != null
+                || (gen.getFeatureMask() & ~OUTPUT_NEUTRAL_FEATURES) != DEFAULT_GENERATOR_FEATURES) {
+            return false;
+        }
+        // weak keys are compared by identity; each ObjectWriter has its own config
+        SerializationConfig config = provider.getConfig();
+        SerializableString json = cache.get(config);
+        if (json == null) {
+            StringWriter sw = new StringWriter();
+            JsonGenerator constantGen = CONSTANT_JSON_FACTORY.createGenerator(sw);
+            provider.defaultSerializeValue(value, constantGen);
+            constantGen.close();
+            json = new SerializedString(sw.toString());
+            // racing threads serialize it the same way
+            cache.putIfAbsent(config, json);
+        }
+        gen.writeFieldName(name);
+        gen.writeRawValue(json);
+        return true;
+    }
+
+}
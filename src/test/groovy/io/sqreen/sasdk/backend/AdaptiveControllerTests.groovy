@@ -0,0 +1,77 @@
+package io.sqreen.sasdk.backend
+
+import org.junit.Test
+
+import java.util.concurrent.TimeUnit
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.*
+
+class AdaptiveControllerTests {
+
+    static final long RTT = TimeUnit.MILLISECONDS.toNanos(10)
+
+    AdaptiveController testee = new AdaptiveController(8, 20, 10, 100)
+
+    @Test
+    void 'starts at the maximum concurrency and the initial trigger size'() {
+        assertThat testee.concurrencyLimit(), is(8)
+        assertThat testee.triggerSize(), is(20)
+        assertThat new AdaptiveController(8, 500, 10, 100).triggerSize(), is(100)
+    }
+
+    @Test
+    void 'failures decrease concurrency multiplicatively'() {
+        testee.onFailure()
+        assertThat testee.concurrencyLimit(), is(4)
+        assertThat testee.triggerSize(), is(15)
+
+        5.times { testee.onFailure() }
+        assertThat testee.concurrencyLimit(), is(1)
+        assertThat testee.triggerSize(), is(10)
+    }
+
+    @Test
+    void 'concurrency grows additively while there is a backlog'() {
+        3.times { testee.onFailure() } // limit 1
+
+        20.times { testee.onSuccess(RTT, true) }
+
+        assertThat testee.concurrencyLimit(), allOf(greaterThan(1), lessThan(8))
+    }
+
+    @Test
+    void 'no growth without a backlog'() {
+        testee.onFailure()
+
+        20.times { testee.onSuccess(RTT, false) }
+
+        assertThat testee.concurrencyLimit(), is(4)
+    }
+
+    @Test
+    void 'trigger size grows once concurrency is at its maximum'() {
+        testee.onSuccess(RTT, true)
+
+        assertThat testee.triggerSize(), is(22)
+    }
+
+    @Test
+    void 'rising latency decreases concurrency'() {
+        20.times { testee.onSuccess(RTT, false) }
+
+        20.times { testee.onSuccess(RTT * 5, false) }
+
+        assertThat testee.concurrencyLimit(), lessThan(8)
+        assertThat testee.triggerSize(), is(20)
+    }
+
+    @Test
+    void 'rising latency with a backlog grows the trigger size'() {
+        20.times { testee.onSuccess(RTT, false) }
+
+        20.times { testee.onSuccess(RTT * 5, true) }
+
+        assertThat testee.triggerSize(), greaterThan(20)
+    }
+}
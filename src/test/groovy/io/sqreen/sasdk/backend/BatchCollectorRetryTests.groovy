@@ -0,0 +1,110 @@
+package io.sqreen.sasdk.backend
+
+import com.github.tomakehurst.wiremock.stubbing.Scenario
+import io.sqreen.agent.test.WireMockTrait
+import io.sqreen.sasdk.signals_dto.PointSignal
+import org.junit.After
+import org.junit.Test
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class BatchCollectorRetryTests implements WireMockTrait {
+
+    @Lazy
+    IngestionHttpClient.WithAuthentication client = new IngestionHttpClientBuilder()
+            .withAlternativeIngestionURL(String.format("http://localhost:%d/", wireMockRule.port()))
+            .buildingHttpClient()
+            .buildHttpClient()
+            .createWithAuthentication(
+                    IngestionHttpClientBuilder.authConfigWithAPIKey('api key'))
+
+    int maxAttempts = 3
+    int retryBudgetMinRetries = 10
+
+    @Lazy
+    BatchCollector testee = BatchCollector.builder(client)
+            .withTriggerSize(1)
+            .withMaxConcurrentRequests(1)
+            .withRetries(maxAttempts, 50, 200)
+            .withRetryBudget(0, retryBudgetMinRetries)
+            .build()
+
+    @After
+    void after() {
+        testee.close()
+        testee.awaitTermination(5000)
+    }
+
+    private void failTimes(int times, int status) {
+        String state = Scenario.STARTED
+        times.times { i ->
+            wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                    .inScenario('flaky')
+                    .whenScenarioStateIs(state)
+                    .willReturn(aResponse().withStatus(status))
+                    .willSetStateTo("failed ${i + 1}".toString()))
+            state = "failed ${i + 1}".toString()
+        }
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .inScenario('flaky')
+                .whenScenarioStateIs(state)
+                .willReturn(aResponse().withStatus(202)))
+    }
+
+    @Test
+    void 'transient failures are retried'() {
+        failTimes(2, 503)
+
+        testee.add(new PointSignal(name: 'a'))
+
+        waitFor { wireMockRule.findAll(postRequestedFor(urlEqualTo('/batches'))).size() == 3 }
+        assertThat testee.retriedCount, is(2L)
+    }
+
+    @Test
+    void 'attempts are capped'() {
+        failTimes(5, 503)
+
+        testee.add(new PointSignal(name: 'a'))
+
+        waitFor { testee.retriedCount == 2L && testee.activeBatches.get() == 0 }
+        Thread.sleep(300)
+        wireMockRule.verify(3, postRequestedFor(urlEqualTo('/batches')))
+    }
+
+    @Test
+    void 'authentication failures are not retried'() {
+        failTimes(1, 401)
+
+        testee.add(new PointSignal(name: 'a'))
+
+        waitFor { wireMockRule.findAll(postRequestedFor(urlEqualTo('/batches'))).size() == 1 }
+        Thread.sleep(300)
+        wireMockRule.verify(1, postRequestedFor(urlEqualTo('/batches')))
+        assertThat testee.retriedCount, is(0L)
+    }
+
+    @Test
+    void 'retries are limited by the budget'() {
+        retryBudgetMinRetries = 1
+        failTimes(5, 503)
+
+        testee.add(new PointSignal(name: 'a'))
+
+        waitFor { testee.retriedCount == 1L && testee.activeBatches.get() == 0 }
+        Thread.sleep(300)
+        wireMockRule.verify(2, postRequestedFor(urlEqualTo('/batches')))
+    }
+
+    private static void waitFor(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 5000
+        while (!condition()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError('condition not met in time')
+            }
+            Thread.sleep(20)
+        }
+    }
+}
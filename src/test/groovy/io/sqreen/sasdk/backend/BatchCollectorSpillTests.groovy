@@ -0,0 +1,142 @@
+package io.sqreen.sasdk.backend
+
+import io.sqreen.agent.test.WireMockTrait
+import io.sqreen.sasdk.signals_dto.PointSignal
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.util.concurrent.TimeUnit
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.everyItem
+import static org.hamcrest.Matchers.is
+import static org.hamcrest.Matchers.lessThan
+
+class BatchCollectorSpillTests implements WireMockTrait {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    @Lazy
+    File directory = folder.newFolder('spill')
+
+    @Lazy
+    IngestionHttpClient.WithAuthentication client = new IngestionHttpClientBuilder()
+            .withAlternativeIngestionURL(String.format("http://localhost:%d/", wireMockRule.port()))
+            .buildingHttpClient()
+            .buildHttpClient()
+            .createWithAuthentication(
+                    IngestionHttpClientBuilder.authConfigWithAPIKey('api key'))
+
+    List<BatchCollector> collectors = []
+
+    @After
+    void after() {
+        collectors.each {
+            it.close()
+            it.awaitTermination(5000)
+        }
+    }
+
+    private BatchCollector newCollector(
+            Closure<BatchCollector.BatchCollectorBuilder> configure = { it }) {
+        def collector = configure(BatchCollector.builder(client)
+                .withTriggerSize(2)
+                .withMaxDelayInMs(100)
+                .withMaxConcurrentRequests(1)
+                .withDiskSpill(directory, 1024 * 1024))
+                .build()
+        collectors << collector
+        collector
+    }
+
+    @Test
+    void 'failed batches are spilled and replayed once the backend is back'() {
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .willReturn(aResponse().withStatus(503)))
+        def testee = newCollector()
+
+        testee.add(new PointSignal(name: 'a'))
+        testee.add(new PointSignal(name: 'b'))
+        waitFor { directory.list().length == 1 }
+        waitFor { testee.activeBatches.get() == 0 }
+
+        wireMockRule.resetRequests()
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .willReturn(aResponse().withStatus(202)))
+
+        waitFor { directory.list().length == 0 }
+        wireMockRule.verify(1, postRequestedFor(urlEqualTo('/batches'))
+                .withRequestBody(containing('"signal_name":"a"')))
+    }
+
+    @Test
+    void 'batches spilled by a previous collector are replayed'() {
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .willReturn(aResponse().withStatus(503)))
+        def first = newCollector()
+        first.add(new PointSignal(name: 'a'))
+        first.add(new PointSignal(name: 'b'))
+        waitFor { directory.list().length == 1 }
+        first.close()
+        first.awaitTermination(5000)
+
+        wireMockRule.resetRequests()
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .willReturn(aResponse().withStatus(202)))
+        newCollector()
+
+        waitFor { directory.list().length == 0 }
+        wireMockRule.verify(1, postRequestedFor(urlEqualTo('/batches'))
+                .withRequestBody(containing('"signal_name":"b"')))
+    }
+
+    @Test
+    void 'replayed batches are split by their serialized size'() {
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .willReturn(aResponse().withStatus(503)))
+        def first = newCollector()
+        first.add(new PointSignal(name: 'a', payload: [data: 'x' * 600]))
+        first.add(new PointSignal(name: 'b', payload: [data: 'y' * 600]))
+        waitFor { directory.list().length == 1 }
+        first.close()
+        first.awaitTermination(5000)
+
+        wireMockRule.resetRequests()
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .willReturn(aResponse().withStatus(202)))
+        newCollector { it.withMaxRequestSizeInBytes(1000) }
+
+        waitFor { directory.list().length == 0 }
+        def requests = wireMockRule.findAll(postRequestedFor(urlEqualTo('/batches')))
+        assertThat requests.size(), is(2)
+        assertThat requests*.body*.length, everyItem(lessThan(1000))
+    }
+
+    @Test
+    void 'batches rejected as invalid are not spilled'() {
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .willReturn(aResponse().withStatus(422)))
+        def testee = newCollector()
+
+        testee.add(new PointSignal(name: 'a'))
+        testee.add(new PointSignal(name: 'b'))
+        waitFor { wireMockRule.findAll(postRequestedFor(urlEqualTo('/batches'))).size() == 1 }
+        waitFor { testee.activeBatches.get() == 0 }
+
+        assertThat directory.list().length, is(0)
+    }
+
+    private static void waitFor(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 5000
+        while (!condition()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError('condition not met in time')
+            }
+            Thread.sleep(20)
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package io.sqreen.sasdk.backend
+
+import com.github.tomakehurst.wiremock.stubbing.Scenario
+import groovy.json.JsonSlurper
+import io.sqreen.agent.test.WireMockTrait
+import io.sqreen.sasdk.backend.exception.InvalidPayloadException
+import io.sqreen.sasdk.signals_dto.PointSignal
+import io.sqreen.sasdk.signals_dto.Signal
+import org.junit.After
+import org.junit.Test
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class BatchCollectorSplitTests implements WireMockTrait {
+
+    @Lazy
+    IngestionHttpClient.WithAuthentication client = new IngestionHttpClientBuilder()
+            .withAlternativeIngestionURL(String.format("http://localhost:%d/", wireMockRule.port()))
+            .buildingHttpClient()
+            .buildHttpClient()
+            .createWithAuthentication(
+                    IngestionHttpClientBuilder.authConfigWithAPIKey('api key'))
+
+    int triggerSize = 100
+    long maxRequestSizeInBytes = 10 * 1024 * 1024
+    int maxIsolationRequests
+
+    List<List<String>> quarantined = []
+    QuarantineListener listener = { List<Signal> rejected, InvalidPayloadException e ->
+        quarantined << rejected*.name
+    } as QuarantineListener
+
+    @Lazy
+    BatchCollector testee = BatchCollector.builder(client)
+            .withTriggerSize(triggerSize)
+            .withMaxConcurrentRequests(1)
+            .withMaxRequestSizeInBytes(maxRequestSizeInBytes)
+            .withRetries(2, 10, 10)
+            .with { owner.maxIsolationRequests ? withPoisonIsolation(owner.maxIsolationRequests, owner.listener) : it }
+            .build()
+
+    @After
+    void after() {
+        testee.close()
+        testee.awaitTermination(5000)
+    }
+
+    private static PointSignal signal(String name) {
+        new PointSignal(name: name, payload: [data: 'x' * 1000])
+    }
+
+    private List<List<String>> sentNames() {
+        wireMockRule.findAll(postRequestedFor(urlEqualTo('/batches'))).collect {
+            new JsonSlurper().parseText(it.bodyAsString)*.signal_name
+        }
+    }
+
+    @Test
+    void 'requests are packed greedily up to the max size'() {
+        List<Signal> batch = ['a', 'b', 'c', 'd', 'e'].collect { signal(it) }
+        long size = SignalSizeEstimator.estimate(batch[0]) + 1
+
+        def requests = BatchCollector.packRequests(batch, size * 2 + 2)
+
+        assertThat requests*.size(), is([2, 2, 1])
+        assertThat requests.flatten(), is(batch)
+        // an object larger than the max is sent alone
+        assertThat BatchCollector.packRequests(batch, 10)*.size(), is([1, 1, 1, 1, 1])
+    }
+
+    @Test
+    void 'large batches are sent in several requests'() {
+        maxRequestSizeInBytes = (SignalSizeEstimator.estimate(signal('a')) + 1) * 2 + 2
+        stubFor(post('/batches').willReturn(aResponse().withStatus(202)))
+
+        ['a', 'b', 'c'].each { testee.add(signal(it)) }
+        testee.forceReport()
+
+        assertThat sentNames(), is([['a', 'b'], ['c']])
+    }
+
+    @Test
+    void 'requests rejected as too large are split in two'() {
+        stubFor(post('/batches').willReturn(aResponse().withStatus(202)))
+        // more than one object is too large
+        stubFor(post('/batches').atPriority(1)
+                .withRequestBody(matchingJsonPath('$[1]'))
+                .willReturn(aResponse().withStatus(413)))
+
+        ['a', 'b', 'c'].each { testee.add(signal(it)) }
+        testee.forceReport()
+
+        assertThat sentNames(), is([['a', 'b', 'c'], ['a'], ['b', 'c'], ['b'], ['c']])
+    }
+
+    @Test
+    void 'single objects rejected as too large are dropped'() {
+        stubFor(post('/batches').willReturn(aResponse().withStatus(413)))
+
+        ['a', 'b'].each { testee.add(signal(it)) }
+        testee.forceReport()
+
+        assertThat sentNames(), is([['a', 'b'], ['a'], ['b']])
+        assertThat testee.droppedCount, is(2L)
+        assertThat testee.droppedBytes, is(SignalSizeEstimator.estimate(signal('a')) * 2)
+    }
+
+    @Test
+    void 'splitting of requests too large is capped'() {
+        maxIsolationRequests = 2
+        stubFor(post('/batches').willReturn(aResponse().withStatus(413)))
+
+        ['a', 'b', 'c', 'd'].each { testee.add(signal(it)) }
+        testee.forceReport()
+
+        assertThat sentNames(), is([['a', 'b', 'c', 'd'], ['a', 'b'], ['c', 'd']])
+        assertThat testee.droppedCount, is(4L)
+        assertThat quarantined, is([])
+    }
+
+    @Test
+    void 'only the objects not sent are retried'() {
+        triggerSize = 3
+        maxRequestSizeInBytes = 100
+        stubFor(post('/batches').inScenario('flaky')
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(202))
+                .willSetStateTo('failing'))
+        stubFor(post('/batches').inScenario('flaky')
+                .whenScenarioStateIs('failing')
+                .willReturn(aResponse().withStatus(503))
+                .willSetStateTo('recovered'))
+        stubFor(post('/batches').inScenario('flaky')
+                .whenScenarioStateIs('recovered')
+                .willReturn(aResponse().withStatus(202)))
+
+        // the third one triggers the batch
+        ['a', 'b', 'c'].each { testee.add(signal(it)) }
+
+        waitFor { sentNames().size() == 4 && testee.activeBatches.get() == 0 }
+        assertThat sentNames(), is([['a'], ['b'], ['b'], ['c']])
+        assertThat testee.retriedCount, is(1L)
+    }
+
+    private void rejectAsInvalid(String name) {
+        stubFor(post('/batches').willReturn(aResponse().withStatus(202)))
+        stubFor(post('/batches').atPriority(1)
+                .withRequestBody(containing("\"signal_name\":\"${name}\""))
+                .willReturn(aResponse().withStatus(422)))
+    }
+
+    @Test
+    void 'invalid objects are isolated and quarantined'() {
+        maxIsolationRequests = 10
+        rejectAsInvalid('bad')
+
+        ['a', 'bad', 'c', 'd'].each { testee.add(signal(it)) }
+        testee.forceReport()
+
+        assertThat sentNames(), is([['a', 'bad', 'c', 'd'], ['a', 'bad'], ['a'], ['bad'], ['c', 'd']])
+        assertThat quarantined, is([['bad']])
+        assertThat testee.quarantinedCount, is(1L)
+    }
+
+    @Test
+    void 'isolation requests are capped'() {
+        maxIsolationRequests = 2
+        rejectAsInvalid('bad')
+
+        ['a', 'bad', 'c', 'd'].each { testee.add(signal(it)) }
+        testee.forceReport()
+
+        assertThat sentNames(), is([['a', 'bad', 'c', 'd'], ['a', 'bad'], ['c', 'd']])
+        assertThat quarantined, is([['a', 'bad']])
+        assertThat testee.quarantinedCount, is(2L)
+    }
+
+    private static void waitFor(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 5000
+        while (!condition()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError('condition not met in time')
+            }
+            Thread.sleep(20)
+        }
+    }
+}
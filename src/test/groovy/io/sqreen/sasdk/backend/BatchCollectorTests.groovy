@@ -2,14 +2,21 @@ package io.sqreen.sasdk.backend
 
 import io.sqreen.sasdk.signals_dto.PointSignal
 import io.sqreen.sasdk.signals_dto.Signal
+import io.sqreen.sasdk.signals_dto.Trace
 import org.gmock.WithGMock
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
 
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
+import static groovy.test.GroovyAssert.shouldFail
 import static org.hamcrest.MatcherAssert.assertThat
 import static org.hamcrest.Matchers.*
 
@@ -20,6 +27,11 @@ class BatchCollectorTests {
     int maxConcurrentRequests = 2
     int maxQueueSize = 10
     long maxDelayInMs = 500
+    ExecutorService executor
+    BatchCollector.QueueType queueType = BatchCollector.QueueType.LINKED
+    long maxQueueSizeInBytes
+    BatchCollector.AdmissionPolicy admissionPolicy = BatchCollector.AdmissionPolicy.DROP_NEWEST
+    List<Integer> adaptiveTriggerBounds
 
     @Lazy
     BatchCollector testee = BatchCollector.builder(client)
@@ -28,6 +40,11 @@ class BatchCollectorTests {
             .with { maxConcurrentRequests = owner.maxConcurrentRequests; it }
             .withMaxQueueSize(maxQueueSize)
             .withMaxDelayInMs(maxDelayInMs)
+            .with { owner.executor ? withExecutor(owner.executor) : it }
+            .withQueueType(queueType)
+            .with { owner.maxQueueSizeInBytes ? withMaxQueueSizeInBytes(owner.maxQueueSizeInBytes) : it }
+            .withAdmissionPolicy(admissionPolicy)
+            .with { owner.adaptiveTriggerBounds ? withAdaptiveControl(*owner.adaptiveTriggerBounds) : it }
             .build()
 
     def requestsExpected = 1
@@ -91,6 +108,39 @@ class BatchCollectorTests {
         }
     }
 
+    @Test
+    void 'submits the batch when trigger size is reached with a ring buffer queue'() {
+        queueType = BatchCollector.QueueType.RING_BUFFER
+
+        mockClient.reportBatch(hasSize(3))
+
+        play {
+            4.times {
+                testee.add new PointSignal(name: '${it + 1}')
+            }
+            await()
+        }
+    }
+
+    @Test
+    void 'with adaptive control batches are bounded by the trigger size'() {
+        adaptiveTriggerBounds = [3, 3]
+        maxConcurrentRequests = 1
+        maxDelayInMs = 5000
+        requestsExpected = 2
+
+        mockClient.reportBatch(hasSize(3)).times(2)
+
+        play {
+            7.times {
+                testee.add new PointSignal(name: '${it + 1}')
+            }
+            await()
+        }
+        assertThat testee.currentTriggerSize, is(3)
+        assertThat testee.currentConcurrencyLimit, is(1)
+    }
+
     @Test
     void 'force report forces a report and reschedules next flush'() {
         maxDelayInMs = 500
@@ -119,6 +169,19 @@ class BatchCollectorTests {
         }
     }
 
+    @Test
+    void 'submits the staged objects when the delay has run with a striped queue'() {
+        queueType = BatchCollector.QueueType.STRIPED
+        maxDelayInMs = 100
+
+        mockClient.reportBatch(hasSize(2))
+
+        play {
+            2.times { testee.add new PointSignal(name: '${it + 1}') }
+            await 150 // 100 ms plus some margin
+        }
+    }
+
     @Test
     void 'triggering batch resets the delay'() {
         maxDelayInMs = 500
@@ -135,6 +198,13 @@ class BatchCollectorTests {
         assertThat testee.delayTillNextFlush, is(greaterThan(400L))
     }
 
+    @Test
+    void 'flush ticks are a tenth of the delay within bounds'() {
+        assertThat BatchCollector.tickIntervalInMs(500), is(50L)
+        assertThat BatchCollector.tickIntervalInMs(5), is(1L)
+        assertThat BatchCollector.tickIntervalInMs(60000), is(1000L)
+    }
+
     @Test
     void 'delay is reset even if there is no submission because of no entries'() {
         maxDelayInMs = 100
@@ -207,6 +277,234 @@ class BatchCollectorTests {
         }
     }
 
+    @Test
+    void 'batches are sent in parallel up to maxConcurrentRequests'() {
+        def bothInFlight = new CountDownLatch(2)
+        requestsExpected = 2
+        client = [
+                reportBatch: { Collection<Signal> signalsAndTraces ->
+                    try {
+                        bothInFlight.countDown()
+                        if (!bothInFlight.await(5, TimeUnit.SECONDS)) {
+                            throw new AssertionError('requests were not run in parallel')
+                        }
+                        mockClient.reportBatch(signalsAndTraces)
+                    } catch (Throwable e) {
+                        reportedException = e
+                    } finally {
+                        latch.countDown()
+                    }
+                }
+        ] as IngestionHttpClient.WithAuthentication
+
+        mockClient.reportBatch(hasSize(3)).times(2)
+
+        play {
+            6.times { testee.add new PointSignal(name: '${it + 1}') }
+            await()
+        }
+    }
+
+    @Test
+    void 'requests are run on the given executor, which is not shut down'() {
+        executor = Executors.newFixedThreadPool(2)
+        String threadName
+        client = [
+                reportBatch: { Collection<Signal> signalsAndTraces ->
+                    threadName = Thread.currentThread().name
+                    latch.countDown()
+                }
+        ] as IngestionHttpClient.WithAuthentication
+
+        try {
+            3.times { testee.add new PointSignal(name: '${it + 1}') }
+            await()
+
+            assertThat threadName, startsWith('pool-')
+            testee.close()
+            assertThat testee.awaitTermination(500), is(true)
+            assertThat executor.shutdown, is(false)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test
+    void 'the timed flush keeps running after a run throws'() {
+        maxDelayInMs = 50
+        def submissions = new AtomicInteger()
+        executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            void execute(Runnable command) {
+                if (submissions.getAndIncrement() == 0) {
+                    throw new IllegalStateException('failing submission')
+                }
+                super.execute(command)
+            }
+        }
+
+        mockClient.reportBatch(hasSize(1))
+
+        try {
+            play {
+                testee.add new PointSignal(name: '1') // lost with the failing run
+                long deadline = System.currentTimeMillis() + 5000
+                while (submissions.get() == 0 && System.currentTimeMillis() < deadline) {
+                    sleep 10
+                }
+                testee.add new PointSignal(name: '2')
+                await()
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test
+    void 'maxQueueSizeInBytes is honored and drops are counted'() {
+        maxConcurrentRequests = 0 // nothing is ever sent
+        triggerSize = 100
+        maxQueueSize = 100
+        def bigSignal = new PointSignal(name: 'big', payload: [data: 'x' * 1000])
+        long bigSize = SignalSizeEstimator.estimate(bigSignal)
+        maxQueueSizeInBytes = bigSize * 2 + 100
+
+        assertThat testee.add(bigSignal), is(true)
+        assertThat testee.add(bigSignal), is(true)
+        assertThat testee.add(bigSignal), is(false)
+        // small objects still fit
+        assertThat testee.add(new PointSignal(name: 'small')), is(true)
+
+        assertThat testee.droppedCount, is(1L)
+        assertThat testee.droppedBytes, is(bigSize)
+        assertThat testee.queuedBytes, is(greaterThan(bigSize * 2))
+
+        testee.discard()
+        assertThat testee.queuedBytes, is(0L)
+    }
+
+    @Test
+    void 'the bytes reserved for an object are the bytes released'() {
+        maxConcurrentRequests = 0 // nothing is ever sent
+        triggerSize = 100
+        maxQueueSize = 100
+        maxQueueSizeInBytes = 100000
+        def trace = new Trace()
+
+        assertThat testee.add(trace), is(true)
+        long reserved = testee.queuedBytes
+        // the trace is filled after it was queued
+        5.times { trace.addSignal(new PointSignal(name: 'child', payload: [data: 'x' * 100])) }
+
+        assertThat testee.queuedBytes, is(reserved)
+        testee.discard()
+        assertThat testee.queuedBytes, is(0L)
+    }
+
+    @Test
+    void 'drop oldest policy makes room by dropping the oldest objects'() {
+        maxConcurrentRequests = 0 // nothing is sent until forceReport()
+        triggerSize = 10
+        maxQueueSize = 3
+        admissionPolicy = BatchCollector.AdmissionPolicy.DROP_OLDEST
+        def signals = (1..5).collect { new PointSignal(name: "$it") }
+
+        mockClient.reportBatch(contains(signals[2], signals[3], signals[4]))
+
+        play {
+            signals.each {
+                assertThat testee.add(it), is(true)
+            }
+            testee.forceReport()
+        }
+
+        assertThat testee.droppedCount, is(2L)
+    }
+
+    @Test
+    void 'block policy makes producers wait until there is room'() {
+        maxConcurrentRequests = 1
+        triggerSize = 2
+        maxQueueSize = 2
+        admissionPolicy = BatchCollector.AdmissionPolicy.BLOCK
+        def waitBarrier = new CountDownLatch(1)
+        def sent = new AtomicInteger()
+        client = [
+                reportBatch: { Collection<Signal> signalsAndTraces ->
+                    waitBarrier.await(5, TimeUnit.SECONDS)
+                    sent.addAndGet(signalsAndTraces.size())
+                }
+        ] as IngestionHttpClient.WithAuthentication
+
+        def producer = Thread.start {
+            10.times { testee.add new PointSignal(name: "${it + 1}") }
+        }
+        producer.join(200)
+        // first batch is blocked, the queue is full
+        assertThat producer.alive, is(true)
+
+        waitBarrier.countDown()
+        producer.join(5000)
+        assertThat producer.alive, is(false)
+
+        testee.forceReport()
+        for (int i = 0; i < 100 && sent.get() < 10; i++) {
+            sleep 50 // batches still in flight
+        }
+        assertThat sent.get(), is(10)
+        assertThat testee.droppedCount, is(0L)
+    }
+
+    @Test
+    void 'timed add gives up when no room becomes available'() {
+        maxConcurrentRequests = 0
+        maxQueueSize = 1
+
+        assertThat testee.add(new PointSignal(name: '1')), is(true)
+
+        long start = System.nanoTime()
+        assertThat testee.add(new PointSignal(name: '2'), 100, TimeUnit.MILLISECONDS), is(false)
+
+        assertThat System.nanoTime() - start, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100)))
+        assertThat testee.droppedCount, is(1L)
+    }
+
+    @Test
+    void 'close wakes up the blocked producers'() {
+        maxConcurrentRequests = 0
+        maxQueueSize = 1
+        admissionPolicy = BatchCollector.AdmissionPolicy.BLOCK
+        Boolean result
+
+        testee.add(new PointSignal(name: '1'))
+        def producer = Thread.start {
+            result = testee.add(new PointSignal(name: '2'))
+        }
+        producer.join(100)
+        assertThat producer.alive, is(true)
+
+        testee.close()
+        producer.join(5000)
+
+        assertThat producer.alive, is(false)
+        assertThat result, is(false)
+    }
+
+    @Test
+    void 'ring buffer queue rejects sizes it cannot preallocate'() {
+        def builder = BatchCollector.builder(client)
+                .withQueueType(BatchCollector.QueueType.RING_BUFFER)
+                // the default maxQueueSize is ten times the trigger size
+                .withTriggerSize(Integer.MAX_VALUE.intdiv(10) + 1)
+
+        def e = shouldFail(IllegalStateException) {
+            builder.build()
+        }
+
+        assertThat e.message, containsString('too large for a RING_BUFFER queue')
+    }
+
     @Test(expected = IllegalStateException)
     void 'throws if already closed'() {
         testee.close()
@@ -0,0 +1,112 @@
+package io.sqreen.sasdk.backend
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
+import com.fasterxml.jackson.dataformat.smile.SmileFactory
+import io.sqreen.agent.test.SignalRelay
+import io.sqreen.agent.test.WireMockTrait
+import io.sqreen.sasdk.signals_dto.Actor
+import io.sqreen.sasdk.signals_dto.PointSignal
+import io.sqreen.sasdk.signals_dto.Trace
+import org.junit.After
+import org.junit.Test
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static groovy.test.GroovyAssert.shouldFail
+import static io.sqreen.agent.test.JsonMatcher.matchesJson
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class BinaryDataFormatTests implements WireMockTrait {
+
+    @Lazy
+    SignalRelay relay = new SignalRelay("http://localhost:${wireMockRule.port()}/")
+
+    List<IngestionHttpClient.WithAuthentication> clients = []
+
+    @After
+    void after() {
+        clients*.close()
+        relay.close()
+    }
+
+    private IngestionHttpClient.WithAuthentication client(JsonFactory factory, String contentType) {
+        def client = new IngestionHttpClientBuilder()
+                .withAlternativeIngestionURL(relay.url)
+                .buildingHttpClient()
+                .buildHttpClient()
+                .withDataFormat(factory, contentType)
+                .withCompression(1, 0)
+                .createWithAuthentication(IngestionHttpClientBuilder.authConfigWithAPIKey('api key'))
+        clients << client
+        client
+    }
+
+    private static Trace createTrace() {
+        def actor = new Actor(userAgent: 'curl')
+        def trace = new Trace(actor: actor, time: new Date(0))
+        trace.addSignal(new PointSignal(name: 'sq.agent.attack', payload: [a: 1, b: [true, null]],
+                actor: actor, time: new Date(1000)))
+        trace
+    }
+
+    private static final String EXPECTED_TRACE = '''{
+        "actor": {"user_agent": "curl"},
+        "time": "1970-01-01T00:00:00Z",
+        "type": "trace",
+        "data": [{
+            "payload": {"a": 1, "b": [true, null]},
+            "actor": {"user_agent": "curl"},
+            "time": "1970-01-01T00:00:01Z",
+            "type": "point",
+            "signal_name": "sq.agent.attack"
+        }]
+    }'''
+
+    @Test
+    void 'smile traces are relayed as json'() {
+        stubFor(post('/traces').willReturn(aResponse().withStatus(202)))
+
+        client(new SmileFactory(), IngestionHttpClientBuilder.SMILE_CONTENT_TYPE).reportTrace(createTrace())
+
+        def request = wireMockRule.findAll(postRequestedFor(urlEqualTo('/traces')))[0]
+        assertThat request.getHeader('Content-Type'), is('application/json')
+        assertThat request.getHeader('X-Api-Key'), is('api key')
+        assertThat request.bodyAsString, matchesJson(EXPECTED_TRACE)
+    }
+
+    @Test
+    void 'cbor batches are relayed as json'() {
+        stubFor(post('/batch').willReturn(aResponse().withStatus(202)))
+
+        client(new CBORFactory(), IngestionHttpClientBuilder.CBOR_CONTENT_TYPE).reportBatch([createTrace()])
+
+        def request = wireMockRule.findAll(postRequestedFor(urlEqualTo('/batch')))[0]
+        assertThat request.bodyAsString, matchesJson("[${EXPECTED_TRACE}]")
+    }
+
+    @Test
+    void 'the binary body is smaller than the json one'() {
+        def trace = createTrace()
+        def json = IngestionHttpClientBuilder.createDefaultObjectWriter().writeValueAsBytes(trace)
+        def smile = IngestionHttpClientBuilder.createDefaultObjectWriter(new SmileFactory()).writeValueAsBytes(trace)
+
+        assert smile.length < json.length
+        assertThat new ObjectMapper(new SmileFactory()).readTree(smile), is(new ObjectMapper().readTree(json))
+    }
+
+    @Test
+    void 'custom object writer of another format'() {
+        def e = shouldFail(IllegalStateException) {
+            new IngestionHttpClientBuilder()
+                    .buildingHttpClient()
+                    .buildHttpClient()
+                    .withDataFormat(new SmileFactory(), IngestionHttpClientBuilder.SMILE_CONTENT_TYPE)
+                    .withCustomObjectWriter(new ObjectMapper().writer())
+                    .createWithoutAuthentication()
+        }
+
+        assertThat e.message, is('The custom object writer produces JSON, not Smile')
+    }
+}
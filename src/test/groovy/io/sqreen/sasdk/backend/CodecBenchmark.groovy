@@ -0,0 +1,91 @@
+package io.sqreen.sasdk.backend
+
+import com.fasterxml.jackson.databind.ObjectWriter
+import io.sqreen.sasdk.signals_dto.Actor
+import io.sqreen.sasdk.signals_dto.LocationInfra
+import io.sqreen.sasdk.signals_dto.PointSignal
+import io.sqreen.sasdk.signals_dto.Trace
+import io.sqreen.sasdk.signals_dto.context.http.HttpContext
+import io.sqreen.sasdk.signals_dto.context.http.HttpMethod
+import io.sqreen.sasdk.signals_dto.context.http.Request
+import io.sqreen.sasdk.signals_dto.context.http.Response
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Compares the CPU time spent encoding request bodies with the bytes saved,
+ * for each built-in codec, on batches of realistic traces.
+ *
+ * Run with <code>gradle codecBenchmark</code>.
+ */
+class CodecBenchmark {
+
+    static final int WARMUP_ROUNDS = 200
+    static final int ROUNDS = 1000
+
+    static Trace createTrace(int i) {
+        def infra = new LocationInfra(infra: new LocationInfra.Infra(
+                agentType: 'java', agentVersion: '2.3.0', osType: 'x64-Linux',
+                hostname: 'web-01', runtimeType: 'java', runtimeVersion: '1.8.0_252'))
+        def trace = new Trace(
+                name: 'sq.agent.http.request',
+                time: new Date(1577836800000L + i),
+                actor: new Actor(ipAddresses: ["10.0.${i % 256}.1"] as String[],
+                        userAgent: 'Mozilla/5.0 (X11; Linux x86_64; rv:72.0) Gecko/20100101 Firefox/72.0'),
+                contextSchema: 'http/2020-01-01T00:00:00.000Z',
+                context: new HttpContext(
+                        request: new Request(
+                                rid: UUID.randomUUID().toString(),
+                                verb: HttpMethod.POST, host: 'example.com', port: 443,
+                                scheme: 'https', remoteIp: "10.0.${i % 256}.1", remotePort: 40000 + i % 1000,
+                                path: "/api/users/${i % 50}",
+                                headers: ['content-type': 'application/json', accept: '*/*']),
+                        response: new Response(status: 200, contentLength: 1024 + i % 100,
+                                contentType: 'application/json')),
+                locationInfra: infra)
+        5.times { j ->
+            trace.addSignal(new PointSignal(
+                    name: "sq.agent.metric.${j}",
+                    source: 'sqreen:sdk:java',
+                    payloadSchema: 'point/2020-01-01T00:00:00.000Z',
+                    time: new Date(1577836800000L + i),
+                    payload: [duration: i % 17, count: j]))
+        }
+        trace
+    }
+
+    static void main(String[] args) {
+        ObjectWriter writer = IngestionHttpClientBuilder.createDefaultObjectWriter()
+        def sizes = [1, 10, 100]
+        def codecs = [1, 6, 9].collect { ContentCodecs.gzip(it) } +
+                [1, 6, 9].collect {
+                    ContentCodecs.deflateWithDictionary(it, ContentCodecs.SIGNAL_DICTIONARY, 'deflate')
+                }
+        def bean = ManagementFactory.threadMXBean
+
+        println String.format('%-35s %6s %10s %10s %8s %12s',
+                'codec', 'traces', 'raw', 'encoded', 'ratio', 'cpu us/req')
+        for (int size : sizes) {
+            byte[] raw = writer.writeValueAsBytes((0..<size).collect { createTrace(it) })
+            for (ContentCodec codec : codecs) {
+                int encodedSize = 0
+                WARMUP_ROUNDS.times { encodedSize = encode(codec, raw) }
+                long start = bean.currentThreadCpuTime
+                ROUNDS.times { encode(codec, raw) }
+                long cpu = bean.currentThreadCpuTime - start
+
+                println String.format('%-35s %6d %10d %10d %8.2f %12.1f',
+                        codec, size, raw.length, encodedSize,
+                        raw.length / (double) encodedSize, cpu / 1000d / ROUNDS)
+            }
+        }
+    }
+
+    private static int encode(ContentCodec codec, byte[] raw) {
+        def out = new ByteArrayOutputStream(raw.length)
+        def enc = codec.encode(out)
+        enc.write(raw)
+        enc.close()
+        out.size()
+    }
+}
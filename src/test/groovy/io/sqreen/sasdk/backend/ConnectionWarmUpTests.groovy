@@ -0,0 +1,79 @@
+package io.sqreen.sasdk.backend
+
+import io.sqreen.agent.test.WireMockTrait
+import io.sqreen.sasdk.signals_dto.PointSignal
+import org.junit.After
+import org.junit.Test
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class ConnectionWarmUpTests implements WireMockTrait {
+
+    ConnectionStats stats = new ConnectionStats()
+
+    List<IngestionHttpClient.WithAuthentication> clients = []
+
+    @After
+    void after() {
+        clients*.close()
+    }
+
+    private IngestionHttpClient.WithAuthentication client(String url, boolean persistent) {
+        def client = new IngestionHttpClientBuilder()
+                .withAlternativeIngestionURL(url)
+                .buildingHttpClient()
+                .withMaxConnections(4)
+                .with { persistent ? withPersistentConnections(30000, 300000) : it }
+                .withConnectionStats(stats)
+                .withConnectionWarmUp(3)
+                .buildHttpClient()
+                .createWithAuthentication(IngestionHttpClientBuilder.authConfigWithAPIKey('api key'))
+        clients << client
+        client
+    }
+
+    private String getUrl() {
+        "http://localhost:${wireMockRule.port()}/"
+    }
+
+    @Test
+    void 'connections are opened when the client is built'() {
+        client(url, true)
+
+        assertThat stats.plainConnections, is(3L)
+        wireMockRule.verify(0, anyRequestedFor(anyUrl()))
+    }
+
+    @Test
+    void 'the warmed up connections are reused'() {
+        wireMockRule.stubFor(post(urlEqualTo('/signals')).willReturn(aResponse().withStatus(202)))
+        def service = client(url, true)
+
+        3.times { service.reportSignal(new PointSignal(name: 'signal', time: new Date(0))) }
+
+        assertThat stats.plainConnections, is(3L)
+        wireMockRule.verify(3, postRequestedFor(urlEqualTo('/signals')))
+    }
+
+    @Test
+    void 'each connection is used once without persistent connections'() {
+        wireMockRule.stubFor(post(urlEqualTo('/signals')).willReturn(aResponse().withStatus(202)))
+        def service = client(url, false)
+
+        4.times { service.reportSignal(new PointSignal(name: 'signal', time: new Date(0))) }
+
+        assertThat stats.plainConnections, is(4L)
+    }
+
+    @Test
+    void 'failures do not prevent building the client'() {
+        def port = new ServerSocket(0).withCloseable { it.localPort }
+
+        client("http://127.0.0.1:${port}/", true)
+
+        assertThat stats.plainConnections, is(0L)
+        assertThat stats.failures, is(3L)
+    }
+}
@@ -0,0 +1,80 @@
+package io.sqreen.sasdk.backend
+
+import org.junit.Test
+
+import java.util.zip.GZIPInputStream
+import java.util.zip.Inflater
+
+import static groovy.test.GroovyAssert.shouldFail
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+import static org.hamcrest.Matchers.lessThan
+
+class ContentCodecsTests {
+
+    byte[] data = ('{"time":"2020-01-01T00:00:00Z","type":"point","signal_name":"sq.agent.attack",' +
+            '"source":"sqreen:sdk:java","payload":{"status":200}}').bytes
+
+    private static byte[] encode(ContentCodec codec, byte[] bytes) {
+        def out = new ByteArrayOutputStream()
+        def enc = codec.encode(out)
+        enc.write(bytes)
+        enc.close()
+        out.toByteArray()
+    }
+
+    private static byte[] inflate(byte[] bytes, byte[] dictionary) {
+        def inflater = new Inflater()
+        inflater.input = bytes
+        def out = new ByteArrayOutputStream()
+        byte[] buf = new byte[1024]
+        while (!inflater.finished()) {
+            int n = inflater.inflate(buf)
+            if (n == 0 && inflater.needsDictionary()) {
+                inflater.dictionary = dictionary
+            }
+            out.write(buf, 0, n)
+        }
+        inflater.end()
+        out.toByteArray()
+    }
+
+    @Test
+    void 'gzip codec round trip'() {
+        def codec = ContentCodecs.gzip(6)
+
+        byte[] encoded = encode(codec, data)
+
+        assertThat codec.contentEncoding, is('gzip')
+        assertThat new GZIPInputStream(new ByteArrayInputStream(encoded)).bytes, is(data)
+    }
+
+    @Test
+    void 'deflate with dictionary round trip'() {
+        def codec = ContentCodecs.deflateWithDictionary(6, ContentCodecs.SIGNAL_DICTIONARY, 'x-sqreen-deflate')
+
+        byte[] encoded = encode(codec, data)
+
+        assertThat codec.contentEncoding, is('x-sqreen-deflate')
+        assertThat inflate(encoded, ContentCodecs.SIGNAL_DICTIONARY), is(data)
+    }
+
+    @Test
+    void 'dictionary shrinks small payloads'() {
+        def withDict = encode(ContentCodecs.deflateWithDictionary(
+                6, ContentCodecs.SIGNAL_DICTIONARY, 'deflate'), data)
+        def gzip = encode(ContentCodecs.gzip(6), data)
+
+        assertThat withDict.length, lessThan(gzip.length)
+    }
+
+    @Test
+    void 'rejects invalid levels'() {
+        shouldFail(IllegalArgumentException) {
+            ContentCodecs.gzip(10)
+        }
+        shouldFail(IllegalArgumentException) {
+            ContentCodecs.deflateWithDictionary(-2, ContentCodecs.SIGNAL_DICTIONARY, 'deflate')
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.sqreen.sasdk.backend
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.*
+
+class DiskSpillStoreTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    @Lazy
+    File directory = folder.newFolder('spill')
+
+    @Lazy
+    DiskSpillStore testee = new DiskSpillStore(directory, 1024, 256)
+
+    @Test
+    void 'records are read in insertion order'() {
+        assertThat testee.empty, is(true)
+        assertThat testee.peek(), is(nullValue())
+
+        ['a', 'bb', 'ccc'].each {
+            assertThat testee.append(it.bytes), is(true)
+        }
+        assertThat testee.pendingRecords(), is(3)
+
+        def read = []
+        DiskSpillStore.Record record
+        while ((record = testee.peek()) != null) {
+            read << new String(record.data)
+            testee.consume(record)
+        }
+
+        assertThat read, contains('a', 'bb', 'ccc')
+        assertThat testee.empty, is(true)
+    }
+
+    @Test
+    void 'peek does not consume the record'() {
+        testee.append('a'.bytes)
+
+        assertThat new String(testee.peek().data), is('a')
+        assertThat new String(testee.peek().data), is('a')
+    }
+
+    @Test
+    void 'pending records survive a restart'() {
+        ['a', 'bb', 'ccc'].each { testee.append(it.bytes) }
+        testee.consume(testee.peek())
+
+        def reopened = new DiskSpillStore(directory, 1024, 256)
+
+        assertThat reopened.pendingRecords(), is(2)
+        assertThat new String(reopened.peek().data), is('bb')
+    }
+
+    @Test
+    void 'append fails when the size cap is reached'() {
+        byte[] data = new byte[200]
+
+        assertThat testee.append(data), is(true)
+        assertThat testee.append(data), is(true)
+        assertThat testee.append(data), is(true)
+        assertThat testee.append(data), is(true)
+        assertThat testee.append(data), is(false)
+        assertThat testee.totalSize(), lessThanOrEqualTo(1024L)
+    }
+
+    @Test
+    void 'consumed segments are deleted'() {
+        byte[] data = new byte[200]
+        3.times { testee.append(data) }
+        assertThat directory.list().length, is(3)
+
+        2.times { testee.consume(testee.peek()) }
+
+        assertThat directory.list().length, is(1)
+        assertThat testee.pendingRecords(), is(1)
+    }
+
+    @Test
+    void 'records larger than a segment get their own segment'() {
+        byte[] data = new byte[600]
+
+        assertThat testee.append(data), is(true)
+
+        assertThat testee.peek().data.length, is(600)
+    }
+}
@@ -0,0 +1,49 @@
+package io.sqreen.sasdk.backend
+
+import com.google.common.collect.ImmutableListMultimap
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse
+import org.apache.hc.core5.http.ContentType
+import org.junit.Test
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+import static org.hamcrest.Matchers.nullValue
+
+class Http2TransportTests {
+
+    @Test
+    void 'requests are converted with their body and without connection headers'() {
+        def headers = ImmutableListMultimap.of(
+                'Content-Type', 'application/json',
+                'Content-Encoding', 'gzip',
+                'X-Api-Key', 'key',
+                'Connection', 'close')
+        def body = [
+                getContentLength: { -1L },
+                writeTo: { OutputStream os -> os.write('[]'.bytes) }
+        ] as Transport.Body
+        def request = new Transport.Request(BackendHttpImpl.HttpMethod.POST,
+                'https://example.com/batches', headers, body)
+
+        def simpleRequest = Http2Transport.toSimpleRequest(request)
+
+        assertThat simpleRequest.method, is('POST')
+        assertThat simpleRequest.uri, is(URI.create('https://example.com/batches'))
+        assertThat simpleRequest.getFirstHeader('X-Api-Key').value, is('key')
+        assertThat simpleRequest.getFirstHeader('Content-Encoding').value, is('gzip')
+        assertThat simpleRequest.getFirstHeader('Connection'), is(nullValue())
+        assertThat simpleRequest.getFirstHeader('Content-Type'), is(nullValue())
+        assertThat simpleRequest.bodyBytes, is('[]'.bytes)
+        assertThat simpleRequest.contentType.mimeType, is('application/json')
+    }
+
+    @Test
+    void 'responses are converted with their body'() {
+        def simpleResponse = SimpleHttpResponse.create(422, '{"error": "invalid"}', ContentType.APPLICATION_JSON)
+
+        def response = Http2Transport.toResponse(simpleResponse)
+
+        assertThat response.status, is(422)
+        assertThat response.content.text, is('{"error": "invalid"}')
+    }
+}
@@ -1,6 +1,7 @@
 
 package io.sqreen.sasdk.backend
 
+import groovy.json.JsonSlurper
 import io.sqreen.agent.test.WireMockTrait
 import io.sqreen.sasdk.backend.exception.AuthenticationException
 import io.sqreen.sasdk.backend.exception.BadHttpStatusException
@@ -17,9 +18,13 @@ import io.sqreen.sasdk.signals_dto.context.http.Response
 import org.junit.Test
 
 import java.text.SimpleDateFormat
+import java.util.zip.GZIPInputStream
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*
 import static groovy.test.GroovyAssert.shouldFail
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.greaterThan
+import static org.hamcrest.Matchers.is
 
 class IngestionHttpClientTests implements WireMockTrait {
 
@@ -237,6 +242,88 @@ class IngestionHttpClientTests implements WireMockTrait {
         wireMockRule.verify(postRequestedFor(urlEqualTo('/traces')))
     }
 
+    @Test
+    void 'persistent connections are reused across requests'() {
+        def service = new IngestionHttpClientBuilder()
+                .withAlternativeIngestionURL(String.format("http://localhost:%d/", wireMockRule.port()))
+                .buildingHttpClient()
+                .withPersistentConnections(30000, 300000)
+                .buildHttpClient()
+                .createWithAuthentication(
+                        IngestionHttpClientBuilder.authConfigWithAPIKey(apiKey))
+
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .willReturn(aResponse().withStatus(202).withBody("null")))
+
+        3.times {
+            service.reportBatch([new MetricSignal(name: 'signalName', payload: [:])])
+        }
+
+        wireMockRule.verify(3, postRequestedFor(urlEqualTo('/batches')))
+        def connManager = service.client.backendHttp.transport.httpClient.connManager
+        assertThat connManager.totalStats.available, is(1)
+
+        service.close()
+        assertThat connManager.totalStats.available, is(0)
+    }
+
+    @Test
+    void 'streaming requests are sent chunked'() {
+        def service = new IngestionHttpClientBuilder()
+                .withAlternativeIngestionURL(String.format("http://localhost:%d/", wireMockRule.port()))
+                .buildingHttpClient()
+                .buildHttpClient()
+                .withStreamingRequests()
+                .createWithAuthentication(
+                        IngestionHttpClientBuilder.authConfigWithAPIKey(apiKey))
+
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .withHeader('Transfer-Encoding', equalTo('chunked'))
+                .withRequestBody(equalToJson('''
+                    [{"type": "metric", "signal_name": "signalName", "payload": {"a": 1}}]''',
+                        true, true))
+                .willReturn(aResponse().withStatus(202).withBody("null")))
+
+        service.reportBatch([new MetricSignal(name: 'signalName', payload: [a: 1])])
+
+        wireMockRule.verify(1, postRequestedFor(urlEqualTo('/batches')))
+        service.close()
+    }
+
+    @Test
+    void 'request bodies above the threshold are compressed'() {
+        def stats = new CompressionStats()
+        def service = new IngestionHttpClientBuilder()
+                .withAlternativeIngestionURL(String.format("http://localhost:%d/", wireMockRule.port()))
+                .buildingHttpClient()
+                .buildHttpClient()
+                .withCompression(6, 200)
+                .withCompressionStats(stats)
+                .createWithAuthentication(
+                        IngestionHttpClientBuilder.authConfigWithAPIKey(apiKey))
+
+        wireMockRule.stubFor(post(urlMatching('/(batches|signals)'))
+                .willReturn(aResponse().withStatus(202).withBody("null")))
+
+        def signals = (1..20).collect { new MetricSignal(name: 'signalName', payload: [a: it]) }
+        service.reportBatch(signals)
+        service.reportSignal(signals[0])
+
+        def batchRequest = wireMockRule.findAll(postRequestedFor(urlEqualTo('/batches')))[0]
+        assertThat batchRequest.getHeader('Content-Encoding'), is('gzip')
+        def json = new GZIPInputStream(new ByteArrayInputStream(batchRequest.body)).getText('UTF-8')
+        assertThat new JsonSlurper().parseText(json).size(), is(20)
+
+        // too small
+        wireMockRule.verify(postRequestedFor(urlEqualTo('/signals'))
+                .withHeader('Content-Encoding', absent()))
+
+        assertThat stats.requests, is(1L)
+        assertThat stats.ratio, is(greaterThan(1d))
+        assertThat stats.lastRatio, is(stats.ratio)
+        service.close()
+    }
+
     @Test
     void 'server responds with 401'() {
         wireMockRule.stubFor(post(urlEqualTo('/signals'))
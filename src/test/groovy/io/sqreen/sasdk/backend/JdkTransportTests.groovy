@@ -0,0 +1,92 @@
+package io.sqreen.sasdk.backend
+
+import groovy.json.JsonSlurper
+import io.sqreen.agent.test.WireMockTrait
+import io.sqreen.sasdk.backend.exception.InvalidPayloadException
+import io.sqreen.sasdk.signals_dto.MetricSignal
+import org.junit.After
+import org.junit.Test
+
+import java.util.zip.GZIPInputStream
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static groovy.test.GroovyAssert.shouldFail
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class JdkTransportTests implements WireMockTrait {
+
+    List<IngestionHttpClient.WithAuthentication> clients = []
+
+    @After
+    void after() {
+        clients*.close()
+    }
+
+    private IngestionHttpClient.WithAuthentication client(boolean streaming, boolean persistent) {
+        def client = new IngestionHttpClientBuilder()
+                .withAlternativeIngestionURL("http://localhost:${wireMockRule.port()}/")
+                .buildingHttpClient()
+                .withJdkHttpConnection()
+                .with { persistent ? withPersistentConnections(30000, 300000) : it }
+                .buildHttpClient()
+                .withCompression(1, 0)
+                .with { streaming ? withStreamingRequests() : it }
+                .createWithAuthentication(IngestionHttpClientBuilder.authConfigWithAPIKey('api key'))
+        clients << client
+        client
+    }
+
+    private static List<MetricSignal> createSignals() {
+        (1..20).collect { new MetricSignal(name: 'signalName', payload: [a: it], time: new Date(0)) }
+    }
+
+    @Test
+    void 'batches are sent with their headers'() {
+        wireMockRule.stubFor(post(urlEqualTo('/batches')).willReturn(aResponse().withStatus(202)))
+
+        client(false, true).reportBatch(createSignals())
+
+        def request = wireMockRule.findAll(postRequestedFor(urlEqualTo('/batches')))[0]
+        assertThat request.getHeader('X-Api-Key'), is('api key')
+        assertThat request.getHeader('Content-Type'), is('application/json')
+        assertThat request.getHeader('Content-Encoding'), is('gzip')
+        assertThat request.getHeader('Content-Length'), is(request.body.length as String)
+        def json = new GZIPInputStream(new ByteArrayInputStream(request.body)).getText('UTF-8')
+        assertThat new JsonSlurper().parseText(json).size(), is(20)
+    }
+
+    @Test
+    void 'streamed batches are sent chunked'() {
+        wireMockRule.stubFor(post(urlEqualTo('/batches')).willReturn(aResponse().withStatus(202)))
+
+        client(true, true).reportBatch(createSignals())
+
+        def request = wireMockRule.findAll(postRequestedFor(urlEqualTo('/batches')))[0]
+        assertThat request.getHeader('Transfer-Encoding'), is('chunked')
+        def json = new GZIPInputStream(new ByteArrayInputStream(request.body)).getText('UTF-8')
+        assertThat new JsonSlurper().parseText(json).size(), is(20)
+    }
+
+    @Test
+    void 'connections are closed without persistent connections'() {
+        wireMockRule.stubFor(post(urlEqualTo('/batches')).willReturn(aResponse().withStatus(202)))
+
+        client(false, false).reportBatch(createSignals())
+
+        wireMockRule.verify(postRequestedFor(urlEqualTo('/batches'))
+                .withHeader('Connection', equalTo('close')))
+    }
+
+    @Test
+    void 'error responses are read'() {
+        wireMockRule.stubFor(post(urlEqualTo('/batches'))
+                .willReturn(aResponse().withStatus(422).withBody('{"error": "invalid"}')))
+
+        def e = shouldFail(InvalidPayloadException) {
+            client(false, true).reportBatch(createSignals())
+        }
+
+        assertThat e.message.contains('{"error": "invalid"}'), is(true)
+    }
+}
@@ -0,0 +1,136 @@
+package io.sqreen.sasdk.backend
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.databind.ObjectWriter
+import io.sqreen.sasdk.signals_dto.Actor
+import io.sqreen.sasdk.signals_dto.PointSignal
+import io.sqreen.sasdk.signals_dto.SignalsModule
+import org.junit.Test
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.zip.GZIPInputStream
+
+import static groovy.test.GroovyAssert.shouldFail
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class JsonStreamingEntityTests {
+
+    ObjectWriter writer = IngestionHttpClientBuilder.createDefaultObjectWriter()
+
+    def payload = [new PointSignal(name: 'a', time: new Date(0)),
+                   new PointSignal(name: 'b', time: new Date(0))]
+
+    @Test
+    void 'writes the same bytes as the object writer'() {
+        def testee = new JsonStreamingEntity(writer, payload)
+        def out = new ByteArrayOutputStream()
+
+        testee.writeTo(out)
+
+        assertThat out.toByteArray(), is(writer.writeValueAsBytes(payload))
+    }
+
+    @Test
+    void 'writes gzip compressed bytes'() {
+        def stats = new CompressionStats()
+        def testee = new JsonStreamingEntity(writer, payload, ContentCodecs.gzip(6), stats, 'batches')
+        def out = new ByteArrayOutputStream()
+
+        testee.writeTo(out)
+
+        def decompressed = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).bytes
+        assertThat decompressed, is(writer.writeValueAsBytes(payload))
+        assertThat stats.uncompressedBytes, is((long) decompressed.length)
+        assertThat stats.compressedBytes, is((long) out.size())
+    }
+
+    @Test
+    void 'is chunked and repeatable'() {
+        def testee = new JsonStreamingEntity(writer, payload)
+
+        assertThat testee.chunked, is(true)
+        assertThat testee.repeatable, is(true)
+        assertThat testee.contentLength, is(-1L)
+        assertThat testee.content.bytes, is(testee.content.bytes)
+    }
+
+    @Test
+    void 'does not close the target stream'() {
+        def closed = new AtomicBoolean()
+        def out = new FilterOutputStream(new ByteArrayOutputStream()) {
+            @Override
+            void close() {
+                closed.set(true)
+            }
+        }
+
+        new JsonStreamingEntity(writer, payload, ContentCodecs.gzip(6), new CompressionStats(), 'batches')
+                .writeTo(out)
+
+        assertThat closed.get(), is(false)
+    }
+
+    @Test
+    void 'copies the cached json of constant objects'() {
+        def streamingWriter = writer.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+        def actor = SignalsModule.markConstant(new Actor(userAgent: 'curl'))
+        def signals = [new PointSignal(name: 'a', actor: actor, time: new Date(0))]
+        def expected = writer.writeValueAsBytes(signals)
+        def out = new ByteArrayOutputStream()
+        new JsonStreamingEntity(streamingWriter, signals).writeTo(out)
+
+        // not serialized again
+        actor.userAgent = 'changed'
+        out.reset()
+        new JsonStreamingEntity(streamingWriter, signals).writeTo(out)
+
+        assertThat out.toByteArray(), is(expected)
+    }
+
+    @Test
+    void 'returns the deflater to the pool when the connection breaks'() {
+        def codec = ContentCodecs.gzip(6)
+        // enough data for the deflater to write before the end of the body
+        def largePayload = (1..2000).collect {
+            new PointSignal(name: UUID.randomUUID().toString(), time: new Date(0))
+        }
+        def out = new OutputStream() {
+            int written
+
+            @Override
+            void write(int b) {
+                // fails after the gzip header
+                if (++written > 10) {
+                    throw new IOException('broken pipe')
+                }
+            }
+        }
+
+        def e = shouldFail(IOException) {
+            new JsonStreamingEntity(writer, largePayload, codec, new CompressionStats(), 'batches').writeTo(out)
+        }
+
+        assertThat e.message, is('broken pipe')
+        assertThat codec.pool.pooledCount(), is(1)
+    }
+
+    @Test
+    void 'returns the deflater to the pool when serialization fails'() {
+        def codec = ContentCodecs.gzip(6)
+        def failingPayload = payload + [new Exploding()]
+
+        shouldFail(IOException) {
+            new JsonStreamingEntity(writer, failingPayload, codec, new CompressionStats(), 'batches')
+                    .writeTo(new ByteArrayOutputStream())
+        }
+
+        assertThat codec.pool.pooledCount(), is(1)
+    }
+
+    static class Exploding {
+        String getValue() {
+            throw new IllegalStateException('boom')
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package io.sqreen.sasdk.backend
+
+import io.sqreen.sasdk.backend.exception.BadHttpStatusException
+import io.sqreen.sasdk.signals_dto.MetricSignal
+import org.junit.Test
+
+import static groovy.test.GroovyAssert.shouldFail
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.greaterThan
+import static org.hamcrest.Matchers.is
+
+class LoopbackTransportTests {
+
+    private static IngestionHttpClient.WithAuthentication client(LoopbackTransport transport) {
+        new IngestionHttpClientBuilder()
+                .withTransport(transport)
+                .createWithAuthentication(IngestionHttpClientBuilder.authConfigWithAPIKey('api key'))
+    }
+
+    @Test
+    void 'requests are serialized and answered without a network'() {
+        def transport = new LoopbackTransport()
+        def client = client(transport)
+
+        client.reportBatch((1..20).collect { new MetricSignal(name: 'signalName', payload: [a: it]) })
+        client.reportSignal(new MetricSignal(name: 'signalName'))
+
+        assertThat transport.requestCount, is(2L)
+        assertThat transport.bodyBytes, is(greaterThan(20L * '{"a":1}'.length()))
+        client.close()
+    }
+
+    @Test
+    void 'answers with the given status'() {
+        def client = client(new LoopbackTransport(500))
+
+        shouldFail(BadHttpStatusException) {
+            client.reportSignal(new MetricSignal(name: 'signalName'))
+        }
+        client.close()
+    }
+}
@@ -0,0 +1,73 @@
+package io.sqreen.sasdk.backend
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.databind.JsonSerializer
+import com.fasterxml.jackson.databind.ObjectWriter
+import com.fasterxml.jackson.databind.SerializerProvider
+import com.fasterxml.jackson.databind.annotation.JsonSerialize
+import io.sqreen.sasdk.signals_dto.PointSignal
+import org.junit.After
+import org.junit.Test
+
+import static groovy.test.GroovyAssert.shouldFail
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class ParallelSerializerTests {
+
+    ObjectWriter writer = IngestionHttpClientBuilder.createDefaultObjectWriter()
+
+    BufferPool pool = new BufferPool(1024 * 1024)
+
+    ParallelSerializer testee = new ParallelSerializer(2, 10, 3)
+
+    @After
+    void after() {
+        testee.close()
+    }
+
+    private List<PointSignal> batch(int n) {
+        (0..<n).collect {
+            new PointSignal(name: "signal ${it}", time: new Date(it), payload: [i: it])
+        }
+    }
+
+    @Test
+    void 'accepts only large enough lists'() {
+        assertThat testee.accepts(batch(10)), is(true)
+        assertThat testee.accepts(batch(9)), is(false)
+        assertThat testee.accepts(new HashSet(batch(10))), is(false)
+    }
+
+    @Test
+    void 'produces the same bytes as the object writer'() {
+        def signals = batch(11)
+        def out = new PooledByteArrayOutputStream(pool)
+
+        testee.writeArray(writer, signals, pool, out)
+
+        assertThat out.newInputStream().bytes, is(writer.writeValueAsBytes(signals))
+    }
+
+    @JsonSerialize(using = FailingSerializer)
+    static class Unserializable {}
+
+    static class FailingSerializer extends JsonSerializer<Unserializable> {
+        @Override
+        void serialize(Unserializable value, JsonGenerator gen, SerializerProvider serializers) {
+            throw new IOException('cannot serialize')
+        }
+    }
+
+    @Test
+    void 'chunk failures are rethrown'() {
+        def objects = batch(10) + [new Unserializable()] + batch(10)
+        def out = new PooledByteArrayOutputStream(pool)
+
+        def e = shouldFail(IOException) {
+            testee.writeArray(writer, objects, pool, out)
+        }
+
+        assert e.message.contains('cannot serialize')
+    }
+}
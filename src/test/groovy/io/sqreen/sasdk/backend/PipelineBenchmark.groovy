@@ -0,0 +1,69 @@
+package io.sqreen.sasdk.backend
+
+import io.sqreen.sasdk.signals_dto.Trace
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the throughput of the whole client, from the batch collector to
+ * the serialization and compression of the requests, with a
+ * {@link LoopbackTransport}, so that the network doesn't get in the way.
+ *
+ * Run with <code>gradle pipelineBenchmark</code>.
+ */
+class PipelineBenchmark {
+
+    static final int TRACES = 200000
+    static final int ROUNDS = 3
+
+    static void main(String[] args) {
+        def traces = (0..<1000).collect { CodecBenchmark.createTrace(it) }
+        def configs = [
+                'buffered'          : { IngestionHttpClientBuilder.WithConfiguredHttpClient c -> c },
+                'buffered, gzip'    : { IngestionHttpClientBuilder.WithConfiguredHttpClient c -> c.withCompression(1, 0) },
+                'streaming'         : { IngestionHttpClientBuilder.WithConfiguredHttpClient c -> c.withStreamingRequests() },
+                'streaming, gzip'   : { IngestionHttpClientBuilder.WithConfiguredHttpClient c ->
+                    c.withStreamingRequests().withCompression(1, 0) },
+        ]
+
+        println String.format('%-18s %12s %10s %12s', 'config', 'traces/s', 'requests', 'MB sent')
+        configs.each { String name, Closure configure ->
+            // the first rounds warm up
+            ROUNDS.times { round ->
+                def result = run(traces, configure)
+                if (round == ROUNDS - 1) {
+                    println String.format('%-18s %12.0f %10d %12.1f',
+                            name, result.tracesPerSecond, result.requests, result.bytes / 1e6)
+                }
+            }
+        }
+    }
+
+    private static Map run(List<Trace> traces, Closure configure) {
+        def transport = new LoopbackTransport()
+        def client = configure(new IngestionHttpClientBuilder().withTransport(transport))
+                .createWithAuthentication(IngestionHttpClientBuilder.authConfigWithAPIKey('api key'))
+        def collector = BatchCollector.builder(client)
+                .withTriggerSize(100)
+                .withMaxConcurrentRequests(4)
+                .withMaxQueueSize(2000)
+                .withMaxDelayInMs(1000)
+                .build()
+
+        long start = System.nanoTime()
+        for (int i = 0; i < TRACES; i++) {
+            if (!collector.add(traces[i % traces.size()], 10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException('The collector is stuck')
+            }
+        }
+        collector.forceReport()
+        collector.close()
+        collector.awaitTermination(60000)
+        long elapsed = System.nanoTime() - start
+        client.close()
+
+        [tracesPerSecond: TRACES * 1e9d / elapsed,
+         requests       : transport.requestCount,
+         bytes          : transport.bodyBytes]
+    }
+}
@@ -0,0 +1,81 @@
+package io.sqreen.sasdk.backend
+
+import org.junit.Test
+
+import static groovy.test.GroovyAssert.shouldFail
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class PooledByteArrayOutputStreamTests {
+
+    BufferPool pool = new BufferPool(1024 * 1024)
+
+    byte[] data = (0..<300000).collect { (byte) (it * 31) } as byte[]
+
+    private PooledByteArrayOutputStream write(byte[] bytes) {
+        def out = new PooledByteArrayOutputStream(pool)
+        out.write(bytes[0] as int)
+        out.write(bytes, 1, 5000)
+        out.write(bytes, 5001, bytes.length - 5001)
+        out
+    }
+
+    @Test
+    void 'writes the data across segments'() {
+        def out = write(data)
+
+        def copy = new ByteArrayOutputStream()
+        out.writeTo(copy)
+
+        assertThat out.size(), is((long) data.length)
+        assertThat copy.toByteArray(), is(data)
+        assertThat out.newInputStream().bytes, is(data)
+    }
+
+    @Test
+    void 'segments are returned to the pool and reused'() {
+        write(data).release()
+        long pooled = pool.pooledBytes()
+        assert pooled > data.length
+
+        def out = write(data)
+
+        assertThat pool.pooledBytes(), is(0L)
+        assertThat out.newInputStream().bytes, is(data)
+        out.release()
+        assertThat pool.pooledBytes(), is(pooled)
+    }
+
+    @Test
+    void 'can not be used once released'() {
+        def out = write(data)
+
+        out.release()
+        out.release()
+
+        shouldFail(IOException) {
+            out.write(data)
+        }
+        shouldFail(IOException) {
+            out.newInputStream()
+        }
+    }
+
+    @Test
+    void 'pool rounds sizes up to a power of two'() {
+        assertThat pool.acquire(1).length, is(BufferPool.MIN_SIZE)
+        assertThat pool.acquire(5000).length, is(8192)
+        assertThat pool.acquire(Integer.MAX_VALUE).length, is(BufferPool.MAX_SIZE)
+    }
+
+    @Test
+    void 'pool does not keep more than its maximum'() {
+        def small = new BufferPool(BufferPool.MAX_SIZE)
+
+        small.release(small.acquire(BufferPool.MAX_SIZE))
+        small.release(new byte[BufferPool.MAX_SIZE])
+        small.release(new byte[1000])
+
+        assertThat small.pooledBytes(), is((long) BufferPool.MAX_SIZE)
+    }
+}
@@ -0,0 +1,85 @@
+package io.sqreen.sasdk.backend
+
+import org.junit.Test
+
+import java.util.zip.GZIPInputStream
+
+import static groovy.test.GroovyAssert.shouldFail
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class PooledGzipOutputStreamTests {
+
+    DeflaterPool pool = new DeflaterPool(6, 2)
+
+    byte[] data = ('{"signal_name": "sq.agent.metric", "payload": {}}' * 200).bytes
+
+    private byte[] compress(byte[] bytes) {
+        def out = new ByteArrayOutputStream()
+        def gzip = new PooledGzipOutputStream(out, pool)
+        gzip.write(bytes, 0, 10)
+        gzip.write(bytes[10] as int)
+        gzip.write(bytes, 11, bytes.length - 11)
+        gzip.finish()
+        out.toByteArray()
+    }
+
+    @Test
+    void 'output can be read by GZIPInputStream'() {
+        byte[] compressed = compress(data)
+
+        def decompressed = new GZIPInputStream(new ByteArrayInputStream(compressed)).bytes
+        assertThat decompressed, is(data)
+        assert compressed.length < data.length / 10
+    }
+
+    @Test
+    void 'deflaters are returned to the pool and reused'() {
+        compress(data)
+        assertThat pool.pooledCount(), is(1)
+
+        byte[] compressed = compress(data)
+
+        assertThat pool.pooledCount(), is(1)
+        assertThat new GZIPInputStream(new ByteArrayInputStream(compressed)).bytes, is(data)
+    }
+
+    @Test
+    void 'pool does not keep more than its maximum'() {
+        def streams = (1..3).collect { new PooledGzipOutputStream(new ByteArrayOutputStream(), pool) }
+
+        streams*.finish()
+
+        assertThat pool.pooledCount(), is(2)
+    }
+
+    @Test
+    void 'deflater is returned to the pool if the header cannot be written'() {
+        def out = new OutputStream() {
+            @Override
+            void write(int b) {
+                throw new IOException('broken pipe')
+            }
+        }
+
+        shouldFail(IOException) {
+            new PooledGzipOutputStream(out, pool)
+        }
+
+        assertThat pool.pooledCount(), is(1)
+    }
+
+    @Test
+    void 'abort returns the deflater without writing the trailer'() {
+        def out = new ByteArrayOutputStream()
+        def gzip = new PooledGzipOutputStream(out, pool)
+        gzip.write(data)
+        int written = out.size()
+
+        gzip.abort()
+        gzip.abort()
+
+        assertThat pool.pooledCount(), is(1)
+        assertThat out.size(), is(written)
+    }
+}
@@ -0,0 +1,42 @@
+package io.sqreen.sasdk.backend
+
+import org.junit.Test
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.*
+
+class RetryBudgetTests {
+
+    @Test
+    void 'initial reserve allows the minimum retries'() {
+        def testee = new RetryBudget(0.1, 2)
+
+        assertThat testee.tryAcquireRetry(), is(true)
+        assertThat testee.tryAcquireRetry(), is(true)
+        assertThat testee.tryAcquireRetry(), is(false)
+    }
+
+    @Test
+    void 'retries are a fraction of first attempts'() {
+        def testee = new RetryBudget(0.25, 0)
+
+        int retries = 0
+        100.times {
+            testee.onFirstAttempt()
+            if (testee.tryAcquireRetry()) {
+                retries++
+            }
+        }
+
+        assertThat retries, is(25)
+    }
+
+    @Test
+    void 'balance is capped'() {
+        def testee = new RetryBudget(0.5, 3)
+
+        100.times { testee.onFirstAttempt() }
+
+        assertThat testee.balance(), is(3d)
+    }
+}
@@ -0,0 +1,54 @@
+package io.sqreen.sasdk.backend
+
+import io.sqreen.sasdk.backend.exception.AuthenticationException
+import io.sqreen.sasdk.backend.exception.BadHttpStatusException
+import io.sqreen.sasdk.backend.exception.InvalidPayloadException
+import org.junit.Test
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.*
+
+class RetryPolicyTests {
+
+    RetryPolicy testee = new RetryPolicy(4, 100, 300)
+
+    @Test
+    void 'transient errors are retryable'() {
+        [500, 502, 503, 408, 429].each {
+            assertThat RetryPolicy.isRetryable(new BadHttpStatusException(it, 'x')), is(true)
+        }
+        assertThat RetryPolicy.isRetryable(new SocketTimeoutException()), is(true)
+        assertThat RetryPolicy.isRetryable(new IOException()), is(true)
+    }
+
+    @Test
+    void 'client errors are not retryable'() {
+        assertThat RetryPolicy.isRetryable(new AuthenticationException(401, 'x')), is(false)
+        assertThat RetryPolicy.isRetryable(new InvalidPayloadException('x')), is(false)
+        assertThat RetryPolicy.isRetryable(new BadHttpStatusException(400, 'x')), is(false)
+        assertThat RetryPolicy.isRetryable(new RuntimeException()), is(false)
+    }
+
+    @Test
+    void 'retries stop after the maximum attempts'() {
+        def e = new IOException()
+
+        assertThat testee.shouldRetry(1, e), is(true)
+        assertThat testee.shouldRetry(3, e), is(true)
+        assertThat testee.shouldRetry(4, e), is(false)
+        assertThat RetryPolicy.NO_RETRIES.shouldRetry(1, e), is(false)
+    }
+
+    @Test
+    void 'backoff grows exponentially up to the maximum'() {
+        def ceilings = [1: 100L, 2: 200L, 3: 300L, 10: 300L]
+
+        ceilings.each { attempt, ceiling ->
+            def backoffs = (1..200).collect { testee.backoffInMs(attempt) }
+            assertThat backoffs.min(), greaterThanOrEqualTo(0L)
+            assertThat backoffs.max(), lessThanOrEqualTo(ceiling)
+            // jittered
+            assertThat backoffs.unique().size(), greaterThan(1)
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.sqreen.sasdk.backend
+
+import io.sqreen.sasdk.signals_dto.PointSignal
+import io.sqreen.sasdk.signals_dto.Signal
+import org.junit.Test
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.*
+
+class RingBufferSignalQueueTests {
+
+    RingBufferSignalQueue testee = new RingBufferSignalQueue(5)
+
+    @Test
+    void 'capacity is rounded up to a power of two'() {
+        assertThat testee.capacity(), is(8)
+        assertThat new RingBufferSignalQueue(1).capacity(), is(1)
+        assertThat new RingBufferSignalQueue(64).capacity(), is(64)
+    }
+
+    @Test
+    void 'offer fails when the queue is full'() {
+        8.times {
+            assertThat testee.offer(new PointSignal(), 0), is(true)
+        }
+
+        assertThat testee.offer(new PointSignal(), 0), is(false)
+        assertThat testee.size(), is(8)
+    }
+
+    @Test
+    void 'drains in insertion order across laps'() {
+        List<Signal> drained = []
+        def signals = (1..20).collect { new PointSignal(name: "$it") }
+
+        signals.collate(6).each { chunk ->
+            chunk.each { assertThat testee.offer(it, 1), is(true) }
+            assertThat testee.drainTo(drained), is((long) chunk.size())
+        }
+
+        assertThat drained, contains(signals as Signal[])
+        assertThat testee.empty, is(true)
+    }
+
+    @Test
+    void 'bounded drain takes the oldest objects'() {
+        def signals = (1..5).collect { new PointSignal(name: "$it") }
+        signals.each { testee.offer(it, 0) }
+
+        List<Signal> drained = []
+        testee.drainTo(drained, 3)
+        assertThat drained, contains(signals[0..2] as Signal[])
+
+        testee.drainTo(drained, 3)
+        assertThat drained.size(), is(5)
+        assertThat testee.empty, is(true)
+    }
+
+    @Test
+    void 'drains give back the weights the objects were offered with'() {
+        (1..5).each { testee.offer(new PointSignal(), it * 10) }
+
+        assertThat testee.drainTo([], 2), is(30L)
+        assertThat testee.drainTo([]), is(120L)
+    }
+
+    @Test
+    void 'clear empties the queue'() {
+        3.times { testee.offer(new PointSignal(), 0) }
+
+        testee.clear()
+
+        assertThat testee.size(), is(0)
+        List<Signal> drained = []
+        testee.drainTo(drained)
+        assertThat drained, is(empty())
+    }
+
+    @Test
+    void 'concurrent producers lose no objects'() {
+        testee = new RingBufferSignalQueue(64)
+        int producers = 4
+        int perProducer = 10000
+        def done = new CountDownLatch(producers)
+        producers.times {
+            Thread.start {
+                perProducer.times {
+                    def signal = new PointSignal()
+                    while (!testee.offer(signal, 0)) {
+                        Thread.yield()
+                    }
+                }
+                done.countDown()
+            }
+        }
+
+        Set<Signal> drained = Collections.newSetFromMap(new IdentityHashMap())
+        List<Signal> buffer = []
+        while (done.count > 0 || !testee.empty) {
+            buffer.clear()
+            testee.drainTo(buffer)
+            drained.addAll(buffer)
+        }
+
+        assertThat done.await(5, TimeUnit.SECONDS), is(true)
+        assertThat drained.size(), is(producers * perProducer)
+    }
+}
@@ -0,0 +1,65 @@
+package io.sqreen.sasdk.backend
+
+import com.fasterxml.jackson.databind.ObjectWriter
+
+/**
+ * Compares the time taken to serialize batches of traces by a single thread
+ * and by a {@link ParallelSerializer}, for several batch and chunk sizes, to
+ * show from which batch size parallel serialization pays off.
+ *
+ * Run with <code>gradle serializationBenchmark</code>.
+ */
+class SerializationBenchmark {
+
+    static final int WARMUP_MILLIS = 2000
+    static final int MEASURE_MILLIS = 3000
+
+    static void main(String[] args) {
+        ObjectWriter writer = IngestionHttpClientBuilder.createDefaultObjectWriter()
+        int threads = Runtime.runtime.availableProcessors()
+        def pool = new BufferPool(64 * 1024 * 1024)
+        println "${threads} threads"
+
+        println String.format('%8s %8s %12s %12s %8s', 'traces', 'chunk', 'serial us', 'parallel us', 'speedup')
+        for (int size : [50, 200, 1000, 5000]) {
+            def batch = (0..<size).collect { CodecBenchmark.createTrace(it) }
+            double serial = measure {
+                def out = new PooledByteArrayOutputStream(pool)
+                writer.writeValue(out, batch)
+                out.release()
+            }
+            for (int chunk : [25, 100, 500]) {
+                if (chunk >= size) {
+                    continue
+                }
+                def serializer = new ParallelSerializer(threads, chunk + 1, chunk)
+                double parallel = measure {
+                    def out = new PooledByteArrayOutputStream(pool)
+                    serializer.writeArray(writer, batch, pool, out)
+                    out.release()
+                }
+                serializer.close()
+
+                println String.format('%8d %8d %12.1f %12.1f %8.2f',
+                        size, chunk, serial, parallel, serial / parallel)
+            }
+        }
+    }
+
+    // the average duration of an execution, in microseconds
+    private static double measure(Closure<?> c) {
+        long end = System.currentTimeMillis() + WARMUP_MILLIS
+        while (System.currentTimeMillis() < end) {
+            c()
+        }
+
+        int n = 0
+        long start = System.nanoTime()
+        end = System.currentTimeMillis() + MEASURE_MILLIS
+        while (System.currentTimeMillis() < end) {
+            c()
+            n++
+        }
+        (System.nanoTime() - start) / 1000d / n
+    }
+}
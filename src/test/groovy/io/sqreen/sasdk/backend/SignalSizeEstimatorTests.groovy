@@ -0,0 +1,82 @@
+package io.sqreen.sasdk.backend
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.ObjectWriter
+import io.sqreen.sasdk.signals_dto.Actor
+import io.sqreen.sasdk.signals_dto.LocationInfra
+import io.sqreen.sasdk.signals_dto.MetricSignal
+import io.sqreen.sasdk.signals_dto.PointSignal
+import io.sqreen.sasdk.signals_dto.SerializedSignal
+import io.sqreen.sasdk.signals_dto.Trace
+import io.sqreen.sasdk.signals_dto.context.http.HttpContext
+import io.sqreen.sasdk.signals_dto.context.http.Parameters
+import io.sqreen.sasdk.signals_dto.context.http.Request
+import io.sqreen.sasdk.signals_dto.context.http.Response
+import org.junit.Test
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.*
+
+class SignalSizeEstimatorTests {
+
+    ObjectWriter writer = IngestionHttpClientBuilder.createDefaultObjectWriter()
+
+    def pointSignal = new PointSignal(
+            name: 'sq.agent.attack.sqli',
+            payloadSchema: 'attack/2020-01-01T00:00:00.000Z',
+            source: 'sqreen:rules:sqli',
+            payload: [test: false, infos: [waf: "select * from x where a='1' or 1=1"]],
+            actor: new Actor(ipAddresses: ['127.0.0.1'], userAgent: 'curl/7.64.1'),
+            locationInfra: new LocationInfra(infra: new LocationInfra.Infra(
+                    agentType: 'java', agentVersion: '1.2.3', hostname: '79e1ac01de5e')),
+            contextSchema: 'http/2020-01-01T00:00:00.000Z',
+            context: new HttpContext(
+                    request: new Request(
+                            headers: ['user-agent': 'curl/7.64.1', host: 'localhost:3000'],
+                            verb: 'GET',
+                            port: 3000,
+                            path: '/id',
+                            parameters: new Parameters(query: 'a=1')),
+                    response: new Response(status: 200)),
+            location: [stack: ['a.b.C.d(C.java:12)', 'a.b.C.e(C.java:14)']],
+            time: new Date(0))
+
+    private void assertCloseToActualSize(Object o) {
+        long actual = writer.writeValueAsBytes(o).length
+        assertThat SignalSizeEstimator.estimate(o) as double,
+                is(closeTo(actual, actual * 0.1d))
+    }
+
+    @Test
+    void 'estimates the size of a point signal'() {
+        assertCloseToActualSize pointSignal
+    }
+
+    @Test
+    void 'estimates the size of a metric signal'() {
+        assertCloseToActualSize new MetricSignal(name: 'metric', payload: [a: 1, b: 'two'])
+    }
+
+    @Test
+    void 'estimates the size of a trace with nested signals'() {
+        def trace = new Trace(name: 'trace', payload: [:])
+        20.times { trace.addSignal(pointSignal) }
+
+        assertCloseToActualSize trace
+    }
+
+    @Test
+    void 'estimates the size of a serialized signal from its tree'() {
+        def trace = new Trace(name: 'trace', payload: [:])
+        20.times { trace.addSignal(pointSignal) }
+        def tree = new ObjectMapper().readTree(writer.writeValueAsBytes(trace))
+
+        assertCloseToActualSize new SerializedSignal(tree)
+    }
+
+    @Test
+    void 'objects of unknown type have a fixed size'() {
+        assertThat SignalSizeEstimator.estimate(new Object()),
+                is(SignalSizeEstimator.UNKNOWN_OBJECT_SIZE as long)
+    }
+}
@@ -0,0 +1,112 @@
+package io.sqreen.sasdk.backend
+
+import io.sqreen.sasdk.signals_dto.PointSignal
+import io.sqreen.sasdk.signals_dto.Signal
+import org.junit.Test
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.*
+
+class StripedSignalQueueTests {
+
+    // capacity 6, chunks of 3, a single stripe
+    StripedSignalQueue testee = new StripedSignalQueue(6, 3, 1)
+
+    @Test
+    void 'number of stripes is a power of two'() {
+        assertThat new StripedSignalQueue(10, 3, 1).stripeCount(), is(1)
+        assertThat new StripedSignalQueue(10, 3, 6).stripeCount(), is(8)
+        assertThat new StripedSignalQueue(10, 3, 1000).stripeCount(), is(64)
+    }
+
+    @Test
+    void 'chunk size is derived from the trigger size'() {
+        assertThat new StripedSignalQueue(10, 30).chunkSize(), is(7)
+        assertThat new StripedSignalQueue(10, 2).chunkSize(), is(1)
+        assertThat new StripedSignalQueue(10, 1000).chunkSize(), is(32)
+    }
+
+    @Test
+    void 'staged objects are counted once their chunk is handed off'() {
+        2.times { testee.offer(new PointSignal(), 0) }
+        assertThat testee.size(), is(0)
+        assertThat testee.empty, is(false)
+
+        testee.offer(new PointSignal(), 0)
+        assertThat testee.size(), is(3)
+    }
+
+    @Test
+    void 'drain sweeps the partially filled stripes'() {
+        def signals = (1..4).collect { new PointSignal(name: "$it") }
+        signals.each { testee.offer(it, 1) }
+
+        List<Signal> drained = []
+        assertThat testee.drainTo(drained), is(4L)
+
+        assertThat drained, contains(signals as Signal[])
+        assertThat testee.size(), is(0)
+        assertThat testee.empty, is(true)
+    }
+
+    @Test
+    void 'bounded drain splits chunks and stripes'() {
+        def signals = (1..5).collect { new PointSignal(name: "$it") }
+        signals.each { testee.offer(it, it.name as long) }
+
+        List<Signal> drained = []
+        long weight = 0
+        3.times {
+            int before = drained.size()
+            weight += testee.drainTo(drained, 2)
+            assertThat drained.size() - before, is(Math.min(2, 5 - before))
+        }
+
+        assertThat drained, containsInAnyOrder(signals as Signal[])
+        assertThat weight, is(15L)
+        assertThat testee.drainTo(drained), is(0L)
+        assertThat drained.size(), is(5)
+    }
+
+    @Test
+    void 'offer fails once the handed off objects reach the capacity'() {
+        6.times {
+            assertThat testee.offer(new PointSignal(), 0), is(true)
+        }
+
+        assertThat testee.offer(new PointSignal(), 0), is(false)
+
+        testee.clear()
+        assertThat testee.offer(new PointSignal(), 0), is(true)
+    }
+
+    @Test
+    void 'concurrent producers lose no objects'() {
+        testee = new StripedSignalQueue(Integer.MAX_VALUE, 8, 4)
+        int producers = 8
+        int perProducer = 10000
+        def done = new CountDownLatch(producers)
+        producers.times {
+            Thread.start {
+                perProducer.times {
+                    testee.offer(new PointSignal(), 0)
+                }
+                done.countDown()
+            }
+        }
+
+        Set<Signal> drained = Collections.newSetFromMap(new IdentityHashMap())
+        List<Signal> buffer = []
+        while (done.count > 0 || !testee.empty) {
+            buffer.clear()
+            testee.drainTo(buffer)
+            drained.addAll(buffer)
+        }
+
+        assertThat done.await(5, TimeUnit.SECONDS), is(true)
+        assertThat drained.size(), is(producers * perProducer)
+    }
+}
@@ -0,0 +1,42 @@
+package io.sqreen.sasdk.signals_dto
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.databind.util.ISO8601DateFormat
+import org.junit.Test
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
+
+class IsoTimestampsTests {
+
+    JsonFactory factory = new JsonFactory()
+
+    private String write(long millis) {
+        def sw = new StringWriter()
+        def gen = factory.createGenerator(sw)
+        IsoTimestamps.write(gen, millis)
+        gen.close()
+        sw.toString()
+    }
+
+    @Test
+    void 'writes the same strings as ISO8601DateFormat'() {
+        def format = new ISO8601DateFormat()
+        def random = new Random(42)
+        def times = [0L, -1L, -1000L, 1234567L, 951782400000L /* 2000-02-29 */, 4102444800000L,
+                     -12212553600000L, 253402300799999L] +
+                (1..10000).collect { 1600000000000L + it * 997L } +
+                (1..10000).collect { Math.abs(random.nextLong()) % 253402300799999L }
+
+        times.each { long t ->
+            assertThat write(t), is('"' + format.format(new Date(t)) + '"')
+        }
+    }
+
+    @Test
+    void 'supports years from 1583 to 9999'() {
+        assertThat IsoTimestamps.isSupported(-12212553600000L), is(true)
+        assertThat IsoTimestamps.isSupported(-12212553600001L), is(false)
+        assertThat IsoTimestamps.isSupported(253402300800000L), is(false)
+    }
+}
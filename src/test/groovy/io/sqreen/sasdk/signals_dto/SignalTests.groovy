@@ -6,6 +6,7 @@ import org.junit.Test
 import java.time.temporal.ChronoUnit
 
 import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.is
 
 class SignalTests {
 
@@ -21,4 +22,15 @@ class SignalTests {
         def signal = new PointSignal(time: time)
         assertThat signal.getTime(), DateMatchers.within(0, ChronoUnit.MILLIS, time);
     }
+
+    @Test
+    void 'time can be set in milliseconds'() {
+        def signal = new PointSignal()
+        signal.timeMillis = 1234L
+
+        assertThat signal.getTime(), is(new Date(1234L))
+
+        signal.time = null
+        assertThat signal.getTime(), DateMatchers.within(50, ChronoUnit.MILLIS, new Date())
+    }
 }
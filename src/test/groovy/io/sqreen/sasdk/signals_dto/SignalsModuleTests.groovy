@@ -0,0 +1,235 @@
+package io.sqreen.sasdk.signals_dto
+
+import com.fasterxml.jackson.annotation.JsonFormat
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.ObjectWriter
+import com.fasterxml.jackson.databind.PropertyNamingStrategy
+import com.fasterxml.jackson.databind.SerializationFeature
+import com.fasterxml.jackson.databind.util.ISO8601DateFormat
+import io.sqreen.sasdk.signals_dto.context.http.HttpContext
+import io.sqreen.sasdk.signals_dto.context.http.HttpMethod
+import io.sqreen.sasdk.signals_dto.context.http.Parameters
+import io.sqreen.sasdk.signals_dto.context.http.Request
+import io.sqreen.sasdk.signals_dto.context.http.Response
+import org.junit.Test
+
+import static io.sqreen.agent.test.JsonMatcher.matchesJson
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.hamcrest.Matchers.containsString
+import static org.hamcrest.Matchers.is
+import static org.hamcrest.Matchers.nullValue
+import static org.hamcrest.Matchers.sameInstance
+
+class SignalsModuleTests {
+
+    ObjectWriter beanWriter = createWriter(false)
+    ObjectWriter moduleWriter = createWriter(true)
+
+    private static ObjectWriter createWriter(boolean withModule) {
+        ObjectMapper mapper = new ObjectMapper()
+        mapper.propertyNamingStrategy = PropertyNamingStrategy.SNAKE_CASE
+        mapper.timeZone = TimeZone.getTimeZone('GMT+00')
+        mapper.dateFormat = new ISO8601DateFormat()
+        if (withModule) {
+            mapper.registerModule(new SignalsModule())
+        }
+        mapper.writer()
+    }
+
+    static class ExtendedPointSignal extends PointSignal {
+        public String extra = 'extra'
+    }
+
+    private static Trace createFullTrace() {
+        def trace = new Trace(
+                name: 'sq.agent.trace',
+                payloadSchema: 'trace/2020-01-01T00:00:00.000Z',
+                payload: [a: 1, b: null, c: [1, 2]],
+                actor: new Actor(ipAddresses: ['1.2.3.4', null] as String[], userAgent: 'curl',
+                        identifiers: ['id'] as String[], traits: [] as String[]),
+                contextSchema: 'http/2020-01-01T00:00:00.000Z',
+                context: new HttpContext(
+                        request: new Request(
+                                startProcessingTime: 1L, endProcessingTime: 2L, rid: 'rid',
+                                headers: [accept: '*/*'], userAgent: 'curl', verb: HttpMethod.POST,
+                                host: 'example.com', port: 443, remoteIp: '1.2.3.4', remotePort: 1234,
+                                path: '/', referer: 'http://example.com/',
+                                parameters: new Parameters(query: 'a=1', form: 'b=2', cookies: 'c=3',
+                                        json: '{}', other: 'o')),
+                        response: new Response(status: 200, contentLength: 42, contentType: 'text/plain',
+                                blocked: false, headers: [server: 'x']),
+                        datadogTraceId: 3L, datadogSpanId: 4L),
+                source: 'sqreen:sdk:java',
+                trigger: [rule: 'r'],
+                location: [stack_trace: []],
+                locationInfra: new LocationInfra(infra: new LocationInfra.Infra(
+                        agentType: 'java', agentVersion: '1.0', osType: 'linux', hostname: 'host',
+                        runtimeType: 'java', runtimeVersion: '1.8', libsqreenVersion: '0.1')))
+        trace.time = new Date(1234567)
+        trace.addSignal(new PointSignal(name: 'point', time: new Date(0)))
+        trace.addSignal(new MetricSignal(time: new Date(0)))
+        trace.addSignal(null)
+        trace.addSignal(new ExtendedPointSignal(time: new Date(0)))
+        trace
+    }
+
+    @Test
+    void 'produces the same bytes as the bean serializers'() {
+        def nested = new Trace(time: new Date(0))
+        nested.addSignal(createFullTrace())
+        def objects = [createFullTrace(), nested, new PointSignal(time: new Date(0)),
+                       new Trace(time: new Date(0)), createFullTrace().actor,
+                       createFullTrace().context, createFullTrace().locationInfra,
+                       new HttpContext(request: new Request())]
+
+        assertThat moduleWriter.writeValueAsString(objects), is(beanWriter.writeValueAsString(objects))
+    }
+
+    @Test
+    void 'serializes a point signal'() {
+        def signal = new PointSignal(name: 'sq.agent.attack', source: 'sqreen:sdk:java',
+                actor: new Actor(userAgent: 'curl'), time: new Date(0))
+
+        assertThat moduleWriter.writeValueAsString(signal), matchesJson('''{
+            "actor": {"user_agent": "curl"},
+            "source": "sqreen:sdk:java",
+            "time": "1970-01-01T00:00:00Z",
+            "type": "point",
+            "signal_name": "sq.agent.attack"
+        }''')
+    }
+
+    @Test
+    void 'subclasses keep their own properties'() {
+        def json = moduleWriter.writeValueAsString(new ExtendedPointSignal(time: new Date(0)))
+
+        assertThat json, matchesJson('''{
+            "extra": "extra",
+            "time": "1970-01-01T00:00:00Z",
+            "type": "point"
+        }''')
+    }
+
+    @Test
+    void 'constant objects are serialized once and spliced'() {
+        def infra = new LocationInfra(infra: new LocationInfra.Infra(hostname: 'h\u00e9"', agentType: 'java'))
+        def payload = [a: [1, 2], d: new Date(0)]
+        def signals = (1..3).collect {
+            new PointSignal(name: "s${it}", locationInfra: infra, payload: payload, time: new Date(0))
+        }
+        def expected = beanWriter.writeValueAsString(signals)
+
+        SignalsModule.markConstant(infra.infra)
+        SignalsModule.markConstant(payload)
+
+        assertThat moduleWriter.writeValueAsString(signals), is(expected)
+        // not serialized again
+        infra.infra.hostname = 'changed'
+        assertThat moduleWriter.writeValueAsString(signals), is(expected)
+    }
+
+    @Test
+    void 'constant objects are cached per object writer configuration'() {
+        def payload = SignalsModule.markConstant([d: new Date(0)])
+        def signal = new PointSignal(payload: payload, time: new Date(0))
+        def timestampsWriter = moduleWriter.with(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+
+        assertThat moduleWriter.writeValueAsString(signal), is(beanWriter.writeValueAsString(signal))
+        assertThat timestampsWriter.writeValueAsString(signal),
+                is(beanWriter.with(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).writeValueAsString(signal))
+        assertThat timestampsWriter.writeValueAsString(signal), containsString('"payload":{"d":0}')
+        assertThat moduleWriter.writeValueAsString(signal), containsString('"payload":{"d":"1970-01-01T00:00:00Z"}')
+    }
+
+    @Test
+    void 'constant objects are serialized as usual with a pretty printer'() {
+        def actor = SignalsModule.markConstant(new Actor(userAgent: 'curl'))
+        def signal = new PointSignal(actor: actor, time: new Date(0))
+        moduleWriter.writeValueAsString(signal)
+
+        assertThat moduleWriter.withDefaultPrettyPrinter().writeValueAsString(signal),
+                is(beanWriter.withDefaultPrettyPrinter().writeValueAsString(signal))
+    }
+
+    static class FormattedDate {
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = 'yyyy')
+        public Date date = new Date(0)
+    }
+
+    @Test
+    void 'dates the fast path does not support are serialized as usual'() {
+        def signals = [new PointSignal(time: new Date(-20000000000000L), payload: [d: new Date(-20000000000000L)]),
+                       new PointSignal(time: new Date(0), payload: new FormattedDate())]
+
+        assertThat moduleWriter.writeValueAsString(signals), is(beanWriter.writeValueAsString(signals))
+        assertThat moduleWriter.writeValueAsString(new FormattedDate()), is('{"date":"1970"}')
+    }
+
+    @Test
+    void 'compaction writes the fields shared by all signals once'() {
+        def actor = new Actor(userAgent: 'curl')
+        def infra = new LocationInfra()
+        def point1 = new PointSignal(name: 'p1', actor: actor, source: 'src', locationInfra: infra, time: new Date(0))
+        def point2 = new PointSignal(name: 'p2', actor: actor, source: 'src', locationInfra: new LocationInfra(),
+                time: new Date(0))
+        def trace = new Trace(time: new Date(0))
+        trace.addSignal(point1)
+        trace.addSignal(point2)
+
+        def json = moduleWriter.withAttribute(SignalsModule.COMPACT_TRACES, true).writeValueAsString(trace)
+
+        assertThat json, matchesJson('''{
+            "actor": {"user_agent": "curl"},
+            "source": "src",
+            "time": "1970-01-01T00:00:00Z",
+            "type": "trace",
+            "data": [
+                {"location_infra": {}, "time": "1970-01-01T00:00:00Z", "type": "point", "signal_name": "p1"},
+                {"location_infra": {}, "time": "1970-01-01T00:00:00Z", "type": "point", "signal_name": "p2"}
+            ]
+        }''')
+        // the objects are not modified
+        assertThat trace.actor, is(nullValue())
+        assertThat trace.source, is(nullValue())
+        assertThat point1.actor, is(sameInstance(actor))
+        assertThat point2.source, is('src')
+    }
+
+    @Test
+    void 'compaction omits the values inherited from enclosing traces'() {
+        def point1 = new PointSignal(source: 'src', time: new Date(0))
+        def point2 = new PointSignal(source: 'other', time: new Date(0))
+        def nested = new Trace(source: 'src', time: new Date(0))
+        nested.addSignal(new PointSignal(source: 'src', time: new Date(0)))
+        def trace = new Trace(source: 'src', time: new Date(0))
+        [point1, point2, nested].each { trace.addSignal(it) }
+
+        def json = moduleWriter.withAttribute(SignalsModule.COMPACT_TRACES, true).writeValueAsString(trace)
+
+        assertThat json, matchesJson('''{
+            "source": "src",
+            "time": "1970-01-01T00:00:00Z",
+            "type": "trace",
+            "data": [
+                {"time": "1970-01-01T00:00:00Z", "type": "point"},
+                {"source": "other", "time": "1970-01-01T00:00:00Z", "type": "point"},
+                {"time": "1970-01-01T00:00:00Z", "type": "trace",
+                 "data": [{"time": "1970-01-01T00:00:00Z", "type": "point"}]}
+            ]
+        }''')
+        assertThat point1.source, is('src')
+    }
+
+    @Test
+    void 'traces with a single signal or null signals are not compacted'() {
+        def compactingWriter = moduleWriter.withAttribute(SignalsModule.COMPACT_TRACES, true)
+        def single = new Trace(time: new Date(0))
+        single.addSignal(new PointSignal(source: 'src', time: new Date(0)))
+        def withNull = new Trace(time: new Date(0))
+        [new PointSignal(source: 'src', time: new Date(0)), new PointSignal(source: 'src', time: new Date(0)), null]
+                .each { withNull.addSignal(it) }
+
+        assertThat compactingWriter.writeValueAsString(single), is(beanWriter.writeValueAsString(single))
+        assertThat compactingWriter.writeValueAsString(withNull), is(beanWriter.writeValueAsString(withNull))
+    }
+}
@@ -0,0 +1,190 @@
+package io.sqreen.agent.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A minimal reference relay: it accepts signals in Smile, CBOR or JSON,
+ * optionally gzipped, converts them to JSON and forwards them, with the
+ * other request headers, to the real ingestion endpoint. The response of the
+ * endpoint is sent back as is.
+ *
+ * It listens on an ephemeral port of the loopback interface, so it can stand
+ * in for a local relay in tests:
+ *
+ * <pre>
+ * SignalRelay relay = new SignalRelay("http://localhost:8080/")
+ * // send to relay.getUrl()
+ * relay.close()
+ * </pre>
+ */
+public class SignalRelay implements Closeable {
+    private static final Set<String> SKIPPED_HEADERS = ImmutableSet.of(
+            "host", "connection", "content-length", "content-type",
+            "content-encoding", "transfer-encoding");
+
+    private final String targetUrl;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+    /**
+     * Starts the relay.
+     * @param targetUrl the base URL of the endpoint; the request paths are
+     *                  appended to it
+     */
+    public SignalRelay(String targetUrl) throws IOException {
+        this.targetUrl = targetUrl.endsWith("/") ?
+                targetUrl.substring(0, targetUrl.length() - 1) : targetUrl;
+        this.server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    relay(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    /**
+     * @return the base URL the signals should be sent to, with a trailing slash
+     */
+    public String getUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort() + "/";
+    }
+
+    private void relay(HttpExchange exchange) throws IOException {
+        byte[] json;
+        try {
+            json = toJson(exchange);
+        } catch (IOException e) {
+            respond(exchange, 400, ("Could not read the request body: " + e.getMessage()).getBytes("UTF-8"));
+            return;
+        }
+        if (json == null) {
+            respond(exchange, 415, new byte[0]);
+            return;
+        }
+
+        HttpURLConnection conn = (HttpURLConnection)
+                new URL(this.targetUrl + exchange.getRequestURI()).openConnection();
+        conn.setRequestMethod(exchange.getRequestMethod());
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            if (SKIPPED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                conn.addRequestProperty(header.getKey(), value);
+            }
+        }
+        if (json.length > 0) {
+            conn.setRequestProperty("Content-Type", "application/json");
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(json.length);
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write(json);
+            }
+        }
+
+        int status = conn.getResponseCode();
+        InputStream responseStream = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        byte[] response = new byte[0];
+        if (responseStream != null) {
+            try (InputStream is = responseStream) {
+                response = ByteStreams.toByteArray(is);
+            }
+        }
+        String responseType = conn.getContentType();
+        if (responseType != null) {
+            exchange.getResponseHeaders().set("Content-Type", responseType);
+        }
+        respond(exchange, status, response);
+    }
+
+    /**
+     * @return the body of the request as JSON, or null if its
+     * <code>Content-Type</code> or <code>Content-Encoding</code> is not supported
+     */
+    private byte[] toJson(HttpExchange exchange) throws IOException {
+        InputStream body = exchange.getRequestBody();
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        if (encoding != null && !encoding.equalsIgnoreCase("identity")) {
+            if (!encoding.equalsIgnoreCase("gzip")) {
+                return null;
+            }
+            body = new GZIPInputStream(body);
+        }
+
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        ObjectMapper mapper = mapperFor(contentType);
+        if (mapper == null) {
+            return contentType == null ? ByteStreams.toByteArray(body) : null;
+        }
+        JsonNode tree = mapper.readTree(body);
+        return tree == null || tree.isMissingNode() ? new byte[0] : this.jsonMapper.writeValueAsBytes(tree);
+    }
+
+    private ObjectMapper mapperFor(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String mediaType = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        if (mediaType.equals("application/x-jackson-smile")) {
+            return this.smileMapper;
+        } else if (mediaType.equals("application/cbor")) {
+            return this.cborMapper;
+        } else if (mediaType.equals("application/json")) {
+            return this.jsonMapper;
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    /**
+     * Stops the relay.
+     */
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdown();
+    }
+}